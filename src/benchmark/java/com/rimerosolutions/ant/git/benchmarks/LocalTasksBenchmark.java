@@ -0,0 +1,249 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.rimerosolutions.ant.git.AbstractGitTask;
+import com.rimerosolutions.ant.git.tasks.AddTask;
+import com.rimerosolutions.ant.git.tasks.BranchListTask;
+import com.rimerosolutions.ant.git.tasks.CheckoutTask;
+import com.rimerosolutions.ant.git.tasks.CleanTask;
+import com.rimerosolutions.ant.git.tasks.CommitTask;
+import com.rimerosolutions.ant.git.tasks.GitSettingsTask;
+import com.rimerosolutions.ant.git.tasks.RmTask;
+import com.rimerosolutions.ant.git.tasks.TagListTask;
+import com.rimerosolutions.ant.git.tasks.UpToDateTask;
+
+/**
+ * End to end benchmarks of the local git tasks, executed through their Ant entry point against synthetic repositories.
+ *
+ * <p>Each invocation is timed once: the mutating benchmarks prepare {@link SyntheticRepository#CHANGED_FILES} files
+ * before each invocation, outside of the measurement. The generated repositories are kept under the
+ * <code>benchmark.data.dir</code> folder and reset to their generated state after each trial.</p>
+ *
+ * @author Yves Zoundi
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LocalTasksBenchmark {
+
+        private static final String SETTINGS_REF = "git.benchmark";
+        private static final String UNTRACKED_FOLDER = "untracked";
+
+        /**
+         * Synthetic repository shared by all the invocations of a benchmark
+         */
+        @State(Scope.Benchmark)
+        public static class RepositoryState {
+
+                @Param({"10000", "100000", "1000000"})
+                public int files;
+
+                @Param({"1000"})
+                public int commits;
+
+                @Param({"1000"})
+                public int refs;
+
+                SyntheticRepository repository;
+                Project project;
+                boolean alternateBranch;
+
+                @Setup(Level.Trial)
+                public void openRepository() throws Exception {
+                        File dataDir = new File(System.getProperty("benchmark.data.dir", System.getProperty("java.io.tmpdir")));
+                        repository = SyntheticRepository.open(dataDir, files, commits, refs);
+
+                        project = new Project();
+                        project.init();
+                        project.setBaseDir(repository.getDirectory());
+
+                        GitSettingsTask settings = new GitSettingsTask();
+                        settings.setProject(project);
+                        settings.setRefId(SETTINGS_REF);
+                        settings.setName("Benchmark");
+                        settings.setEmail("benchmark@example.com");
+                        settings.execute();
+                }
+
+                @TearDown(Level.Trial)
+                public void resetRepository() throws Exception {
+                        repository.reset();
+                }
+
+                <T extends AbstractGitTask> T configure(T task) {
+                        task.setProject(project);
+                        task.setDirectory(repository.getDirectory());
+                        task.setSettingsRef(SETTINGS_REF);
+
+                        return task;
+                }
+
+                FileSet fileset(String folderName) {
+                        FileSet fileset = new FileSet();
+                        fileset.setProject(project);
+                        fileset.setDir(new File(repository.getDirectory(), folderName));
+
+                        return fileset;
+                }
+        }
+
+        /**
+         * Tracked files modified before each invocation
+         */
+        @State(Scope.Benchmark)
+        public static class ModifiedFilesState extends RepositoryState {
+
+                @Setup(Level.Invocation)
+                public void modifyFiles() throws Exception {
+                        repository.modifyFiles();
+                }
+        }
+
+        /**
+         * Tracked files modified and staged before each invocation
+         */
+        @State(Scope.Benchmark)
+        public static class StagedFilesState extends RepositoryState {
+
+                @Setup(Level.Invocation)
+                public void stageFiles() throws Exception {
+                        repository.modifyFiles();
+                        repository.stage(".");
+                }
+        }
+
+        /**
+         * Files created and staged before each invocation, to be removed
+         */
+        @State(Scope.Benchmark)
+        public static class TrackedFilesState extends RepositoryState {
+
+                @Setup(Level.Invocation)
+                public void trackFiles() throws Exception {
+                        repository.createUntrackedFiles(UNTRACKED_FOLDER);
+                        repository.stage(UNTRACKED_FOLDER);
+                }
+        }
+
+        /**
+         * Untracked files created before each invocation, to be cleaned
+         */
+        @State(Scope.Benchmark)
+        public static class UntrackedFilesState extends RepositoryState {
+
+                @Setup(Level.Invocation)
+                public void createFiles() throws Exception {
+                        repository.createUntrackedFiles(UNTRACKED_FOLDER);
+                }
+        }
+
+        @Benchmark
+        public void upToDate(RepositoryState state) {
+                state.configure(new UpToDateTask()).perform();
+        }
+
+        @Benchmark
+        public void upToDateQuickCheck(RepositoryState state) {
+                UpToDateTask task = state.configure(new UpToDateTask());
+                task.setQuickCheck(true);
+                task.perform();
+        }
+
+        @Benchmark
+        public void upToDateParallel(RepositoryState state) {
+                UpToDateTask task = state.configure(new UpToDateTask());
+                task.setThreads(Runtime.getRuntime().availableProcessors());
+                task.perform();
+        }
+
+        @Benchmark
+        public void branchList(RepositoryState state) {
+                state.configure(new BranchListTask()).perform();
+        }
+
+        @Benchmark
+        public void tagList(RepositoryState state) {
+                state.configure(new TagListTask()).perform();
+        }
+
+        @Benchmark
+        public void checkout(RepositoryState state) {
+                CheckoutTask task = state.configure(new CheckoutTask());
+                task.setBranchName(state.alternateBranch ? "master" : SyntheticRepository.ALTERNATE_BRANCH);
+                task.perform();
+
+                state.alternateBranch = !state.alternateBranch;
+        }
+
+        @Benchmark
+        public void add(ModifiedFilesState state) {
+                AddTask task = state.configure(new AddTask());
+                task.addFileset(state.fileset("src"));
+                task.perform();
+        }
+
+        @Benchmark
+        public void addParallel(ModifiedFilesState state) {
+                AddTask task = state.configure(new AddTask());
+                task.addFileset(state.fileset("src"));
+                task.setThreads(Runtime.getRuntime().availableProcessors());
+                task.perform();
+        }
+
+        @Benchmark
+        public void commit(StagedFilesState state) {
+                CommitTask task = state.configure(new CommitTask());
+                task.setMessage("Benchmark commit");
+                task.perform();
+        }
+
+        @Benchmark
+        public void rm(TrackedFilesState state) {
+                RmTask task = state.configure(new RmTask());
+                task.addFileset(state.fileset(UNTRACKED_FOLDER));
+                task.perform();
+        }
+
+        @Benchmark
+        public void clean(UntrackedFilesState state) {
+                CleanTask task = state.configure(new CleanTask());
+                task.setCleanDirectories(true);
+                task.perform();
+        }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.util.FileUtils;
+
+/**
+ * Generates a repository with a given number of files, commits and references, reused across benchmark runs.
+ *
+ * <p>The history is made of one small commit per history entry, followed by a single commit adding all the files,
+ * so that generating deep histories doesn't rewrite a large index for each commit. Branches and tags are spread
+ * over the history and a <code>benchmark-alt</code> branch differs from <code>master</code> by
+ * {@link #CHANGED_FILES} files.</p>
+ *
+ * @author Yves Zoundi
+ */
+public final class SyntheticRepository {
+
+        /** Number of files touched by the mutating benchmarks */
+        public static final int CHANGED_FILES = 100;
+
+        /** Branch differing from master by {@link #CHANGED_FILES} files */
+        public static final String ALTERNATE_BRANCH = "benchmark-alt";
+
+        private static final String BASE_MARKER = "benchmark-base";
+        private static final int FILES_PER_DIRECTORY = 100;
+        private static final PersonIdent IDENTITY = new PersonIdent("Benchmark", "benchmark@example.com");
+        private final File directory;
+        private final ObjectId base;
+        private int revision;
+
+        private SyntheticRepository(File directory, ObjectId base) {
+                this.directory = directory;
+                this.base = base;
+        }
+
+        /**
+         * Opens the generated repository of a given shape, generating it on first use
+         *
+         * @param dataDir The folder holding the generated repositories
+         * @param files The number of files of the working tree
+         * @param commits The number of commits of the history
+         * @param refs The number of branches and of tags
+         * @return The repository, reset to its generated state
+         * @throws IOException if the repository cannot be written
+         * @throws GitAPIException if a Git command fails
+         */
+        public static SyntheticRepository open(File dataDir, int files, int commits, int refs) throws IOException, GitAPIException {
+                File directory = new File(dataDir, String.format("repo-%d-files-%d-commits-%d-refs", files, commits, refs));
+                File marker = new File(directory, Constants.DOT_GIT + "/" + BASE_MARKER);
+
+                if (!marker.exists()) {
+                        if (directory.exists()) {
+                                FileUtils.delete(directory, FileUtils.RECURSIVE);
+                        }
+
+                        generate(directory, files, commits, refs);
+                }
+
+                SyntheticRepository repository = new SyntheticRepository(directory, ObjectId.fromString(readMarker(marker)));
+                repository.reset();
+
+                return repository;
+        }
+
+        /**
+         * Returns the working tree directory
+         *
+         * @return The repository directory
+         */
+        public File getDirectory() {
+                return directory;
+        }
+
+        /**
+         * Restores the generated state: master branch checked out at the generated commit, no untracked files
+         *
+         * @throws GitAPIException if a Git command fails
+         * @throws IOException if the repository cannot be opened
+         */
+        public void reset() throws IOException, GitAPIException {
+                Git git = Git.open(directory);
+
+                try {
+                        git.reset().setMode(ResetType.HARD).call();
+                        git.checkout().setName(Constants.MASTER).call();
+                        git.reset().setMode(ResetType.HARD).setRef(base.name()).call();
+                        git.clean().setCleanDirectories(true).call();
+                }
+                finally {
+                        git.getRepository().close();
+                }
+        }
+
+        /**
+         * Rewrites {@link #CHANGED_FILES} tracked files with new content
+         *
+         * @throws IOException if a file cannot be written
+         */
+        public void modifyFiles() throws IOException {
+                revision++;
+
+                for (int i = 0; i < CHANGED_FILES; i++) {
+                        write(new File(directory, filePath(i)), String.format("file %d revision %d%n", i, revision));
+                }
+        }
+
+        /**
+         * Creates {@link #CHANGED_FILES} untracked files in a given folder
+         *
+         * @param folderName The folder name, relative to the working tree
+         * @throws IOException if a file cannot be written
+         */
+        public void createUntrackedFiles(String folderName) throws IOException {
+                revision++;
+
+                for (int i = 0; i < CHANGED_FILES; i++) {
+                        write(new File(directory, String.format("%s/untracked-%d.txt", folderName, i)), String.format("untracked %d revision %d%n", i, revision));
+                }
+        }
+
+        /**
+         * Stages the files of a given folder
+         *
+         * @param filePattern The folder or file to stage, relative to the working tree
+         * @throws IOException if the repository cannot be opened
+         * @throws GitAPIException if the files cannot be staged
+         */
+        public void stage(String filePattern) throws IOException, GitAPIException {
+                Git git = Git.open(directory);
+
+                try {
+                        git.add().addFilepattern(filePattern).call();
+                }
+                finally {
+                        git.getRepository().close();
+                }
+        }
+
+        private static void generate(File directory, int files, int commits, int refs) throws IOException, GitAPIException {
+                Git git = Git.init().setDirectory(directory).call();
+
+                try {
+                        RevCommit[] history = new RevCommit[commits];
+
+                        for (int i = 0; i < commits; i++) {
+                                String path = String.format("history/%d/entry-%d.txt", i / FILES_PER_DIRECTORY, i);
+                                write(new File(directory, path), String.format("history entry %d%n", i));
+                                git.add().addFilepattern(path).call();
+                                history[i] = git.commit().setMessage("History " + i).setAuthor(IDENTITY).setCommitter(IDENTITY).call();
+                        }
+
+                        for (int i = 0; i < files; i++) {
+                                write(new File(directory, filePath(i)), String.format("file %d%n", i));
+                        }
+
+                        git.add().addFilepattern(".").call();
+                        RevCommit base = git.commit().setMessage("Synthetic files").setAuthor(IDENTITY).setCommitter(IDENTITY).call();
+
+                        for (int i = 0; i < refs && commits > 0; i++) {
+                                ObjectId target = history[(int) ((long) i * commits / refs)];
+                                createRef(git, Constants.R_HEADS + "branch-" + i, target);
+                                createRef(git, Constants.R_TAGS + "tag-" + i, target);
+                        }
+
+                        git.checkout().setCreateBranch(true).setName(ALTERNATE_BRANCH).call();
+
+                        for (int i = 0; i < CHANGED_FILES && i < files; i++) {
+                                write(new File(directory, filePath(i)), String.format("file %d alternate%n", i));
+                        }
+
+                        git.commit().setAll(true).setMessage("Alternate files").setAuthor(IDENTITY).setCommitter(IDENTITY).call();
+                        git.checkout().setName(Constants.MASTER).call();
+
+                        write(new File(git.getRepository().getDirectory(), BASE_MARKER), base.name());
+                }
+                finally {
+                        git.getRepository().close();
+                }
+        }
+
+        private static void createRef(Git git, String refName, ObjectId target) throws IOException {
+                RefUpdate refUpdate = git.getRepository().updateRef(refName);
+                refUpdate.setNewObjectId(target);
+                refUpdate.update();
+        }
+
+        private static String filePath(int i) {
+                int folder = i / FILES_PER_DIRECTORY;
+
+                return String.format("src/%d/%d/file-%d.txt", folder / FILES_PER_DIRECTORY, folder % FILES_PER_DIRECTORY, i);
+        }
+
+        private static String readMarker(File marker) throws IOException {
+                return new String(Files.readAllBytes(marker.toPath()), "UTF-8").trim();
+        }
+
+        private static void write(File file, String content) throws IOException {
+                file.getParentFile().mkdirs();
+
+                try (Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+                        w.write(content);
+                }
+        }
+
+}
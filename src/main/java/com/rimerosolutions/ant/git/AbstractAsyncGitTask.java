@@ -0,0 +1,236 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.SubBuildListener;
+
+/**
+ * Git task running in the background until joined.
+ *
+ * <p>A task running in the background logs its progress and records its timing once joined. The tasks which are
+ * still running when the build finishes, never joined by an <code>await</code> task, are reported as warnings.</p>
+ *
+ * @author Yves Zoundi
+ */
+public abstract class AbstractAsyncGitTask extends AbstractGitRepoAwareTask {
+
+        private static final String REFERENCE_ID = "ant-git-tasks.async.tasks";
+        private boolean async = false;
+        private String id;
+        private boolean runningInBackground;
+        private GitTaskTiming backgroundTiming;
+
+        /**
+         * Whether or not the task runs in the background, until joined with an <code>await</code> task
+         *
+         * @antdoc.notrequired
+         * @param async Run in the background? (Default false)
+         */
+        public void setAsync(boolean async) {
+                this.async = async;
+        }
+
+        /**
+         * Sets the id used to join the task when it runs in the background
+         *
+         * @antdoc.notrequired
+         * @param id The background task id
+         */
+        public void setId(String id) {
+                this.id = id;
+        }
+
+        /**
+         * Whether or not the task runs in the background
+         *
+         * @return true if the task must be joined with an <code>await</code> task
+         */
+        protected boolean isAsync() {
+                return async;
+        }
+
+        /**
+         * Returns the id used to join the task
+         *
+         * @return The background task id
+         */
+        protected String getId() {
+                return id;
+        }
+
+        /**
+         * Registers the task as running in the background
+         */
+        protected void registerBackgroundTask() {
+                if (GitTaskUtils.isNullOrBlankString(id)) {
+                        throw new BuildException("Please specify an id to run the task in the background.");
+                }
+
+                BackgroundTasks backgroundTasks = BackgroundTasks.lookup(getProject());
+
+                synchronized (backgroundTasks) {
+                        if (backgroundTasks.tasks.containsKey(id)) {
+                                throw new BuildException(String.format("A background git task with id '%s' is already running.", id));
+                        }
+
+                        backgroundTasks.tasks.put(id, this);
+                }
+
+                runningInBackground = true;
+        }
+
+        /**
+         * Defers the progress reports and the timing of a task running in the background until it is joined
+         */
+        @Override
+        protected void executionFinished(GitTaskTiming timing) {
+                if (runningInBackground) {
+                        backgroundTiming = timing;
+
+                        return;
+                }
+
+                super.executionFinished(timing);
+        }
+
+        /**
+         * Waits for a background task and reports its outcome
+         *
+         * @param project The Ant project
+         * @param id The background task id
+         */
+        public static void await(Project project, String id) {
+                BackgroundTasks backgroundTasks = BackgroundTasks.lookup(project);
+                AbstractAsyncGitTask task;
+
+                synchronized (backgroundTasks) {
+                        task = backgroundTasks.tasks.remove(id);
+                }
+
+                if (task == null) {
+                        throw new BuildException(String.format("No background git task with id '%s'.", id));
+                }
+
+                try {
+                        task.join();
+                }
+                catch (GitBuildException e) {
+                        task.log(e, Project.MSG_ERR);
+
+                        if (task.isFailOnError()) {
+                                throw new BuildException(e);
+                        }
+                }
+                finally {
+                        task.runningInBackground = false;
+                        task.executionFinished(task.backgroundTiming);
+                }
+        }
+
+        /**
+         * Blocks until the background work is done, then validates its result
+         *
+         * @throws GitBuildException if the background work failed
+         */
+        protected abstract void join() throws GitBuildException;
+
+        /**
+         * The background tasks of a build, waiting to be joined.
+         */
+        private static final class BackgroundTasks implements SubBuildListener {
+                private final Project project;
+                private final Map<String, AbstractAsyncGitTask> tasks = new TreeMap<String, AbstractAsyncGitTask>();
+
+                private BackgroundTasks(Project project) {
+                        this.project = project;
+                }
+
+                private static BackgroundTasks lookup(Project project) {
+                        synchronized (project) {
+                                Object backgroundTasks = project.getReference(REFERENCE_ID);
+
+                                if (backgroundTasks instanceof BackgroundTasks) {
+                                        return (BackgroundTasks) backgroundTasks;
+                                }
+
+                                BackgroundTasks newBackgroundTasks = new BackgroundTasks(project);
+                                project.addReference(REFERENCE_ID, newBackgroundTasks);
+                                project.addBuildListener(newBackgroundTasks);
+
+                                return newBackgroundTasks;
+                        }
+                }
+
+                private void reportPendingTasks(BuildEvent event) {
+                        // Child projects of ant and antcall inherit the listeners of their parent
+                        if (event.getProject() != project) {
+                                return;
+                        }
+
+                        synchronized (this) {
+                                if (!tasks.isEmpty()) {
+                                        project.log(String.format("Background git tasks never awaited: %s.", tasks.keySet()), Project.MSG_WARN);
+                                        tasks.clear();
+                                }
+                        }
+                }
+
+                @Override
+                public void buildFinished(BuildEvent event) {
+                        reportPendingTasks(event);
+                }
+
+                @Override
+                public void subBuildFinished(BuildEvent event) {
+                        reportPendingTasks(event);
+                }
+
+                @Override
+                public void subBuildStarted(BuildEvent event) {
+                }
+
+                @Override
+                public void buildStarted(BuildEvent event) {
+                }
+
+                @Override
+                public void targetStarted(BuildEvent event) {
+                }
+
+                @Override
+                public void targetFinished(BuildEvent event) {
+                }
+
+                @Override
+                public void taskStarted(BuildEvent event) {
+                }
+
+                @Override
+                public void taskFinished(BuildEvent event) {
+                }
+
+                @Override
+                public void messageLogged(BuildEvent event) {
+                }
+        }
+
+}
@@ -57,13 +57,15 @@ public abstract class AbstractGitRepoAwareTask extends AbstractGitTask {
 
         @Override
         public final void execute() {
+                GitTaskTiming timing = startTiming();
+
                 try {
                         try {
-                                Repository repository = new RepositoryBuilder().
-                                        readEnvironment().
-                                        findGitDir(getDirectory()).
-                                        build();
-                                git = new Git(repository);
+                                git = new Git(openRepository());
+
+                                if (timing != null) {
+                                        timing.repositoryOpened();
+                                }
                         }
                         catch (IOException ioe) {
                                 String errorMsg = "Specified path (%s) doesn't seem to be a git repository.";
@@ -85,7 +87,39 @@ public abstract class AbstractGitRepoAwareTask extends AbstractGitTask {
                         if (git != null) {
                                 git.getRepository().close();
                         }
+
+                        executionFinished(timing);
+                }
+        }
+
+        /**
+         * Logs the pending progress reports and records the task timing once the task is done
+         *
+         * @param timing The task timing or null if there's no timing report
+         */
+        protected void executionFinished(GitTaskTiming timing) {
+                flushProgressMonitor();
+                finishTiming(timing);
+        }
+
+        /**
+         * Opens the repository of the task directory, borrowing it from the repository cache if any.
+         * The returned repository is always released with {@link Repository#close()}.
+         *
+         * @return The repository to work with
+         * @throws IOException if the repository cannot be opened
+         */
+        private Repository openRepository() throws IOException {
+                GitRepositoryCache repositoryCache = getRepositoryCache();
+
+                if (repositoryCache != null) {
+                        return repositoryCache.acquire(getDirectory());
                 }
+
+                return new RepositoryBuilder().
+                        readEnvironment().
+                        findGitDir(getDirectory()).
+                        build();
         }
 
         /**
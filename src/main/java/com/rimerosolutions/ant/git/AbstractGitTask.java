@@ -16,14 +16,26 @@
 package com.rimerosolutions.ant.git;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URISyntaxException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
 import org.apache.tools.ant.Task;
 import org.apache.tools.ant.types.Reference;
+import org.eclipse.jgit.api.FetchCommand;
 import org.eclipse.jgit.api.GitCommand;
 import org.eclipse.jgit.api.TransportCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.transport.FetchResult;
 import org.eclipse.jgit.transport.URIish;
 
 /**
@@ -34,12 +46,19 @@ import org.eclipse.jgit.transport.URIish;
  */
 public abstract class AbstractGitTask extends Task implements GitTask {
 
+        private static final Object METRICS_FILE_LOCK = new Object();
+
         private String uri;
         private ProgressMonitor progressMonitor;
+        private GitRepositoryCache repositoryCache;
         private File directory;
         private String unlessCondition;
         private String ifCondition;
         private String settingsRef;
+        private Map<String, String> deferredProperties;
+        private int timeout;
+        private int idleTimeout;
+        private long commandTime;
 
         /**
          * Returns a reference to git settings
@@ -67,6 +86,57 @@ public abstract class AbstractGitTask extends Task implements GitTask {
                 }
         }
 
+        /**
+         * Sets the maximum duration of the Git network operations, the task is cancelled once it expires.
+         * Only the tasks talking to a remote repository support timeouts.
+         *
+         * <p>A cancelled fetch or pull leaves the repository as it was, the objects received so far are discarded.
+         * A cancelled clone deletes the directory it created. A cancelled push cannot be rolled back,
+         * the remote references may be partially updated.</p>
+         *
+         * @antdoc.notrequired
+         * @param timeout The timeout in seconds, 0 for no timeout (Default 0)
+         */
+        public void setTimeout(int timeout) {
+                if (timeout < 0) {
+                        throw new BuildException("The timeout cannot be negative.");
+                }
+
+                checkTimeoutsSupported();
+                this.timeout = timeout;
+        }
+
+        /**
+         * Sets the maximum delay without progress or data received during Git network operations,
+         * the task is cancelled once it expires. Only the tasks talking to a remote repository support timeouts.
+         *
+         * @antdoc.notrequired
+         * @param idleTimeout The idle timeout in seconds, 0 for no timeout (Default 0)
+         */
+        public void setIdleTimeout(int idleTimeout) {
+                if (idleTimeout < 0) {
+                        throw new BuildException("The idle timeout cannot be negative.");
+                }
+
+                checkTimeoutsSupported();
+                this.idleTimeout = idleTimeout;
+        }
+
+        /**
+         * Whether or not the task talks to a remote repository, timeouts are rejected otherwise
+         *
+         * @return true if the task runs Git network operations
+         */
+        protected boolean usesNetwork() {
+                return false;
+        }
+
+        private void checkTimeoutsSupported() {
+                if (!usesNetwork()) {
+                        throw new BuildException(String.format("The %s task doesn't talk to a remote repository, timeouts are not supported.", getName()));
+                }
+        }
+
         /**
          * Do not execute unless a given condition is met
          *
@@ -163,6 +233,16 @@ public abstract class AbstractGitTask extends Task implements GitTask {
                 this.progressMonitor = pm;
         }
 
+        /**
+         * Sets the cache to borrow opened repositories from
+         *
+         * @param cache The repository cache
+         */
+        @Override
+        public void useRepositoryCache(GitRepositoryCache cache) {
+                this.repositoryCache = cache;
+        }
+
         /**
          * Returns the repository uri
          *
@@ -190,6 +270,149 @@ public abstract class AbstractGitTask extends Task implements GitTask {
                 return this.progressMonitor;
         }
 
+        /**
+         * Waits until the progress reports of the Git command are logged, then publishes the phase timings
+         */
+        protected void flushProgressMonitor() {
+                if (!(progressMonitor instanceof GitTaskMonitor)) {
+                        return;
+                }
+
+                GitTaskMonitor monitor = (GitTaskMonitor) progressMonitor;
+                monitor.flush();
+
+                List<GitPhaseTiming> timings = monitor.drainPhaseTimings();
+
+                if (timings.isEmpty()) {
+                        return;
+                }
+
+                if (monitor.getMetricsPrefix() != null) {
+                        publishPhaseTimings(monitor.getMetricsPrefix(), timings);
+                }
+
+                if (monitor.getMetricsFile() != null) {
+                        writePhaseTimings(monitor.getMetricsFile(), timings);
+                }
+        }
+
+        /**
+         * Sets the <code>prefix.task.phase.duration|work|throughput</code> properties,
+         * the timings of a phase run several times are summed.
+         */
+        private void publishPhaseTimings(String prefix, List<GitPhaseTiming> timings) {
+                Map<String, long[]> totals = new LinkedHashMap<String, long[]>();
+
+                for (GitPhaseTiming timing : timings) {
+                        long[] total = totals.get(timing.getKey());
+
+                        if (total == null) {
+                                total = new long[2];
+                                totals.put(timing.getKey(), total);
+                        }
+
+                        total[0] += timing.getDuration();
+                        total[1] += timing.getWork();
+                }
+
+                for (Map.Entry<String, long[]> entry : totals.entrySet()) {
+                        String propertyPrefix = String.format("%s.%s.%s.", prefix, getName(), entry.getKey());
+                        GitPhaseTiming total = new GitPhaseTiming(entry.getKey(), entry.getValue()[1], entry.getValue()[0]);
+
+                        setProjectProperty(propertyPrefix + "duration", String.valueOf(total.getDuration()));
+                        setProjectProperty(propertyPrefix + "work", String.valueOf(total.getWork()));
+                        setProjectProperty(propertyPrefix + "throughput", String.valueOf(total.getThroughput()));
+                }
+        }
+
+        /**
+         * Appends the phase timings to a file, one JSON object per line
+         */
+        private void writePhaseTimings(File metricsFile, List<GitPhaseTiming> timings) {
+                long timestamp = System.currentTimeMillis();
+                StringBuilder sb = new StringBuilder();
+
+                for (GitPhaseTiming timing : timings) {
+                        sb.append(String.format("{\"timestamp\":%d,\"task\":%s,\"directory\":%s,\"phase\":%s,\"duration\":%d,\"work\":%d,\"throughput\":%d}%n",
+                                                timestamp,
+                                                GitTaskUtils.toJsonString(getName()),
+                                                GitTaskUtils.toJsonString(directory == null ? null : directory.getAbsolutePath()),
+                                                GitTaskUtils.toJsonString(timing.getTitle()),
+                                                timing.getDuration(),
+                                                timing.getWork(),
+                                                timing.getThroughput()));
+                }
+
+                synchronized (METRICS_FILE_LOCK) {
+                        try (Writer w = new OutputStreamWriter(new FileOutputStream(metricsFile, true), "UTF-8")) {
+                                w.write(sb.toString());
+                        }
+                        catch (IOException e) {
+                                log(String.format("Could not write the metrics file %s: %s", metricsFile, e.getMessage()), Project.MSG_WARN);
+                        }
+                }
+        }
+
+        /**
+         * Returns the cache to borrow opened repositories from
+         *
+         * @return the repository cache or null if repositories are not shared
+         */
+        protected GitRepositoryCache getRepositoryCache() {
+                return this.repositoryCache;
+        }
+
+        /**
+         * Whether or not the task only reads the repository
+         *
+         * @return false unless overridden by read-only tasks
+         */
+        @Override
+        public boolean isReadOnly() {
+                return false;
+        }
+
+        /**
+         * Records the project properties set by the task instead of applying them
+         */
+        @Override
+        public synchronized void deferPropertyWrites() {
+                if (deferredProperties == null) {
+                        deferredProperties = new LinkedHashMap<String, String>();
+                }
+        }
+
+        /**
+         * Applies the recorded project properties in the order they were set
+         */
+        @Override
+        public synchronized void flushPropertyWrites() {
+                if (deferredProperties != null) {
+                        Map<String, String> properties = deferredProperties;
+                        deferredProperties = null;
+
+                        for (Map.Entry<String, String> property : properties.entrySet()) {
+                                getProject().setProperty(property.getKey(), property.getValue());
+                        }
+                }
+        }
+
+        /**
+         * Sets a project property, unless property writes are deferred
+         *
+         * @param name The property name
+         * @param value The property value
+         */
+        protected synchronized void setProjectProperty(String name, String value) {
+                if (deferredProperties != null) {
+                        deferredProperties.remove(name);
+                        deferredProperties.put(name, value);
+                }
+                else {
+                        getProject().setProperty(name, value);
+                }
+        }
+
         /**
          * Lookup the git settings for this task via a project reference
          *
@@ -224,6 +447,213 @@ public abstract class AbstractGitTask extends Task implements GitTask {
                 }
         }
 
+        /**
+         * Calls a Git command, accounting for its duration in the task timing
+         *
+         * @param command The git command to call
+         * @return The command result
+         * @throws GitAPIException if the command fails
+         */
+        protected <T> T callCommand(GitCommand<T> command) throws GitAPIException {
+                long start = System.nanoTime();
+
+                try {
+                        return command.call();
+                }
+                finally {
+                        addCommandTime(start);
+                }
+        }
+
+        /**
+         * Accounts for work done directly with the JGit API in the task timing
+         *
+         * @param start The start time of the work, as given by {@link System#nanoTime()}
+         */
+        protected void addCommandTime(long start) {
+                commandTime += System.nanoTime() - start;
+        }
+
+        /**
+         * Locks the mirror of a remote repository and fetches the objects it doesn't store yet
+         *
+         * @param cache The mirror cache
+         * @param uri The remote repository URI
+         * @return The updated mirror, to be given back with {@link #releaseMirror(GitMirrorCache, GitMirrorCache.Mirror)}
+         * @throws IOException if the mirror cannot be locked or created
+         * @throws GitAPIException if the mirror cannot be updated
+         */
+        protected GitMirrorCache.Mirror fetchMirror(GitMirrorCache cache, String uri) throws IOException, GitAPIException {
+                GitMirrorCache.Mirror mirror = cache.acquire(uri);
+                boolean fetched = false;
+
+                try {
+                        FetchCommand fetchCommand = mirror.fetch();
+                        setupCredentials(fetchCommand);
+                        setupTimeouts(fetchCommand);
+
+                        if (progressMonitor != null) {
+                                fetchCommand.setProgressMonitor(progressMonitor);
+                        }
+
+                        log(String.format("Updating the mirror '%s' of '%s'.", mirror.getDirectory(), uri), Project.MSG_VERBOSE);
+
+                        FetchResult fetchResult = callCommand(fetchCommand);
+                        GitTaskUtils.validateTrackingRefUpdates("Mirror update failed", fetchResult.getTrackingRefUpdates());
+                        fetched = true;
+
+                        return mirror;
+                }
+                finally {
+                        if (!fetched) {
+                                mirror.release();
+                        }
+                }
+        }
+
+        /**
+         * Unlocks a mirror, then evicts the mirrors exceeding the cache limits
+         *
+         * @param cache The mirror cache
+         * @param mirror The mirror returned by {@link #fetchMirror(GitMirrorCache, String)}
+         */
+        protected void releaseMirror(GitMirrorCache cache, GitMirrorCache.Mirror mirror) {
+                mirror.release();
+
+                try {
+                        for (File evicted : cache.evict()) {
+                                log(String.format("Evicted the mirror '%s'.", evicted), Project.MSG_VERBOSE);
+                        }
+                }
+                catch (IOException e) {
+                        log(String.format("Could not evict mirrors from '%s': %s", cache.getCacheDir(), e.getMessage()), Project.MSG_WARN);
+                }
+        }
+
+        /**
+         * Starts timing the task execution, if the build records a timing report
+         *
+         * @return The task timing or null if there's no timing report
+         */
+        protected GitTaskTiming startTiming() {
+                if (GitTimingReport.lookup(getProject()) == null) {
+                        return null;
+                }
+
+                commandTime = 0;
+
+                return new GitTaskTiming(getName(), directory);
+        }
+
+        /**
+         * Records the task timing in the build timing report
+         *
+         * @param timing The task timing or null if there's no timing report
+         */
+        protected void finishTiming(GitTaskTiming timing) {
+                if (timing == null) {
+                        return;
+                }
+
+                timing.finished(commandTime);
+
+                GitTimingReport report = GitTimingReport.lookup(getProject());
+
+                if (report != null) {
+                        report.record(timing);
+                }
+        }
+
+        /**
+         * Arms the task timeouts on a Git command: the progress monitor cancels the command once they expire
+         * and the transport gives up when no data is received
+         *
+         * @param command The git command to configure
+         */
+        @SuppressWarnings("rawtypes")
+        protected void setupTimeouts(GitCommand<?> command) {
+                if (timeout == 0 && idleTimeout == 0) {
+                        return;
+                }
+
+                if (!(progressMonitor instanceof GitTaskMonitor)) {
+                        GitTaskMonitor monitor = new GitTaskMonitor(this);
+                        monitor.setLoggingEnabled(false);
+                        progressMonitor = monitor;
+                }
+
+                ((GitTaskMonitor) progressMonitor).setTimeouts(timeout * 1000L, idleTimeout * 1000L);
+
+                if (command instanceof TransportCommand) {
+                        TransportCommand cmd = (TransportCommand) command;
+                        cmd.setTimeout(getTransportTimeout());
+                }
+        }
+
+        /**
+         * Creates the progress monitor of a Git command running concurrently with other commands of the task
+         *
+         * @param label The label of the command in the progress logs
+         * @return A monitor forked from the task monitor, or null if the task progress isn't monitored
+         */
+        protected ProgressMonitor forkProgressMonitor(String label) {
+                if (!(progressMonitor instanceof GitTaskMonitor)) {
+                        return null;
+                }
+
+                return ((GitTaskMonitor) progressMonitor).fork(label);
+        }
+
+        /**
+         * Returns the timeout of the Git transports, the idle timeout if any
+         *
+         * @return The transport timeout in seconds, 0 for no timeout
+         */
+        protected int getTransportTimeout() {
+                return (idleTimeout > 0) ? idleTimeout : timeout;
+        }
+
+        /**
+         * Checks whether a Git command failed because it was cancelled or timed out
+         *
+         * @param cause The Git command failure
+         * @return A failure naming the phase that was running, or null if the command wasn't cancelled
+         */
+        protected GitBuildException cancellationFailure(Exception cause) {
+                return cancellationFailure(progressMonitor, cause);
+        }
+
+        /**
+         * Checks whether a Git command monitored by a forked progress monitor failed because it was cancelled or timed out
+         *
+         * @param commandMonitor The progress monitor of the command
+         * @param cause The Git command failure
+         * @return A failure naming the phase that was running, or null if the command wasn't cancelled
+         */
+        protected GitBuildException cancellationFailure(ProgressMonitor commandMonitor, Exception cause) {
+                if (!(commandMonitor instanceof GitTaskMonitor)) {
+                        return null;
+                }
+
+                GitTaskMonitor monitor = (GitTaskMonitor) commandMonitor;
+                String cancellationMessage = monitor.getCancellationMessage();
+
+                if (cancellationMessage == null && (timeout > 0 || idleTimeout > 0)) {
+                        for (Throwable t = cause; t != null; t = t.getCause()) {
+                                if (t instanceof InterruptedIOException) {
+                                        cancellationMessage = String.format("no data received for %d seconds %s", getTransportTimeout(), monitor.describePhase());
+                                        break;
+                                }
+                        }
+                }
+
+                if (cancellationMessage == null) {
+                        return null;
+                }
+
+                return new GitBuildException(String.format("%s cancelled, %s.", getName(), cancellationMessage), cause);
+        }
+
         /** Execute the task */
         abstract public void execute();
 }
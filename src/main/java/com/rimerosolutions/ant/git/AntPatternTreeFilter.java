@@ -0,0 +1,177 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import java.io.File;
+
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Tree filter matching paths with Ant include and exclude patterns.
+ *
+ * <p>Patterns are relative to a base folder of the repository, the paths outside of that folder are skipped.
+ * Folders are only walked when an include pattern could match some of their content and no exclude pattern
+ * matches all of it, in the way of Ant directory scanners. Default excludes don't apply.</p>
+ *
+ * @author Yves Zoundi
+ */
+public class AntPatternTreeFilter extends TreeFilter {
+
+        private static final String[] INCLUDE_ALL = new String[]{"**"};
+        private static final String ALL_CONTENT_SUFFIX = File.separator + "**";
+        private final String basePath;
+        private final String[] includes;
+        private final String[] excludes;
+
+        /**
+         * Creates a new filter
+         *
+         * @param basePath The base folder of the patterns, relative to the repository root (empty for the root)
+         * @param includes The include patterns, everything under the base folder if null or empty
+         * @param excludes The exclude patterns, possibly null
+         */
+        public AntPatternTreeFilter(String basePath, String[] includes, String[] excludes) {
+                this.basePath = trimSlashes(basePath == null ? "" : basePath.replace('\\', '/'));
+                this.includes = normalizePatterns(includes == null || includes.length == 0 ? INCLUDE_ALL : includes);
+                this.excludes = normalizePatterns(excludes == null ? new String[0] : excludes);
+        }
+
+        @Override
+        public boolean include(TreeWalk walker) {
+                String path = walker.getPathString();
+                String relativePath;
+
+                if (basePath.length() == 0) {
+                        relativePath = path;
+                }
+                else if (path.startsWith(basePath) && path.length() > basePath.length() && path.charAt(basePath.length()) == '/') {
+                        relativePath = path.substring(basePath.length() + 1);
+                }
+                else if (path.equals(basePath)) {
+                        return walker.isSubtree();
+                }
+                else {
+                        return walker.isSubtree() && basePath.startsWith(path + "/");
+                }
+
+                relativePath = relativePath.replace('/', File.separatorChar);
+
+                if (walker.isSubtree()) {
+                        return couldHoldIncluded(relativePath) && !isExcludedFolder(relativePath);
+                }
+
+                return isIncluded(relativePath) && !isExcluded(relativePath);
+        }
+
+        @Override
+        public boolean shouldBeRecursive() {
+                return true;
+        }
+
+        @Override
+        public TreeFilter clone() {
+                return this;
+        }
+
+        @Override
+        public String toString() {
+                StringBuilder sb = new StringBuilder("ANT_PATTERNS(");
+                sb.append(basePath);
+
+                for (String include : includes) {
+                        sb.append(" +").append(include);
+                }
+
+                for (String exclude : excludes) {
+                        sb.append(" -").append(exclude);
+                }
+
+                return sb.append(')').toString();
+        }
+
+        private boolean couldHoldIncluded(String relativePath) {
+                for (String include : includes) {
+                        if (SelectorUtils.matchPatternStart(include, relativePath)) {
+                                return true;
+                        }
+                }
+
+                return false;
+        }
+
+        private boolean isIncluded(String relativePath) {
+                for (String include : includes) {
+                        if (SelectorUtils.matchPath(include, relativePath)) {
+                                return true;
+                        }
+                }
+
+                return false;
+        }
+
+        private boolean isExcluded(String relativePath) {
+                for (String exclude : excludes) {
+                        if (SelectorUtils.matchPath(exclude, relativePath)) {
+                                return true;
+                        }
+                }
+
+                return false;
+        }
+
+        private boolean isExcludedFolder(String relativePath) {
+                for (String exclude : excludes) {
+                        if (exclude.endsWith(ALL_CONTENT_SUFFIX) && SelectorUtils.matchPath(exclude.substring(0, exclude.length() - ALL_CONTENT_SUFFIX.length()), relativePath)) {
+                                return true;
+                        }
+                }
+
+                return false;
+        }
+
+        private static String[] normalizePatterns(String[] patterns) {
+                String[] normalized = new String[patterns.length];
+
+                for (int i = 0; i < patterns.length; i++) {
+                        String pattern = patterns[i].trim().replace('/', File.separatorChar).replace('\\', File.separatorChar);
+
+                        if (pattern.endsWith(File.separator)) {
+                                pattern += "**";
+                        }
+
+                        normalized[i] = pattern;
+                }
+
+                return normalized;
+        }
+
+        private static String trimSlashes(String path) {
+                String trimmed = path.trim();
+
+                while (trimmed.startsWith("/")) {
+                        trimmed = trimmed.substring(1);
+                }
+
+                while (trimmed.endsWith("/")) {
+                        trimmed = trimmed.substring(0, trimmed.length() - 1);
+                }
+
+                return ".".equals(trimmed) ? "" : trimmed;
+        }
+
+}
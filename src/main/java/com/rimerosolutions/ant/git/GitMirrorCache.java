@@ -0,0 +1,420 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+import org.eclipse.jgit.api.FetchCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.util.FileUtils;
+
+/**
+ * Cache of bare mirrors of remote repositories, one mirror per remote URI.
+ *
+ * <p>A mirror fetches all the references of its remote repository, only the new objects are downloaded
+ * when it's updated. Local clones and fetches are then made from the mirror.</p>
+ *
+ * <p>Each mirror is guarded by a lock file next to it: {@link #acquire(String)} waits until the mirror isn't used
+ * by another build or another task of this build. The lock file modification time records the last access to the mirror.
+ * Mirrors idle for longer than the maximum idle time are evicted first, then the least recently used mirrors until
+ * the cache fits its maximum size. Mirrors in use are never evicted.</p>
+ *
+ * @author Yves Zoundi
+ */
+public class GitMirrorCache {
+
+        private static final String MIRROR_EXTENSION = ".git";
+        private static final String LOCK_EXTENSION = ".lock";
+        private static final String MIRROR_REFSPEC = "+refs/*:refs/*";
+        private static final String OBJECTS_FOLDER = "objects";
+        private static final ConcurrentMap<File, Semaphore> LOCKS = new ConcurrentHashMap<File, Semaphore>();
+        private final File cacheDir;
+        private long maxSize;
+        private long maxIdleTime;
+
+        /**
+         * A mirror locked for the exclusive use of its borrower
+         */
+        public static final class Mirror {
+
+                private final File directory;
+                private final File lockFile;
+                private final FileLock fileLock;
+                private final Repository repository;
+
+                private Mirror(File directory, File lockFile, FileLock fileLock, Repository repository) {
+                        this.directory = directory;
+                        this.lockFile = lockFile;
+                        this.fileLock = fileLock;
+                        this.repository = repository;
+                }
+
+                /**
+                 * Returns the mirror directory
+                 *
+                 * @return The git directory of the bare mirror
+                 */
+                public File getDirectory() {
+                        return directory;
+                }
+
+                /**
+                 * Creates a command updating all the references of the mirror from its remote repository
+                 *
+                 * @return The fetch command, removing the references deleted from the remote repository
+                 */
+                public FetchCommand fetch() {
+                        return Git.wrap(repository).fetch().
+                                setRemote(Constants.DEFAULT_REMOTE_NAME).
+                                setRemoveDeletedRefs(true);
+                }
+
+                /**
+                 * Records the access to the mirror and unlocks it
+                 */
+                public void release() {
+                        repository.close();
+                        lockFile.setLastModified(System.currentTimeMillis());
+                        unlock(lockFile, fileLock);
+                }
+        }
+
+        /**
+         * Creates a mirror cache
+         *
+         * @param cacheDir The folder holding the mirrors, created on first use
+         */
+        public GitMirrorCache(File cacheDir) {
+                this.cacheDir = cacheDir;
+        }
+
+        /**
+         * Returns the folder holding the mirrors
+         *
+         * @return The cache folder
+         */
+        public File getCacheDir() {
+                return cacheDir;
+        }
+
+        /**
+         * Sets the maximum size of the cache
+         *
+         * @param maxSize The maximum size of all the mirrors in bytes, 0 for no limit
+         */
+        public void setMaxSize(long maxSize) {
+                this.maxSize = maxSize;
+        }
+
+        /**
+         * Sets the delay after which an unused mirror is evicted
+         *
+         * @param maxIdleTime The maximum idle time in milliseconds, 0 for no limit
+         */
+        public void setMaxIdleTime(long maxIdleTime) {
+                this.maxIdleTime = maxIdleTime;
+        }
+
+        /**
+         * Locks the mirror of a remote repository, creating it on first use
+         *
+         * @param uri The remote repository URI
+         * @return The locked mirror, to be released by the caller when done
+         * @throws IOException if the mirror cannot be locked or created
+         */
+        public Mirror acquire(String uri) throws IOException {
+                File folder = cacheDir.getCanonicalFile();
+                String name = mirrorName(uri);
+                File directory = new File(folder, name + MIRROR_EXTENSION);
+                File lockFile = new File(folder, name + LOCK_EXTENSION);
+
+                FileUtils.mkdirs(folder, true);
+                FileLock fileLock = lock(lockFile, true);
+                boolean acquired = false;
+
+                try {
+                        Repository repository = openMirror(directory, uri);
+                        acquired = true;
+
+                        return new Mirror(directory, lockFile, fileLock, repository);
+                }
+                finally {
+                        if (!acquired) {
+                                unlock(lockFile, fileLock);
+                        }
+                }
+        }
+
+        /**
+         * Evicts the idle mirrors, then the least recently used mirrors until the cache fits its maximum size
+         *
+         * @return The directories of the evicted mirrors
+         * @throws IOException if a mirror cannot be deleted
+         */
+        public List<File> evict() throws IOException {
+                List<File> evicted = new ArrayList<File>();
+
+                if (maxSize <= 0 && maxIdleTime <= 0) {
+                        return evicted;
+                }
+
+                File[] files = cacheDir.getCanonicalFile().listFiles();
+
+                if (files == null) {
+                        return evicted;
+                }
+
+                List<File> mirrors = new ArrayList<File>();
+
+                for (File file : files) {
+                        if (file.isDirectory() && file.getName().endsWith(MIRROR_EXTENSION)) {
+                                mirrors.add(file);
+                        }
+                }
+
+                Collections.sort(mirrors, new Comparator<File>() {
+                                @Override
+                                public int compare(File a, File b) {
+                                        return Long.compare(lastAccess(a), lastAccess(b));
+                                }
+                        });
+
+                long now = System.currentTimeMillis();
+                long totalSize = 0;
+                List<Long> sizes = new ArrayList<Long>(mirrors.size());
+
+                for (File mirror : mirrors) {
+                        long size = size(mirror);
+                        sizes.add(size);
+                        totalSize += size;
+                }
+
+                for (int i = 0; i < mirrors.size(); i++) {
+                        File mirror = mirrors.get(i);
+                        boolean idle = maxIdleTime > 0 && now - lastAccess(mirror) > maxIdleTime;
+                        boolean oversized = maxSize > 0 && totalSize > maxSize;
+
+                        if ((idle || oversized) && delete(mirror)) {
+                                totalSize -= sizes.get(i);
+                                evicted.add(mirror);
+                        }
+                }
+
+                return evicted;
+        }
+
+        /**
+         * Deletes a mirror unless it's in use
+         *
+         * @return Whether or not the mirror was deleted
+         */
+        private static boolean delete(File mirror) throws IOException {
+                File lockFile = lockFile(mirror);
+                FileLock fileLock = lock(lockFile, false);
+
+                if (fileLock == null) {
+                        return false;
+                }
+
+                try {
+                        FileUtils.delete(mirror, FileUtils.RECURSIVE | FileUtils.RETRY | FileUtils.SKIP_MISSING);
+
+                        return true;
+                }
+                finally {
+                        unlock(lockFile, fileLock);
+                }
+        }
+
+        /**
+         * Opens a mirror, a mirror left incomplete by an earlier failure is created again
+         */
+        private static Repository openMirror(File directory, String uri) throws IOException {
+                if (directory.exists() && !new File(directory, OBJECTS_FOLDER).isDirectory()) {
+                        FileUtils.delete(directory, FileUtils.RECURSIVE | FileUtils.RETRY);
+                }
+
+                Repository repository = new RepositoryBuilder().setGitDir(directory).setBare().build();
+
+                if (directory.exists()) {
+                        return repository;
+                }
+
+                try {
+                        repository.create(true);
+
+                        StoredConfig config = repository.getConfig();
+                        config.setString(ConfigConstants.CONFIG_REMOTE_SECTION, Constants.DEFAULT_REMOTE_NAME, ConfigConstants.CONFIG_KEY_URL, uri);
+                        config.setString(ConfigConstants.CONFIG_REMOTE_SECTION, Constants.DEFAULT_REMOTE_NAME, "fetch", MIRROR_REFSPEC);
+                        config.setBoolean(ConfigConstants.CONFIG_REMOTE_SECTION, Constants.DEFAULT_REMOTE_NAME, "mirror", true);
+                        config.save();
+
+                        return repository;
+                }
+                catch (IOException e) {
+                        repository.close();
+                        FileUtils.delete(directory, FileUtils.RECURSIVE | FileUtils.RETRY | FileUtils.SKIP_MISSING);
+
+                        throw e;
+                }
+        }
+
+        /**
+         * Names a mirror after the last segment of its URI followed by a hash of the URI
+         */
+        static String mirrorName(String uri) {
+                String path = uri.replaceAll("/+$", "");
+
+                if (path.endsWith(MIRROR_EXTENSION)) {
+                        path = path.substring(0, path.length() - MIRROR_EXTENSION.length()).replaceAll("/+$", "");
+                }
+
+                String segment = path.substring(Math.max(path.lastIndexOf('/'), path.lastIndexOf(':')) + 1);
+                segment = segment.replaceAll("[^A-Za-z0-9._-]", "_");
+
+                MessageDigest digest = Constants.newMessageDigest();
+                String hash = ObjectId.fromRaw(digest.digest(Constants.encode(uri))).name().substring(0, 16);
+
+                return (segment.length() == 0) ? hash : segment + "-" + hash;
+        }
+
+        private static File lockFile(File mirror) {
+                String name = mirror.getName();
+
+                return new File(mirror.getParentFile(), name.substring(0, name.length() - MIRROR_EXTENSION.length()) + LOCK_EXTENSION);
+        }
+
+        private static long lastAccess(File mirror) {
+                File lockFile = lockFile(mirror);
+
+                return lockFile.exists() ? lockFile.lastModified() : mirror.lastModified();
+        }
+
+        private static long size(File mirror) throws IOException {
+                final long[] size = new long[1];
+
+                Files.walkFileTree(mirror.toPath(), new SimpleFileVisitor<Path>() {
+                                @Override
+                                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                                        size[0] += attributes.size();
+
+                                        return FileVisitResult.CONTINUE;
+                                }
+                        });
+
+                return size[0];
+        }
+
+        /**
+         * Locks a mirror for this process, then for the other processes with a lock on its lock file.
+         * The lock file is never deleted, another process could be waiting for it.
+         *
+         * @param wait Whether to wait for the lock or give up if the mirror is in use
+         * @return The file lock or null if the mirror is in use and the caller doesn't wait
+         */
+        private static FileLock lock(File lockFile, boolean wait) throws IOException {
+                Semaphore semaphore = semaphore(lockFile);
+
+                if (wait) {
+                        try {
+                                semaphore.acquire();
+                        }
+                        catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+
+                                throw new InterruptedIOException(String.format("Interrupted while waiting for '%s'.", lockFile));
+                        }
+                }
+                else if (!semaphore.tryAcquire()) {
+                        return null;
+                }
+
+                FileLock fileLock = null;
+                RandomAccessFile file = null;
+
+                try {
+                        file = new RandomAccessFile(lockFile, "rw");
+                        FileChannel channel = file.getChannel();
+                        fileLock = wait ? channel.lock() : channel.tryLock();
+
+                        return fileLock;
+                }
+                finally {
+                        if (fileLock == null) {
+                                if (file != null) {
+                                        file.close();
+                                }
+
+                                semaphore.release();
+                        }
+                }
+        }
+
+        /**
+         * Unlocks a mirror, closing the lock file channel releases the file lock
+         */
+        private static void unlock(File lockFile, FileLock fileLock) {
+                try {
+                        fileLock.channel().close();
+                }
+                catch (IOException e) {
+                        // The lock is released with the channel, even when closing it fails
+                }
+                finally {
+                        semaphore(lockFile).release();
+                }
+        }
+
+        private static Semaphore semaphore(File lockFile) {
+                Semaphore semaphore = LOCKS.get(lockFile);
+
+                if (semaphore == null) {
+                        Semaphore newSemaphore = new Semaphore(1);
+                        semaphore = LOCKS.putIfAbsent(lockFile, newSemaphore);
+
+                        if (semaphore == null) {
+                                semaphore = newSemaphore;
+                        }
+                }
+
+                return semaphore;
+        }
+
+}
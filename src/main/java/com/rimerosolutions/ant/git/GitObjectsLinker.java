@@ -0,0 +1,214 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.lib.Constants;
+
+/**
+ * Shares the objects of a local repository with a new repository, by hard linking the object files.
+ *
+ * <p>Loose objects are linked first, then the packs with their index. Pack and loose object files are never modified once written,
+ * both repositories can safely use the same files. The alternates of the source repository are copied with absolute paths.</p>
+ *
+ * @author Yves Zoundi
+ */
+public class GitObjectsLinker {
+
+        private static final String PACK_FOLDER = "pack";
+        private static final String ALTERNATES_FILE = "info/alternates";
+        private static final String PACK_EXTENSION = ".pack";
+        private final File sourceObjects;
+        private final File targetObjects;
+        private final List<File> linkedFiles = new ArrayList<File>();
+
+        /**
+         * Creates a new linker
+         *
+         * @param sourceObjects The objects folder of the local repository
+         * @param targetObjects The objects folder of the new repository
+         */
+        public GitObjectsLinker(File sourceObjects, File targetObjects) {
+                this.sourceObjects = sourceObjects;
+                this.targetObjects = targetObjects;
+        }
+
+        /**
+         * Checks whether or not the object files can be hard linked, both object folders must be on the same file system
+         *
+         * @return Whether or not the objects can be linked
+         * @throws IOException When the file systems cannot be determined
+         */
+        public boolean canLink() throws IOException {
+                targetObjects.mkdirs();
+
+                return Files.getFileStore(sourceObjects.toPath()).equals(Files.getFileStore(targetObjects.toPath()));
+        }
+
+        /**
+         * Hard links the object files, the linked files are removed if any of them cannot be linked
+         *
+         * @return The number of linked files
+         * @throws IOException When a file cannot be linked
+         */
+        public int link() throws IOException {
+                boolean linked = false;
+
+                try {
+                        File[] folders = sourceObjects.listFiles();
+
+                        if (folders != null) {
+                                for (File folder : folders) {
+                                        if (folder.isDirectory() && folder.getName().length() == 2) {
+                                                linkLooseObjects(folder);
+                                        }
+                                }
+                        }
+
+                        File packFolder = new File(sourceObjects, PACK_FOLDER);
+                        File[] packs = packFolder.listFiles();
+
+                        if (packs != null) {
+                                for (File pack : packs) {
+                                        String name = pack.getName();
+
+                                        if (name.startsWith("pack-") && name.endsWith(PACK_EXTENSION)) {
+                                                linkPack(packFolder, name.substring(0, name.length() - PACK_EXTENSION.length()));
+                                        }
+                                }
+                        }
+
+                        copyAlternates();
+                        linked = true;
+
+                        return linkedFiles.size();
+                }
+                finally {
+                        if (!linked) {
+                                for (File file : linkedFiles) {
+                                        file.delete();
+                                }
+                        }
+                }
+        }
+
+        private void linkLooseObjects(File folder) throws IOException {
+                File[] files = folder.listFiles();
+
+                if (files == null) {
+                        return;
+                }
+
+                File targetFolder = new File(targetObjects, folder.getName());
+                targetFolder.mkdirs();
+
+                for (File file : files) {
+                        if (file.getName().length() == Constants.OBJECT_ID_STRING_LENGTH - 2) {
+                                linkFile(file, targetFolder);
+                        }
+                }
+        }
+
+        /**
+         * Links a pack, then its index and bitmap. Packs without an index are still being written and are skipped.
+         */
+        private void linkPack(File packFolder, String packName) throws IOException {
+                File index = new File(packFolder, packName + ".idx");
+
+                if (!index.exists()) {
+                        return;
+                }
+
+                File targetFolder = new File(targetObjects, PACK_FOLDER);
+                targetFolder.mkdirs();
+
+                linkFile(new File(packFolder, packName + PACK_EXTENSION), targetFolder);
+                linkFile(index, targetFolder);
+
+                File bitmap = new File(packFolder, packName + ".bitmap");
+
+                if (bitmap.exists()) {
+                        linkFile(bitmap, targetFolder);
+                }
+        }
+
+        private void linkFile(File file, File targetFolder) throws IOException {
+                File target = new File(targetFolder, file.getName());
+
+                if (target.exists()) {
+                        return;
+                }
+
+                Files.createLink(target.toPath(), file.toPath());
+                linkedFiles.add(target);
+        }
+
+        private void copyAlternates() throws IOException {
+                File alternates = new File(sourceObjects, ALTERNATES_FILE);
+
+                if (!alternates.exists()) {
+                        return;
+                }
+
+                StringBuilder sb = new StringBuilder();
+                BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(alternates), "UTF-8"));
+
+                try {
+                        String line;
+
+                        while ((line = reader.readLine()) != null) {
+                                if (line.length() == 0 || line.startsWith("#")) {
+                                        continue;
+                                }
+
+                                File alternate = new File(line);
+
+                                if (!alternate.isAbsolute()) {
+                                        alternate = new File(sourceObjects, line);
+                                }
+
+                                sb.append(alternate.getCanonicalPath()).append('\n');
+                        }
+                }
+                finally {
+                        reader.close();
+                }
+
+                File targetAlternates = new File(targetObjects, ALTERNATES_FILE);
+                targetAlternates.getParentFile().mkdirs();
+                OutputStream out = new FileOutputStream(targetAlternates);
+
+                try {
+                        out.write(Constants.encode(sb.toString()));
+                }
+                finally {
+                        out.close();
+                }
+
+                linkedFiles.add(targetAlternates);
+        }
+
+}
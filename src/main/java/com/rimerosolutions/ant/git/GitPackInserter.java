@@ -0,0 +1,320 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.PackParser;
+
+/**
+ * Writes new objects to a single pack file instead of one loose object file per object.
+ *
+ * <p>Objects are deflated to a temporary pack stream as they are inserted, objects already in the repository or already in the pack
+ * are left out. Objects up to <code>core.streamFileThreshold</code> bytes are read in memory and hashed before being written,
+ * larger objects are hashed while being streamed and removed from the stream when they turn out to be duplicates.
+ * Once flushed, the stream is given to the {@link PackParser} of the repository, which checks the objects, writes the pack index
+ * and moves the pack to the pack folder, as for a fetched pack.</p>
+ *
+ * <p>An inserter is not thread safe, each thread must use its own inserter.</p>
+ *
+ * @author Yves Zoundi
+ */
+public class GitPackInserter {
+
+        private static final int DEFAULT_STREAM_THRESHOLD = 50 * 1024 * 1024;
+        private static final int PACK_VERSION = 2;
+        private static final int PACK_HEADER_LENGTH = 12;
+        private static final long MAX_BUFFERED_LENGTH = Integer.MAX_VALUE - 8;
+
+        private final Repository repository;
+        private final File packFolder;
+        private final ObjectReader reader;
+        private final Set<ObjectId> objectIds = new HashSet<ObjectId>();
+        private final byte[] buffer = new byte[8192];
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        private long streamThreshold;
+        private File tmpPack;
+        private FileOutputStream packFile;
+        private PackOutputStream packOut;
+
+        /**
+         * Creates a new pack inserter
+         *
+         * @param repository The repository receiving the objects
+         */
+        public GitPackInserter(Repository repository) {
+                this.repository = repository;
+                this.packFolder = new File(repository.getDirectory(), "objects/pack");
+                this.reader = repository.newObjectReader();
+                this.streamThreshold = repository.getConfig().getInt("core", "streamFileThreshold", DEFAULT_STREAM_THRESHOLD);
+        }
+
+        /**
+         * Sets the size above which objects are streamed to the pack instead of being read in memory
+         *
+         * @param streamThreshold The size in bytes
+         */
+        public void setStreamThreshold(long streamThreshold) {
+                this.streamThreshold = streamThreshold;
+        }
+
+        /**
+         * Inserts an object in the pack
+         *
+         * @param type The object type
+         * @param length The length of the object content
+         * @param in The object content
+         * @return The object id
+         * @throws IOException When the object cannot be read or written
+         */
+        public ObjectId insert(int type, long length, InputStream in) throws IOException {
+                MessageDigest digest = Constants.newMessageDigest();
+                digest.update(Constants.encodedTypeString(type));
+                digest.update((byte) ' ');
+                digest.update(Constants.encodeASCII(length));
+                digest.update((byte) 0);
+
+                if (length <= Math.min(streamThreshold, MAX_BUFFERED_LENGTH)) {
+                        byte[] content = new byte[(int) length];
+                        readFully(in, content, content.length);
+                        digest.update(content);
+
+                        ObjectId id = ObjectId.fromRaw(digest.digest());
+
+                        if (!isNew(id)) {
+                                return id;
+                        }
+
+                        startObject(type, length);
+                        DeflaterOutputStream deflaterOut = new DeflaterOutputStream(packOut, deflater, buffer.length);
+                        deflaterOut.write(content);
+                        deflaterOut.finish();
+                        objectIds.add(id);
+
+                        return id;
+                }
+
+                long offset = startObject(type, length);
+                DeflaterOutputStream deflaterOut = new DeflaterOutputStream(packOut, deflater, buffer.length);
+                long remaining = length;
+
+                while (remaining > 0) {
+                        int count = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+
+                        if (count < 0) {
+                                throw new EOFException(String.format("Expected %d more bytes of content.", remaining));
+                        }
+
+                        digest.update(buffer, 0, count);
+                        deflaterOut.write(buffer, 0, count);
+                        remaining -= count;
+                }
+
+                deflaterOut.finish();
+                ObjectId id = ObjectId.fromRaw(digest.digest());
+
+                if (!isNew(id)) {
+                        packOut.flush();
+                        packFile.getChannel().truncate(offset);
+                        packOut.length = offset;
+
+                        return id;
+                }
+
+                objectIds.add(id);
+
+                return id;
+        }
+
+        /**
+         * Installs the pack in the repository, nothing is written if no object was inserted
+         *
+         * @throws IOException When the pack cannot be written or is rejected by JGit
+         */
+        public void flush() throws IOException {
+                if (packOut == null) {
+                        return;
+                }
+
+                packOut.close();
+                packOut = null;
+                completePack();
+
+                ObjectInserter inserter = repository.newObjectInserter();
+                InputStream in = new BufferedInputStream(new FileInputStream(tmpPack), 65536);
+
+                try {
+                        PackParser packParser = inserter.newPackParser(in);
+                        packParser.parse(NullProgressMonitor.INSTANCE);
+                        inserter.flush();
+                }
+                finally {
+                        in.close();
+                        inserter.release();
+                }
+
+                tmpPack.delete();
+                tmpPack = null;
+                objectIds.clear();
+        }
+
+        /**
+         * Releases the resources of the inserter, deleting the pack if it wasn't flushed
+         */
+        public void release() {
+                if (packOut != null) {
+                        try {
+                                packOut.close();
+                        }
+                        catch (IOException e) {
+                                // The pack is deleted anyway
+                        }
+
+                        packOut = null;
+                }
+
+                if (tmpPack != null) {
+                        tmpPack.delete();
+                        tmpPack = null;
+                }
+
+                deflater.end();
+                reader.release();
+        }
+
+        private boolean isNew(ObjectId id) throws IOException {
+                return !objectIds.contains(id) && !reader.has(id);
+        }
+
+        private long startObject(int type, long length) throws IOException {
+                if (packOut == null) {
+                        openPack();
+                }
+
+                deflater.reset();
+
+                long offset = packOut.length;
+                long remaining = length >>> 4;
+                int header = (type << 4) | (int) (length & 0x0f);
+
+                while (remaining > 0) {
+                        packOut.write(header | 0x80);
+                        header = (int) (remaining & 0x7f);
+                        remaining >>>= 7;
+                }
+
+                packOut.write(header);
+
+                return offset;
+        }
+
+        private void openPack() throws IOException {
+                packFolder.mkdirs();
+                tmpPack = File.createTempFile("insert_", ".pack", packFolder);
+                packFile = new FileOutputStream(tmpPack);
+                packOut = new PackOutputStream(new BufferedOutputStream(packFile, 65536));
+
+                DataOutputStream headerOut = new DataOutputStream(packOut);
+                headerOut.write(Constants.PACK_SIGNATURE);
+                headerOut.writeInt(PACK_VERSION);
+                headerOut.writeInt(0);
+        }
+
+        /**
+         * Writes the object count in the pack header and appends the checksum of the pack
+         */
+        private void completePack() throws IOException {
+                RandomAccessFile pack = new RandomAccessFile(tmpPack, "rw");
+
+                try {
+                        pack.seek(PACK_HEADER_LENGTH - 4);
+                        pack.writeInt(objectIds.size());
+                        pack.seek(0);
+
+                        MessageDigest digest = Constants.newMessageDigest();
+                        int count;
+
+                        while ((count = pack.read(buffer)) > 0) {
+                                digest.update(buffer, 0, count);
+                        }
+
+                        pack.write(digest.digest());
+                }
+                finally {
+                        pack.close();
+                }
+        }
+
+        private static void readFully(InputStream in, byte[] content, int length) throws IOException {
+                int offset = 0;
+
+                while (offset < length) {
+                        int count = in.read(content, offset, length - offset);
+
+                        if (count < 0) {
+                                throw new EOFException(String.format("Expected %d more bytes of content.", length - offset));
+                        }
+
+                        offset += count;
+                }
+        }
+
+        /**
+         * Stream counting the pack bytes.
+         */
+        private static final class PackOutputStream extends FilterOutputStream {
+                private long length;
+
+                private PackOutputStream(OutputStream out) {
+                        super(out);
+                }
+
+                @Override
+                public void write(int b) throws IOException {
+                        out.write(b);
+                        length++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                        length += len;
+                }
+        }
+
+}
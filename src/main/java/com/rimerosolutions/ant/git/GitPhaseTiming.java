@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+/**
+ * Duration and amount of work of a Git command phase (<i>Receiving objects</i>, <i>Resolving deltas</i>, etc.).
+ *
+ * @author Yves Zoundi
+ */
+public final class GitPhaseTiming {
+
+        private final String title;
+        private final long work;
+        private final long duration;
+
+        /**
+         * Creates the timing of a completed phase
+         *
+         * @param title The phase title as reported by JGit
+         * @param work The number of work units completed
+         * @param duration The phase duration in milliseconds
+         */
+        public GitPhaseTiming(String title, long work, long duration) {
+                this.title = title;
+                this.work = work;
+                this.duration = duration;
+        }
+
+        /**
+         * Returns the phase title
+         *
+         * @return The phase title as reported by JGit
+         */
+        public String getTitle() {
+                return title;
+        }
+
+        /**
+         * Returns the phase title as a property name fragment, i.e. "remote: Counting objects" gives "remote-counting-objects"
+         *
+         * @return The phase key
+         */
+        public String getKey() {
+                String key = title.toLowerCase().replaceAll("[^a-z0-9]+", "-");
+
+                return key.replaceAll("^-|-$", "");
+        }
+
+        /**
+         * Returns the number of work units completed (objects, deltas, files, etc.)
+         *
+         * @return The work done
+         */
+        public long getWork() {
+                return work;
+        }
+
+        /**
+         * Returns the phase duration
+         *
+         * @return The duration in milliseconds
+         */
+        public long getDuration() {
+                return duration;
+        }
+
+        /**
+         * Returns the phase throughput
+         *
+         * @return The number of work units per second
+         */
+        public long getThroughput() {
+                return work * 1000L / Math.max(1L, duration);
+        }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+
+/**
+ * The references advertised by a remote repository at some point, sorted by name.
+ *
+ * <p>A snapshot is stored as a text file in the format of <code>git ls-remote</code>, one
+ * <code>object-id TAB ref-name</code> line per reference. Comparing the snapshot of the previous run with the
+ * advertised references tells which references were added, updated or removed, without fetching any object.</p>
+ *
+ * @author Yves Zoundi
+ */
+public class GitRefsSnapshot {
+
+        private static final String CHARSET = "UTF-8";
+        private final SortedMap<String, ObjectId> refs;
+
+        /**
+         * Creates a snapshot
+         *
+         * @param refs The object ids by reference name
+         */
+        public GitRefsSnapshot(Map<String, ObjectId> refs) {
+                this.refs = Collections.unmodifiableSortedMap(new TreeMap<String, ObjectId>(refs));
+        }
+
+        /**
+         * Creates a snapshot of advertised references, unborn references are left out
+         *
+         * @param advertisedRefs The advertised references
+         * @return The snapshot
+         */
+        public static GitRefsSnapshot of(Collection<Ref> advertisedRefs) {
+                Map<String, ObjectId> refs = new TreeMap<String, ObjectId>();
+
+                for (Ref ref : advertisedRefs) {
+                        if (ref.getObjectId() != null) {
+                                refs.put(ref.getName(), ref.getObjectId());
+                        }
+                }
+
+                return new GitRefsSnapshot(refs);
+        }
+
+        /**
+         * Reads a snapshot file
+         *
+         * @param file The snapshot file
+         * @return The snapshot, empty if the file doesn't exist
+         * @throws IOException When the file cannot be read or is not a snapshot
+         */
+        public static GitRefsSnapshot read(File file) throws IOException {
+                Map<String, ObjectId> refs = new TreeMap<String, ObjectId>();
+
+                if (!file.exists()) {
+                        return new GitRefsSnapshot(refs);
+                }
+
+                BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET));
+
+                try {
+                        String line;
+
+                        while ((line = reader.readLine()) != null) {
+                                if (line.length() == 0) {
+                                        continue;
+                                }
+
+                                int separator = line.indexOf('\t');
+
+                                if (separator != Constants.OBJECT_ID_STRING_LENGTH || !ObjectId.isId(line.substring(0, separator))) {
+                                        throw new IOException(String.format("Invalid line in the references snapshot '%s': %s", file, line));
+                                }
+
+                                refs.put(line.substring(separator + 1), ObjectId.fromString(line.substring(0, separator)));
+                        }
+                }
+                finally {
+                        reader.close();
+                }
+
+                return new GitRefsSnapshot(refs);
+        }
+
+        /**
+         * Writes the snapshot to a file, replacing the previous snapshot at once
+         *
+         * @param file The snapshot file
+         * @throws IOException When the file cannot be written
+         */
+        public void write(File file) throws IOException {
+                File folder = file.getAbsoluteFile().getParentFile();
+                folder.mkdirs();
+
+                File tmpFile = File.createTempFile(file.getName(), ".tmp", folder);
+
+                try {
+                        Writer writer = new OutputStreamWriter(new FileOutputStream(tmpFile), CHARSET);
+
+                        try {
+                                for (Map.Entry<String, ObjectId> entry : refs.entrySet()) {
+                                        writer.write(entry.getValue().name());
+                                        writer.write('\t');
+                                        writer.write(entry.getKey());
+                                        writer.write('\n');
+                                }
+                        }
+                        finally {
+                                writer.close();
+                        }
+
+                        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                finally {
+                        tmpFile.delete();
+                }
+        }
+
+        /**
+         * Returns the references of the snapshot
+         *
+         * @return The object ids by reference name
+         */
+        public SortedMap<String, ObjectId> getRefs() {
+                return refs;
+        }
+
+        /**
+         * Lists the references missing from a previous snapshot
+         *
+         * @param previous The previous snapshot
+         * @return The names of the added references
+         */
+        public List<String> added(GitRefsSnapshot previous) {
+                List<String> names = new ArrayList<String>();
+
+                for (String name : refs.keySet()) {
+                        if (!previous.refs.containsKey(name)) {
+                                names.add(name);
+                        }
+                }
+
+                return names;
+        }
+
+        /**
+         * Lists the references pointing to another object in a previous snapshot
+         *
+         * @param previous The previous snapshot
+         * @return The names of the updated references
+         */
+        public List<String> updated(GitRefsSnapshot previous) {
+                List<String> names = new ArrayList<String>();
+
+                for (Map.Entry<String, ObjectId> entry : refs.entrySet()) {
+                        ObjectId previousId = previous.refs.get(entry.getKey());
+
+                        if (previousId != null && !previousId.equals(entry.getValue())) {
+                                names.add(entry.getKey());
+                        }
+                }
+
+                return names;
+        }
+
+        /**
+         * Lists the references of a previous snapshot that are gone
+         *
+         * @param previous The previous snapshot
+         * @return The names of the removed references
+         */
+        public List<String> removed(GitRefsSnapshot previous) {
+                return previous.added(this);
+        }
+
+}
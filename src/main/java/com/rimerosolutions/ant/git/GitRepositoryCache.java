@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+
+/**
+ * Reference-counted cache of opened Git repositories, keyed by canonical git directory.
+ *
+ * <p>Each call to {@link #acquire(File)} hands out a repository with its use count incremented,
+ * the borrower gives it back by calling {@link Repository#close()}. The cache holds one reference of its own,
+ * dropped by {@link #close()} or when the repository is evicted: a repository is only closed once the cache
+ * and all the borrowers are done with it.</p>
+ *
+ * <p>The cache is unbounded by default, a maximum size evicts the least recently used repositories
+ * and an idle timeout evicts the repositories not borrowed for a while.</p>
+ *
+ * @author Yves Zoundi
+ */
+public class GitRepositoryCache {
+
+        private final Map<File, CachedRepository> repositories = new LinkedHashMap<File, CachedRepository>(16, 0.75f, true);
+        private int maxRepositories;
+        private long idleTimeout;
+
+        private static final class CachedRepository {
+                final Repository repository;
+                long lastAccess;
+
+                CachedRepository(Repository repository) {
+                        this.repository = repository;
+                }
+        }
+
+        /**
+         * Sets the maximum number of opened repositories
+         *
+         * @param maxRepositories The maximum number of repositories kept open, 0 for no limit
+         */
+        public synchronized void setMaxRepositories(int maxRepositories) {
+                this.maxRepositories = maxRepositories;
+                evictEldestRepositories();
+        }
+
+        /**
+         * Sets the delay after which an unused repository is closed
+         *
+         * @param idleTimeout The idle timeout in milliseconds, 0 for no timeout
+         */
+        public synchronized void setIdleTimeout(long idleTimeout) {
+                this.idleTimeout = idleTimeout;
+        }
+
+        /**
+         * Borrows the repository of a given directory, opening it on first use
+         *
+         * @param directory The repository directory or any folder of its working tree
+         * @return The repository, to be closed by the caller when done
+         * @throws IOException if the repository cannot be opened
+         */
+        public synchronized Repository acquire(File directory) throws IOException {
+                RepositoryBuilder builder = new RepositoryBuilder().
+                        readEnvironment().
+                        findGitDir(directory);
+
+                if (builder.getGitDir() == null) {
+                        return builder.build();
+                }
+
+                evictIdleRepositories();
+
+                File key = builder.getGitDir().getCanonicalFile();
+                CachedRepository cached = repositories.get(key);
+
+                if (cached == null) {
+                        cached = new CachedRepository(builder.build());
+                        repositories.put(key, cached);
+                        evictEldestRepositories();
+                }
+
+                cached.lastAccess = System.currentTimeMillis();
+                cached.repository.incrementOpen();
+
+                return cached.repository;
+        }
+
+        /**
+         * Returns the number of repositories held by the cache
+         *
+         * @return The number of opened repositories
+         */
+        public synchronized int size() {
+                return repositories.size();
+        }
+
+        /**
+         * Drops the cache reference of the repositories not borrowed since the idle timeout
+         */
+        public synchronized void evictIdleRepositories() {
+                if (idleTimeout <= 0) {
+                        return;
+                }
+
+                long now = System.currentTimeMillis();
+                Iterator<CachedRepository> it = repositories.values().iterator();
+
+                while (it.hasNext()) {
+                        CachedRepository cached = it.next();
+
+                        if (now - cached.lastAccess >= idleTimeout) {
+                                cached.repository.close();
+                                it.remove();
+                        }
+                }
+        }
+
+        private void evictEldestRepositories() {
+                if (maxRepositories <= 0) {
+                        return;
+                }
+
+                Iterator<CachedRepository> it = repositories.values().iterator();
+
+                while (repositories.size() > maxRepositories) {
+                        it.next().repository.close();
+                        it.remove();
+                }
+        }
+
+        /**
+         * Drops the cache reference of all the repositories
+         */
+        public synchronized void close() {
+                for (CachedRepository cached : repositories.values()) {
+                        cached.repository.close();
+                }
+
+                repositories.clear();
+        }
+
+}
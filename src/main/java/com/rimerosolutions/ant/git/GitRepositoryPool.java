@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.Project;
+
+/**
+ * Build-scoped repository cache shared by all the git tasks containers of a project.
+ *
+ * <p>The pool is registered as a project reference and as a build listener:
+ * idle repositories are evicted when a target finishes and all repositories are closed when the build finishes.</p>
+ *
+ * @author Yves Zoundi
+ */
+public class GitRepositoryPool extends GitRepositoryCache implements BuildListener {
+
+        /** Project reference id of the repository pool */
+        public static final String REFERENCE_ID = "ant-git-tasks.repository.pool";
+
+        /**
+         * Registers a repository pool for the rest of the build, replacing any existing one
+         *
+         * @param project The Ant project
+         * @param pool The pool to register
+         */
+        public static void register(Project project, GitRepositoryPool pool) {
+                GitRepositoryPool existing = lookup(project);
+
+                if (existing != null) {
+                        project.removeBuildListener(existing);
+                        existing.close();
+                }
+
+                project.addReference(REFERENCE_ID, pool);
+                project.addBuildListener(pool);
+        }
+
+        /**
+         * Lookup the repository pool of a project
+         *
+         * @param project The Ant project
+         * @return The registered repository pool or null if none
+         */
+        public static GitRepositoryPool lookup(Project project) {
+                Object pool = project.getReference(REFERENCE_ID);
+
+                if (pool instanceof GitRepositoryPool) {
+                        return (GitRepositoryPool) pool;
+                }
+
+                return null;
+        }
+
+        @Override
+        public void buildStarted(BuildEvent event) {
+        }
+
+        @Override
+        public void buildFinished(BuildEvent event) {
+                close();
+        }
+
+        @Override
+        public void targetStarted(BuildEvent event) {
+        }
+
+        @Override
+        public void targetFinished(BuildEvent event) {
+                evictIdleRepositories();
+        }
+
+        @Override
+        public void taskStarted(BuildEvent event) {
+        }
+
+        @Override
+        public void taskFinished(BuildEvent event) {
+        }
+
+        @Override
+        public void messageLogged(BuildEvent event) {
+        }
+
+}
@@ -0,0 +1,662 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig.AutoCRLF;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.WorkingTreeOptions;
+import org.eclipse.jgit.util.NB;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.eclipse.jgit.util.io.AutoCRLFOutputStream;
+
+/**
+ * Restricts the working tree to the files of HEAD matching Ant patterns.
+ *
+ * <p>Matching files missing from the working tree are written, the other files are removed from the working tree
+ * and flagged <code>skip-worktree</code> in the index: status checks ignore them, as with a Git sparse checkout.
+ * Files with local changes and staged changes are left alone, including the matching files deleted from the working tree.</p>
+ *
+ * <p>The index is built and written by JGit's {@link DirCache}, which keeps the <code>skip-worktree</code> flag of existing
+ * entries but can't set it: before the index is committed, only the flags of the entries whose selection changed are
+ * rewritten in the locked file.</p>
+ *
+ * @author Yves Zoundi
+ */
+public class GitSparseCheckout {
+
+        private static final int HEAD = 0;
+        private static final int INDEX = 1;
+        private static final int WORKDIR = 2;
+        private static final int PREVIOUS_HEAD = 3;
+        private static final int INDEX_HEADER_LENGTH = 12;
+        private static final int FLAGS_OFFSET = 60;
+        private static final int ENTRY_FIXED_LENGTH = 62;
+        private static final int EXTENDED = 0x4000;
+        private static final int SKIP_WORKTREE = 0x4000;
+
+        private final Repository repository;
+        private final AntPatternTreeFilter patterns;
+        private final List<String> submodulePaths = new ArrayList<String>();
+        private int writtenCount;
+        private int skippedCount;
+        private ObjectId targetCommit;
+
+        /**
+         * Creates a new sparse checkout
+         *
+         * @param repository The repository, which must have a working tree
+         * @param includes The include patterns relative to the working tree, everything if null or empty
+         * @param excludes The exclude patterns, possibly null
+         */
+        public GitSparseCheckout(Repository repository, String[] includes, String[] excludes) {
+                this.repository = repository;
+                this.patterns = new AntPatternTreeFilter("", includes, excludes);
+        }
+
+        /**
+         * Creates a sparse checkout keeping the current selection of files, the skipped files
+         * restored to the working tree are no longer skipped
+         *
+         * @param repository The repository, which must have a working tree
+         */
+        public GitSparseCheckout(Repository repository) {
+                this.repository = repository;
+                this.patterns = null;
+        }
+
+        /**
+         * Checks whether some index entries are flagged skip-worktree, left out of the working tree by a sparse checkout
+         *
+         * @param repository The repository
+         * @return true if some files are left out of the working tree
+         * @throws IOException if the index cannot be read
+         */
+        public static boolean hasSkippedEntries(Repository repository) throws IOException {
+                DirCache dirCache = repository.readDirCache();
+
+                for (int i = 0; i < dirCache.getEntryCount(); i++) {
+                        if (dirCache.getEntry(i).isSkipWorkTree()) {
+                                return true;
+                        }
+                }
+
+                return false;
+        }
+
+        /**
+         * Points HEAD of a repository cloned without checkout to the cloned branch, JGit only links HEAD when it checks out the files.
+         * The local branch is created from the remote tracking branch and configured to merge it, a tag is checked out on a detached HEAD.
+         *
+         * @param repository The cloned repository
+         * @param remote The remote name
+         * @param branch The branch or tag to check out, the <code>master</code> branch or else the first cloned branch if null
+         * @return The commit of HEAD or null if no branch was cloned
+         * @throws IOException if the references cannot be updated
+         */
+        public static ObjectId linkClonedHead(Repository repository, String remote, String branch) throws IOException {
+                ObjectId head = repository.resolve(Constants.HEAD);
+
+                if (head != null) {
+                        return head;
+                }
+
+                Map<String, Ref> remoteBranches = new TreeMap<String, Ref>(repository.getRefDatabase().getRefs(Constants.R_REMOTES + remote + "/"));
+                String branchName = (branch == null) ? Constants.MASTER : Repository.shortenRefName(branch);
+                Ref remoteBranch = remoteBranches.get(branchName);
+
+                if (remoteBranch == null && branch == null && !remoteBranches.isEmpty()) {
+                        remoteBranch = remoteBranches.values().iterator().next();
+                        branchName = remoteBranches.keySet().iterator().next();
+                }
+
+                if (remoteBranch == null) {
+                        Ref tag = (branch == null) ? null : repository.getRef(Constants.R_TAGS + branchName);
+
+                        if (tag == null) {
+                                return null;
+                        }
+
+                        ObjectId commit = parseCommit(repository, tag.getObjectId());
+                        RefUpdate headUpdate = repository.updateRef(Constants.HEAD, true);
+                        headUpdate.setNewObjectId(commit);
+                        checkRefUpdate(headUpdate, headUpdate.forceUpdate());
+
+                        return commit;
+                }
+
+                ObjectId commit = parseCommit(repository, remoteBranch.getObjectId());
+                RefUpdate branchUpdate = repository.updateRef(Constants.R_HEADS + branchName);
+                branchUpdate.setNewObjectId(commit);
+                checkRefUpdate(branchUpdate, branchUpdate.forceUpdate());
+
+                RefUpdate headUpdate = repository.updateRef(Constants.HEAD);
+                headUpdate.disableRefLog();
+                checkRefUpdate(headUpdate, headUpdate.link(Constants.R_HEADS + branchName));
+
+                StoredConfig config = repository.getConfig();
+                config.setString(ConfigConstants.CONFIG_BRANCH_SECTION, branchName, ConfigConstants.CONFIG_KEY_REMOTE, remote);
+                config.setString(ConfigConstants.CONFIG_BRANCH_SECTION, branchName, ConfigConstants.CONFIG_KEY_MERGE, Constants.R_HEADS + branchName);
+                config.save();
+
+                return commit;
+        }
+
+        private static ObjectId parseCommit(Repository repository, ObjectId id) throws IOException {
+                RevWalk revWalk = new RevWalk(repository);
+
+                try {
+                        return revWalk.parseCommit(id).getId();
+                }
+                finally {
+                        revWalk.release();
+                }
+        }
+
+        private static void checkRefUpdate(RefUpdate refUpdate, RefUpdate.Result result) throws IOException {
+                switch (result) {
+                case NEW:
+                case FORCED:
+                case NO_CHANGE:
+                case FAST_FORWARD:
+                        return;
+                default:
+                        throw new IOException(String.format("Cannot update '%s': %s.", refUpdate.getName(), result));
+                }
+        }
+
+        /**
+         * Switches the index to another commit instead of restricting HEAD: the files changed since HEAD are updated in the working tree
+         * when they match the patterns, the files removed are deleted. The switch is refused before any file is touched if it would
+         * overwrite local or staged changes, HEAD itself is left to the caller.
+         *
+         * @param targetCommit The commit to check out
+         */
+        public void switchTo(ObjectId targetCommit) {
+                this.targetCommit = targetCommit;
+        }
+
+        /**
+         * Checks out the matching files of HEAD, or of the commit given to {@link #switchTo(ObjectId)}, and removes the others from the working tree
+         *
+         * @throws IOException if the index is locked or has unmerged paths, if local changes would be overwritten or if a file cannot be written
+         */
+        public void apply() throws IOException {
+                DirCache dirCache = repository.lockDirCache();
+
+                try {
+                        if (dirCache.hasUnmergedPaths()) {
+                                throw new IOException("Cannot restrict the working tree with unmerged paths.");
+                        }
+
+                        DirCacheBuilder builder = dirCache.builder();
+                        Set<String> skippedPaths = new HashSet<String>();
+                        Set<File> folders = new HashSet<File>();
+
+                        ObjectId headTree = repository.resolve(Constants.HEAD + "^{tree}");
+                        ObjectId targetTree = (targetCommit == null) ? headTree : repository.resolve(targetCommit.name() + "^{tree}");
+
+                        if (targetTree == null && targetCommit != null) {
+                                throw new IOException(String.format("Cannot find the tree of '%s'.", targetCommit.name()));
+                        }
+
+                        if (targetTree != null && !targetTree.equals(headTree)) {
+                                checkSwitch(dirCache, headTree, targetTree);
+                                walk(dirCache, targetTree, headTree, builder, skippedPaths, folders);
+                        }
+                        else {
+                                walk(dirCache, headTree, null, builder, skippedPaths, folders);
+                        }
+                        builder.finish();
+                        dirCache.write();
+
+                        if (hasSkipWorkTreeChanges(dirCache, skippedPaths)) {
+                                File indexFile = repository.getIndexFile();
+                                updateSkipWorkTreeFlags(new File(indexFile.getParentFile(), indexFile.getName() + ".lock"), skippedPaths);
+                        }
+
+                        if (!dirCache.commit()) {
+                                throw new IOException(String.format("Cannot write the index '%s'.", repository.getIndexFile()));
+                        }
+
+                        deleteEmptyFolders(folders);
+                }
+                finally {
+                        dirCache.unlock();
+                }
+        }
+
+        /**
+         * Returns the number of files written to the working tree
+         *
+         * @return The number of checked out files
+         */
+        public int getWrittenCount() {
+                return writtenCount;
+        }
+
+        /**
+         * Returns the number of index entries flagged skip-worktree
+         *
+         * @return The number of files left out of the working tree
+         */
+        public int getSkippedCount() {
+                return skippedCount;
+        }
+
+        /**
+         * Returns the paths of the sub-modules matching the patterns
+         *
+         * @return The sub-module paths relative to the working tree
+         */
+        public List<String> getSubmodulePaths() {
+                return submodulePaths;
+        }
+
+        /**
+         * Lists the files changed between HEAD and the target tree which have staged changes, local changes or an untracked file in the way
+         */
+        private void checkSwitch(DirCache dirCache, ObjectId headTree, ObjectId targetTree) throws IOException {
+                List<String> conflicts = new ArrayList<String>();
+                TreeWalk treeWalk = new TreeWalk(repository);
+
+                try {
+                        addTree(treeWalk, targetTree);
+                        treeWalk.addTree(new DirCacheIterator(dirCache));
+                        treeWalk.addTree(new FileTreeIterator(repository));
+                        addTree(treeWalk, headTree);
+                        treeWalk.setRecursive(true);
+
+                        while (treeWalk.next()) {
+                                if (isUnchanged(treeWalk, HEAD, PREVIOUS_HEAD)) {
+                                        continue;
+                                }
+
+                                DirCacheIterator dirCacheIterator = treeWalk.getTree(INDEX, DirCacheIterator.class);
+                                WorkingTreeIterator workingTreeIterator = treeWalk.getTree(WORKDIR, WorkingTreeIterator.class);
+                                DirCacheEntry entry = (dirCacheIterator == null) ? null : dirCacheIterator.getDirCacheEntry();
+
+                                if (!isUnchanged(treeWalk, INDEX, PREVIOUS_HEAD)) {
+                                        conflicts.add(treeWalk.getPathString());
+                                }
+                                else if (workingTreeIterator != null && (entry == null || entry.isSkipWorkTree()
+                                                                         || (entry.getFileMode() != FileMode.GITLINK && workingTreeIterator.isModified(entry, true)))) {
+                                        // Untracked file or local changes
+                                        conflicts.add(treeWalk.getPathString());
+                                }
+                        }
+                }
+                finally {
+                        treeWalk.release();
+                }
+
+                if (!conflicts.isEmpty()) {
+                        throw new IOException(String.format("Local changes would be overwritten:%s.", conflicts));
+                }
+        }
+
+        private static void addTree(TreeWalk treeWalk, ObjectId tree) throws IOException {
+                if (tree != null) {
+                        treeWalk.addTree(tree);
+                }
+                else {
+                        treeWalk.addTree(new EmptyTreeIterator());
+                }
+        }
+
+        private static boolean isUnchanged(TreeWalk treeWalk, int tree, int otherTree) {
+                return treeWalk.getRawMode(tree) == treeWalk.getRawMode(otherTree) && treeWalk.idEqual(tree, otherTree);
+        }
+
+        /**
+         * Builds the index of the target tree, HEAD being the previous tree when switching to another commit
+         */
+        private void walk(DirCache dirCache, ObjectId headTree, ObjectId previousHeadTree, DirCacheBuilder builder,
+                          Set<String> skippedPaths, Set<File> folders) throws IOException {
+                boolean emptyIndex = dirCache.getEntryCount() == 0;
+                boolean autoCRLF = repository.getConfig().get(WorkingTreeOptions.KEY).getAutoCRLF() == AutoCRLF.TRUE;
+                TreeWalk treeWalk = new TreeWalk(repository);
+
+                try {
+                        addTree(treeWalk, headTree);
+                        treeWalk.addTree(new DirCacheIterator(dirCache));
+                        treeWalk.addTree(new FileTreeIterator(repository));
+
+                        if (previousHeadTree != null) {
+                                addTree(treeWalk, previousHeadTree);
+                        }
+
+                        treeWalk.setRecursive(true);
+
+                        while (treeWalk.next()) {
+                                AbstractTreeIterator headIterator = treeWalk.getTree(HEAD, AbstractTreeIterator.class);
+                                DirCacheIterator dirCacheIterator = treeWalk.getTree(INDEX, DirCacheIterator.class);
+                                WorkingTreeIterator workingTreeIterator = treeWalk.getTree(WORKDIR, WorkingTreeIterator.class);
+                                DirCacheEntry entry = (dirCacheIterator == null) ? null : dirCacheIterator.getDirCacheEntry();
+
+                                if (previousHeadTree != null && !isUnchanged(treeWalk, HEAD, PREVIOUS_HEAD)) {
+                                        switchEntry(treeWalk, entry, workingTreeIterator != null, builder, skippedPaths, folders, autoCRLF);
+                                        continue;
+                                }
+
+                                if (entry == null && (headIterator == null || !emptyIndex)) {
+                                        // Untracked file or removal staged in the index
+                                        continue;
+                                }
+
+                                if (entry != null && (patterns == null || headIterator == null || !headIterator.idEqual(dirCacheIterator)
+                                                      || headIterator.getEntryRawMode() != dirCacheIterator.getEntryRawMode())) {
+                                        // Staged change or current selection
+                                        boolean skipWorkTree = entry.isSkipWorkTree() && workingTreeIterator == null;
+                                        add(builder, skippedPaths, entry, skipWorkTree);
+
+                                        if (skipWorkTree) {
+                                                skippedCount++;
+                                        }
+
+                                        continue;
+                                }
+
+                                String path = treeWalk.getPathString();
+                                FileMode mode = treeWalk.getFileMode(HEAD);
+                                boolean inWorkTree = entry != null && !entry.isSkipWorkTree() && workingTreeIterator != null;
+
+                                if (patterns == null || patterns.include(treeWalk)) {
+                                        if (mode == FileMode.GITLINK) {
+                                                submodulePaths.add(path);
+                                        }
+
+                                        if (entry != null && !entry.isSkipWorkTree()) {
+                                                // Files deleted from the working tree are left deleted
+                                                add(builder, skippedPaths, entry, false);
+                                                continue;
+                                        }
+
+                                        DirCacheEntry checkedOutEntry = newEntry(path, mode, treeWalk.getObjectId(HEAD));
+
+                                        if (workingTreeIterator == null) {
+                                                checkout(treeWalk, checkedOutEntry, autoCRLF);
+                                                writtenCount++;
+                                        }
+
+                                        add(builder, skippedPaths, checkedOutEntry, false);
+                                }
+                                else {
+                                        if (entry == null) {
+                                                entry = newEntry(path, mode, treeWalk.getObjectId(HEAD));
+                                        }
+
+                                        if (inWorkTree) {
+                                                if (mode == FileMode.GITLINK || workingTreeIterator.isModified(entry, true)) {
+                                                        // Local changes are kept in the working tree
+                                                        add(builder, skippedPaths, entry, false);
+                                                        continue;
+                                                }
+
+                                                delete(new File(repository.getWorkTree(), path), folders);
+                                        }
+
+                                        add(builder, skippedPaths, entry, true);
+                                        skippedCount++;
+                                }
+                        }
+                }
+                finally {
+                        treeWalk.release();
+                }
+        }
+
+        /**
+         * Updates a file changed between the previous HEAD and the target tree, the switch being checked first:
+         * the index entry matches the previous HEAD and the working tree file has no local changes
+         */
+        private void switchEntry(TreeWalk treeWalk, DirCacheEntry entry, boolean inWorkDir, DirCacheBuilder builder,
+                                 Set<String> skippedPaths, Set<File> folders, boolean autoCRLF) throws IOException {
+                String path = treeWalk.getPathString();
+                boolean inWorkTree = inWorkDir && entry != null && !entry.isSkipWorkTree() && entry.getFileMode() != FileMode.GITLINK;
+                File file = new File(repository.getWorkTree(), path);
+
+                if (treeWalk.getRawMode(HEAD) == 0) {
+                        if (inWorkTree) {
+                                delete(file, folders);
+                        }
+
+                        return;
+                }
+
+                FileMode mode = treeWalk.getFileMode(HEAD);
+                DirCacheEntry switchedEntry = newEntry(path, mode, treeWalk.getObjectId(HEAD));
+
+                if (patterns == null || patterns.include(treeWalk)) {
+                        if (mode == FileMode.GITLINK) {
+                                submodulePaths.add(path);
+                        }
+
+                        checkout(treeWalk, switchedEntry, autoCRLF);
+                        writtenCount++;
+                        add(builder, skippedPaths, switchedEntry, false);
+                }
+                else {
+                        if (inWorkTree) {
+                                delete(file, folders);
+                        }
+
+                        add(builder, skippedPaths, switchedEntry, true);
+                        skippedCount++;
+                }
+        }
+
+        private static void delete(File file, Set<File> folders) throws IOException {
+                if (!file.delete()) {
+                        throw new IOException(String.format("Cannot delete '%s'.", file));
+                }
+
+                folders.add(file.getParentFile());
+        }
+
+        private static void add(DirCacheBuilder builder, Set<String> skippedPaths, DirCacheEntry entry, boolean skipWorkTree) {
+                if (skipWorkTree) {
+                        skippedPaths.add(entry.getPathString());
+                }
+
+                builder.add(entry);
+        }
+
+        private static DirCacheEntry newEntry(String path, FileMode mode, ObjectId id) {
+                DirCacheEntry entry = new DirCacheEntry(path);
+                entry.setFileMode(mode);
+                entry.setObjectId(id);
+
+                return entry;
+        }
+
+        /**
+         * Writes a file of HEAD to the working tree, its size and modification time are recorded in its index entry
+         */
+        private void checkout(TreeWalk treeWalk, DirCacheEntry entry, boolean autoCRLF) throws IOException {
+                File file = new File(repository.getWorkTree(), entry.getPathString());
+                FileMode mode = entry.getFileMode();
+                file.getParentFile().mkdirs();
+
+                if (mode == FileMode.GITLINK) {
+                        file.mkdirs();
+
+                        return;
+                }
+
+                ObjectLoader loader = treeWalk.getObjectReader().open(entry.getObjectId(), Constants.OBJ_BLOB);
+
+                if (mode == FileMode.SYMLINK) {
+                        repository.getFS().createSymLink(file, RawParseUtils.decode(loader.getCachedBytes()));
+
+                        return;
+                }
+
+                OutputStream out = new FileOutputStream(file);
+
+                try {
+                        loader.copyTo(autoCRLF ? new AutoCRLFOutputStream(out) : out);
+                }
+                finally {
+                        out.close();
+                }
+
+                if (mode == FileMode.EXECUTABLE_FILE && repository.getFS().supportsExecute()) {
+                        repository.getFS().setExecute(file, true);
+                }
+
+                entry.setLength(file.length());
+                entry.setLastModified(file.lastModified());
+        }
+
+        /**
+         * Removes the folders emptied by the sparse checkout, along with their emptied parent folders
+         */
+        private void deleteEmptyFolders(Set<File> folders) {
+                File workTree = repository.getWorkTree();
+
+                for (File folder : folders) {
+                        File current = folder;
+
+                        while (!current.equals(workTree) && current.delete()) {
+                                current = current.getParentFile();
+                        }
+                }
+        }
+
+        private static boolean hasSkipWorkTreeChanges(DirCache dirCache, Set<String> skippedPaths) {
+                for (int i = 0; i < dirCache.getEntryCount(); i++) {
+                        DirCacheEntry entry = dirCache.getEntry(i);
+
+                        if (entry.isSkipWorkTree() != skippedPaths.contains(entry.getPathString())) {
+                                return true;
+                        }
+                }
+
+                return false;
+        }
+
+        /**
+         * Sets the skip-worktree flag of the entries of an index written by JGit, which keeps the flag but can't set it.
+         *
+         * <p>Only the flags of the entries are rewritten, with their extended flags word added or removed and their padding
+         * adjusted. File stats, paths and extensions are copied as written by JGit, the version is raised to 3 when entries
+         * are extended and the checksum is computed again.</p>
+         */
+        private static void updateSkipWorkTreeFlags(File indexFile, Set<String> skippedPaths) throws IOException {
+                byte[] index = Files.readAllBytes(indexFile.toPath());
+                int entryCount = NB.decodeInt32(index, 8);
+                ByteArrayOutputStream entries = new ByteArrayOutputStream(index.length + entryCount * 8);
+                boolean extended = false;
+                int offset = INDEX_HEADER_LENGTH;
+
+                for (int i = 0; i < entryCount; i++) {
+                        int flags = NB.decodeUInt16(index, offset + FLAGS_OFFSET);
+                        int pathOffset = offset + ENTRY_FIXED_LENGTH;
+                        int extendedFlags = 0;
+
+                        if ((flags & EXTENDED) != 0) {
+                                extendedFlags = NB.decodeUInt16(index, pathOffset);
+                                pathOffset += 2;
+                        }
+
+                        int pathEnd = pathOffset;
+
+                        while (index[pathEnd] != 0) {
+                                pathEnd++;
+                        }
+
+                        String path = RawParseUtils.decode(Constants.CHARSET, index, pathOffset, pathEnd);
+
+                        if (skippedPaths.contains(path)) {
+                                extendedFlags |= SKIP_WORKTREE;
+                        }
+                        else {
+                                extendedFlags &= ~SKIP_WORKTREE;
+                        }
+
+                        flags = (extendedFlags == 0) ? flags & ~EXTENDED : flags | EXTENDED;
+                        extended |= extendedFlags != 0;
+
+                        entries.write(index, offset, FLAGS_OFFSET);
+                        entries.write(flags >>> 8);
+                        entries.write(flags);
+
+                        if (extendedFlags != 0) {
+                                entries.write(extendedFlags >>> 8);
+                                entries.write(extendedFlags);
+                        }
+
+                        int length = ENTRY_FIXED_LENGTH + ((extendedFlags == 0) ? 0 : 2) + pathEnd - pathOffset;
+                        entries.write(index, pathOffset, pathEnd - pathOffset);
+                        entries.write(new byte[8 - (length & 7)], 0, 8 - (length & 7));
+
+                        offset += (pathEnd - offset + 8) & ~7;
+                }
+
+                if (extended && NB.decodeInt32(index, 4) < 3) {
+                        NB.encodeInt32(index, 4, 3);
+                }
+
+                MessageDigest digest = Constants.newMessageDigest();
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(indexFile));
+
+                try {
+                        out.write(index, 0, INDEX_HEADER_LENGTH);
+                        digest.update(index, 0, INDEX_HEADER_LENGTH);
+                        entries.write(index, offset, index.length - Constants.OBJECT_ID_LENGTH - offset);
+                        entries.writeTo(out);
+                        digest.update(entries.toByteArray());
+                        out.write(digest.digest());
+                }
+                finally {
+                        out.close();
+                }
+        }
+
+}
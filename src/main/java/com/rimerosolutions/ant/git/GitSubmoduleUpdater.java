@@ -0,0 +1,330 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.eclipse.jgit.api.CloneCommand;
+import org.eclipse.jgit.api.FetchCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.TransportCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.submodule.SubmoduleWalk;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+
+/**
+ * Clones and updates the sub-modules of a repository, several sub-modules at a time.
+ *
+ * <p>The sub-modules recorded in the index are listed first, in the way of the JGit {@link org.eclipse.jgit.api.SubmoduleUpdateCommand}.
+ * Each sub-module is then cloned or fetched and checked out by a fork-join pool, the sub-modules share nothing but
+ * the credentials. Sub-modules which were not initialized, without a URL in the repository configuration, are left alone.</p>
+ *
+ * <p>A sub-module repository is only fetched when it doesn't store the recorded commit. When only changed sub-modules are
+ * updated, a sub-module whose <code>HEAD</code> is already the recorded commit isn't checked out again.</p>
+ *
+ * <p>When updating recursively, the nested sub-modules of each updated sub-module are initialized and updated the same way,
+ * by another pool of the same size, once the sub-module is checked out.</p>
+ *
+ * @author Yves Zoundi
+ */
+public class GitSubmoduleUpdater {
+
+        private final Repository repository;
+        private final int threads;
+        private final Set<String> paths = new LinkedHashSet<String>();
+        private CredentialsProvider credentialsProvider;
+        private int timeout;
+        private boolean changedOnly;
+        private boolean recursive;
+
+        /**
+         * Creates a new sub-module updater
+         *
+         * @param repository The parent repository
+         * @param threads The maximum number of sub-modules updated at a time
+         */
+        public GitSubmoduleUpdater(Repository repository, int threads) {
+                this.repository = repository;
+                this.threads = threads;
+        }
+
+        /**
+         * Adds the path of a sub-module to update, all the sub-modules are updated when no path is added
+         *
+         * @param path The sub-module path, relative to the repository root
+         */
+        public void addPath(String path) {
+                paths.add(path);
+        }
+
+        /**
+         * Sets the credentials used to clone and fetch the sub-modules
+         *
+         * @param credentialsProvider The credentials provider
+         */
+        public void setCredentialsProvider(CredentialsProvider credentialsProvider) {
+                this.credentialsProvider = credentialsProvider;
+        }
+
+        /**
+         * Sets the timeout of the network operations
+         *
+         * @param timeout The timeout in seconds, 0 for no timeout
+         */
+        public void setTimeout(int timeout) {
+                this.timeout = timeout;
+        }
+
+        /**
+         * Whether or not only the sub-modules whose checked out commit differs from the recorded commit are updated
+         *
+         * @param changedOnly Skip the sub-modules already at the recorded commit?
+         */
+        public void setChangedOnly(boolean changedOnly) {
+                this.changedOnly = changedOnly;
+        }
+
+        /**
+         * Whether or not the nested sub-modules are initialized and updated as well
+         *
+         * @param recursive Update the sub-modules of the updated sub-modules?
+         */
+        public void setRecursive(boolean recursive) {
+                this.recursive = recursive;
+        }
+
+        /**
+         * Clones, fetches and checks out the sub-modules
+         *
+         * @return The paths of the updated sub-modules, in index order
+         * @throws IOException When the sub-modules cannot be listed or updated
+         * @throws GitAPIException When a sub-module cannot be cloned, fetched or checked out
+         */
+        public List<String> update() throws IOException, GitAPIException {
+                List<Submodule> submodules = listSubmodules();
+
+                if (submodules.isEmpty()) {
+                        return Collections.emptyList();
+                }
+
+                List<Callable<Boolean>> jobs = new ArrayList<Callable<Boolean>>();
+
+                for (final Submodule submodule : submodules) {
+                        jobs.add(new Callable<Boolean>() {
+                                        @Override
+                                        public Boolean call() throws IOException, GitAPIException {
+                                                return updateSubmodule(submodule);
+                                        }
+                                });
+                }
+
+                List<String> updatedPaths = new ArrayList<String>();
+                ForkJoinPool pool = new ForkJoinPool(Math.min(threads, jobs.size()));
+
+                try {
+                        List<Future<Boolean>> results = pool.invokeAll(jobs);
+
+                        for (int i = 0; i < results.size(); i++) {
+                                if (results.get(i).get()) {
+                                        updatedPaths.add(submodules.get(i).path);
+                                }
+                        }
+                }
+                catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+
+                        throw new IOException("Interrupted while updating the sub-modules.", e);
+                }
+                catch (ExecutionException e) {
+                        if (e.getCause() instanceof IOException) {
+                                throw (IOException) e.getCause();
+                        }
+
+                        if (e.getCause() instanceof GitAPIException) {
+                                throw (GitAPIException) e.getCause();
+                        }
+
+                        throw new IOException("Unexpected error while updating the sub-modules.", e.getCause());
+                }
+                finally {
+                        pool.shutdownNow();
+                }
+
+                return updatedPaths;
+        }
+
+        /**
+         * Lists the initialized sub-modules, the walk reads the parent repository and stays on the calling thread
+         */
+        private List<Submodule> listSubmodules() throws IOException {
+                List<Submodule> submodules = new ArrayList<Submodule>();
+                SubmoduleWalk walk = SubmoduleWalk.forIndex(repository);
+
+                try {
+                        if (!paths.isEmpty()) {
+                                walk.setFilter(PathFilterGroup.createFromStrings(paths));
+                        }
+
+                        while (walk.next()) {
+                                if (walk.getModulesPath() == null) {
+                                        continue;
+                                }
+
+                                String url = walk.getConfigUrl();
+
+                                if (url == null) {
+                                        continue;
+                                }
+
+                                submodules.add(new Submodule(walk.getPath(), walk.getDirectory(), url, walk.getObjectId(), walk.getConfigUpdate()));
+                        }
+                }
+                catch (ConfigInvalidException e) {
+                        throw new IOException("Cannot read the sub-modules configuration.", e);
+                }
+                finally {
+                        walk.release();
+                }
+
+                return submodules;
+        }
+
+        /**
+         * Clones or fetches a sub-module and checks out its recorded commit
+         *
+         * @return Whether or not the sub-module was checked out
+         */
+        private boolean updateSubmodule(Submodule submodule) throws IOException, GitAPIException {
+                Repository submoduleRepository = SubmoduleWalk.getSubmoduleRepository(repository, submodule.path);
+
+                if (submoduleRepository == null) {
+                        CloneCommand cloneCommand = Git.cloneRepository().setURI(submodule.url).setDirectory(submodule.directory).setNoCheckout(true);
+                        configure(cloneCommand);
+                        submoduleRepository = cloneCommand.call().getRepository();
+                }
+
+                try {
+                        if (!submoduleRepository.getObjectDatabase().has(submodule.commitId)) {
+                                FetchCommand fetchCommand = Git.wrap(submoduleRepository).fetch().setRemote(Constants.DEFAULT_REMOTE_NAME);
+                                configure(fetchCommand);
+                                fetchCommand.call();
+                        }
+
+                        if (changedOnly && submodule.commitId.equals(submoduleRepository.resolve(Constants.HEAD))) {
+                                return false;
+                        }
+
+                        checkout(submoduleRepository, submodule);
+
+                        if (recursive) {
+                                updateNestedSubmodules(submoduleRepository);
+                        }
+
+                        return true;
+                }
+                finally {
+                        submoduleRepository.close();
+                }
+        }
+
+        private void updateNestedSubmodules(Repository submoduleRepository) throws IOException, GitAPIException {
+                Git.wrap(submoduleRepository).submoduleInit().call();
+
+                GitSubmoduleUpdater updater = new GitSubmoduleUpdater(submoduleRepository, threads);
+                updater.setCredentialsProvider(credentialsProvider);
+                updater.setTimeout(timeout);
+                updater.setChangedOnly(changedOnly);
+                updater.setRecursive(true);
+                updater.update();
+        }
+
+        private static void checkout(Repository submoduleRepository, Submodule submodule) throws IOException, GitAPIException {
+                RevWalk walk = new RevWalk(submoduleRepository);
+
+                try {
+                        RevCommit commit = walk.parseCommit(submodule.commitId);
+
+                        if (ConfigConstants.CONFIG_KEY_MERGE.equals(submodule.update)) {
+                                Git.wrap(submoduleRepository).merge().include(commit).call();
+                        }
+                        else if (ConfigConstants.CONFIG_KEY_REBASE.equals(submodule.update)) {
+                                Git.wrap(submoduleRepository).rebase().setUpstream(commit).call();
+                        }
+                        else {
+                                DirCacheCheckout checkout = new DirCacheCheckout(submoduleRepository, submoduleRepository.lockDirCache(), commit.getTree());
+                                checkout.setFailOnConflict(true);
+                                checkout.checkout();
+
+                                RefUpdate refUpdate = submoduleRepository.updateRef(Constants.HEAD, true);
+                                refUpdate.setNewObjectId(commit);
+                                refUpdate.forceUpdate();
+                        }
+                }
+                finally {
+                        walk.release();
+                }
+        }
+
+        private void configure(TransportCommand<?, ?> command) {
+                if (credentialsProvider != null) {
+                        command.setCredentialsProvider(credentialsProvider);
+                }
+
+                if (timeout > 0) {
+                        command.setTimeout(timeout);
+                }
+        }
+
+        /**
+         * A sub-module read from the index and the repository configuration
+         */
+        private static final class Submodule {
+                private final String path;
+                private final File directory;
+                private final String url;
+                private final ObjectId commitId;
+                private final String update;
+
+                private Submodule(String path, File directory, String url, ObjectId commitId, String update) {
+                        this.path = path;
+                        this.directory = directory;
+                        this.url = url;
+                        this.commitId = commitId;
+                        this.update = update;
+                }
+        }
+
+}
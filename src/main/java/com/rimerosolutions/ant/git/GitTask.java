@@ -34,6 +34,31 @@ public interface GitTask {
          */
         void useProgressMonitor(ProgressMonitor pm);
 
+        /**
+         * Sets the cache to borrow opened repositories from
+         *
+         * @param cache The repository cache
+         * See {@link com.rimerosolutions.ant.git.GitRepositoryCache}
+         */
+        void useRepositoryCache(GitRepositoryCache cache);
+
+        /**
+         * Whether or not the task only reads the repository
+         *
+         * @return true if the task doesn't modify the repository, the working tree or any remote
+         */
+        boolean isReadOnly();
+
+        /**
+         * Records the project properties set by the task instead of applying them
+         */
+        void deferPropertyWrites();
+
+        /**
+         * Applies the recorded project properties in the order they were set
+         */
+        void flushPropertyWrites();
+
         /**
          * Sets a reference to Git settings
          *
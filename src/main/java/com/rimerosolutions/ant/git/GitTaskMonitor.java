@@ -15,11 +15,32 @@
  */
 package com.rimerosolutions.ant.git;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.eclipse.jgit.lib.ProgressMonitor;
 
 /**
  * Basic Task execution monitor.
  *
+ * <p>By default every progress update is logged. With a report interval, the monitor only counts the work done
+ * on the Git command thread: a shared reporter thread samples the progress of the current phase at the given interval,
+ * logs it when it moved by at least the percentage step (when the phase total work is known)
+ * and logs a summary when the phase ends.</p>
+ *
+ * <p>The duration and work of each completed phase are recorded, see {@link #drainPhaseTimings()}.</p>
+ *
+ * <p>With timeouts, the Git command is cancelled once the overall timeout expired or when no progress was reported
+ * for the idle timeout, see {@link #getCancellationMessage()}.</p>
+ *
  * @author Yves Zoundi
  */
 public class GitTaskMonitor implements ProgressMonitor {
@@ -28,37 +49,417 @@ public class GitTaskMonitor implements ProgressMonitor {
         public static final String MESSAGE_BEGIN = "begin";
         public static final String MESSAGE_STATUS = "status";
         public static final String MESSAGE_ENDING = "ending";
+        private static final ScheduledExecutorService REPORTER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                                Thread reporterThread = new Thread(r, "git-progress-reporter");
+                                reporterThread.setDaemon(true);
+
+                                return reporterThread;
+                        }
+                });
         private final GitTask task;
+        private final long reportInterval;
+        private final int percentStep;
+        private final List<GitPhaseTiming> phaseTimings;
+        private final String label;
         private int totalTasks;
+        private volatile Phase phase;
+        private ScheduledFuture<?> sampler;
+        private boolean loggingEnabled = true;
+        private String metricsPrefix;
+        private File metricsFile;
+        private long timeout;
+        private long idleTimeout;
+        private volatile long startTime;
+        private volatile long lastProgressTime;
+        private volatile String lastPhaseTitle;
+        private volatile String cancellationMessage;
+
+        private static final class Phase {
+                final String title;
+                final int totalWork;
+                final long startTime = System.nanoTime();
+                final AtomicLong completed = new AtomicLong();
+                long endTime;
+                long reportedWork;
+                long reportedPercent;
+
+                Phase(String title, int totalWork) {
+                        this.title = title;
+                        this.totalWork = totalWork;
+                }
+
+                long getDuration() {
+                        return TimeUnit.NANOSECONDS.toMillis(endTime - startTime);
+                }
+        }
 
         public GitTaskMonitor(GitTask task) {
+                this(task, 0, 0);
+        }
+
+        /**
+         * Creates a monitor reporting the progress at most once per interval
+         *
+         * @param task The monitored task
+         * @param reportInterval The minimum delay between two progress reports in milliseconds, 0 to log every update
+         * @param percentStep The minimum progress in percent between two reports of a phase with a known total work
+         */
+        public GitTaskMonitor(GitTask task, long reportInterval, int percentStep) {
+                this(task, reportInterval, percentStep, new ArrayList<GitPhaseTiming>(), null);
+        }
+
+        private GitTaskMonitor(GitTask task, long reportInterval, int percentStep, List<GitPhaseTiming> phaseTimings, String label) {
                 this.task = task;
+                this.reportInterval = reportInterval;
+                this.percentStep = percentStep;
+                this.phaseTimings = phaseTimings;
+                this.label = label;
+        }
+
+        /**
+         * Creates a monitor for a Git command running beside the other commands of the task, with the same settings
+         * and timeouts. Its progress is logged with a label and its phase timings are recorded by this monitor.
+         *
+         * @param label The label of the command, e.g. the remote name
+         * @return A new monitor for the command
+         */
+        public GitTaskMonitor fork(String label) {
+                GitTaskMonitor monitor = new GitTaskMonitor(task, reportInterval, percentStep, phaseTimings, label);
+                monitor.setLoggingEnabled(loggingEnabled);
+
+                if (timeout > 0 || idleTimeout > 0) {
+                        monitor.setTimeouts(timeout, idleTimeout);
+                }
+
+                return monitor;
+        }
+
+        /**
+         * Enables or disables the progress logging, phase timings are recorded in any case
+         *
+         * @param loggingEnabled Whether or not the progress is logged
+         */
+        public void setLoggingEnabled(boolean loggingEnabled) {
+                this.loggingEnabled = loggingEnabled;
+        }
+
+        /**
+         * Sets the prefix of the properties receiving the phase timings
+         *
+         * @param metricsPrefix The properties prefix or null to skip the properties
+         */
+        public void setMetricsPrefix(String metricsPrefix) {
+                this.metricsPrefix = metricsPrefix;
+        }
+
+        /**
+         * Returns the prefix of the properties receiving the phase timings
+         *
+         * @return The properties prefix or null
+         */
+        public String getMetricsPrefix() {
+                return metricsPrefix;
+        }
+
+        /**
+         * Sets the file receiving the phase timings, one JSON object per line
+         *
+         * @param metricsFile The metrics file or null
+         */
+        public void setMetricsFile(File metricsFile) {
+                this.metricsFile = metricsFile;
+        }
+
+        /**
+         * Returns the file receiving the phase timings
+         *
+         * @return The metrics file or null
+         */
+        public File getMetricsFile() {
+                return metricsFile;
+        }
+
+        /**
+         * Sets the timeouts of the Git command and starts counting
+         *
+         * @param timeout The maximum duration of the command in milliseconds, 0 for no timeout
+         * @param idleTimeout The maximum delay without progress in milliseconds, 0 for no timeout
+         */
+        public void setTimeouts(long timeout, long idleTimeout) {
+                this.timeout = timeout;
+                this.idleTimeout = idleTimeout;
+                this.startTime = currentTimeMillis();
+                this.lastProgressTime = startTime;
+                this.cancellationMessage = null;
+        }
+
+        /**
+         * Returns why the Git command was cancelled
+         *
+         * @return The cancellation message, naming the phase that was running, or null if the command wasn't cancelled
+         */
+        public String getCancellationMessage() {
+                return cancellationMessage;
+        }
+
+        /**
+         * Describes the running phase, or the last one if none is running
+         *
+         * @return The phase description
+         */
+        public String describePhase() {
+                Phase currentPhase = phase;
+                String title = (currentPhase != null) ? currentPhase.title : lastPhaseTitle;
+
+                if (title == null) {
+                        return "before any progress was reported";
+                }
+
+                return String.format("during the '%s' phase", title);
+        }
+
+        /**
+         * Returns the timings of the phases completed since the last call
+         *
+         * @return The completed phases timings, in completion order
+         */
+        public List<GitPhaseTiming> drainPhaseTimings() {
+                synchronized (phaseTimings) {
+                        List<GitPhaseTiming> timings = new ArrayList<GitPhaseTiming>(phaseTimings);
+                        phaseTimings.clear();
+
+                        return timings;
+                }
         }
 
         @Override
         public void start(int totalTasks) {
                 this.totalTasks = totalTasks;
-                task.log(String.format("[%s] %s", task.getName(), MESSAGE_STARTING));
+                report(String.format("[%s] %s", labelled(task.getName()), MESSAGE_STARTING));
         }
 
         @Override
         public void beginTask(String title, int totalWork) {
-                task.log(String.format("[%s] %s", title, MESSAGE_BEGIN));
+                // Remote phases are only reported by their title, a new phase ends the previous one
+                if (phase != null) {
+                        endPhase();
+                }
+
+                final Phase currentPhase = new Phase(labelled(title), totalWork);
+                phase = currentPhase;
+
+                if (idleTimeout > 0) {
+                        lastProgressTime = currentTimeMillis();
+                }
+
+                if (!isThrottled()) {
+                        log(String.format("[%s] %s", currentPhase.title, MESSAGE_BEGIN));
+
+                        return;
+                }
+
+                report(String.format("[%s] %s", currentPhase.title, MESSAGE_BEGIN));
+
+                sampler = REPORTER.scheduleAtFixedRate(new Runnable() {
+                                @Override
+                                public void run() {
+                                        reportProgress(currentPhase);
+                                }
+                        }, reportInterval, reportInterval, TimeUnit.MILLISECONDS);
         }
 
         @Override
         public void update(int completed) {
-                task.log(String.format("[%s] %s [%d/%d]", task.getName(), MESSAGE_STATUS, completed, totalTasks));
+                Phase currentPhase = phase;
+
+                if (currentPhase != null) {
+                        currentPhase.completed.addAndGet(completed);
+                }
+
+                if (idleTimeout > 0) {
+                        lastProgressTime = currentTimeMillis();
+                }
+
+                if (!isThrottled()) {
+                        log(String.format("[%s] %s [%d/%d]", labelled(task.getName()), MESSAGE_STATUS, completed, totalTasks));
+                }
         }
 
         @Override
         public boolean isCancelled() {
-                return false;
+                if (cancellationMessage != null) {
+                        return true;
+                }
+
+                if (timeout <= 0 && idleTimeout <= 0) {
+                        return false;
+                }
+
+                long now = currentTimeMillis();
+
+                if (timeout > 0 && now - startTime >= timeout) {
+                        cancellationMessage = String.format("timed out after %d seconds %s", timeout / 1000, describePhase());
+                }
+                else if (idleTimeout > 0 && now - lastProgressTime >= idleTimeout) {
+                        cancellationMessage = String.format("no progress for %d seconds %s", idleTimeout / 1000, describePhase());
+                }
+
+                return cancellationMessage != null;
         }
 
         @Override
         public void endTask() {
-                task.log(String.format("[%s] %s", task.getName(), MESSAGE_ENDING));
+                if (!isThrottled() || phase == null) {
+                        log(String.format("[%s] %s", labelled(task.getName()), MESSAGE_ENDING));
+                }
+
+                if (phase != null) {
+                        endPhase();
+                }
+        }
+
+        private void endPhase() {
+                final Phase endedPhase = phase;
+                endedPhase.endTime = System.nanoTime();
+                lastPhaseTitle = endedPhase.title;
+                phase = null;
+
+                synchronized (phaseTimings) {
+                        phaseTimings.add(new GitPhaseTiming(endedPhase.title, endedPhase.completed.get(), endedPhase.getDuration()));
+                }
+
+                if (!isThrottled()) {
+                        return;
+                }
+
+                stopSampler();
+
+                REPORTER.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                        reportSummary(endedPhase);
+                                }
+                        });
+        }
+
+        /**
+         * Waits until the pending progress reports are logged
+         */
+        public void flush() {
+                if (!isThrottled()) {
+                        return;
+                }
+
+                try {
+                        REPORTER.submit(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                        }
+                                }).get();
+                }
+                catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                }
+                catch (ExecutionException e) {
+                        // Nothing to report, the task doesn't do anything
+                }
+        }
+
+        /**
+         * Samples the progress of the running phase right away, as the reporter does at each interval,
+         * and waits until the report is logged
+         */
+        void sampleProgress() {
+                final Phase currentPhase = phase;
+
+                if (currentPhase == null || !isThrottled()) {
+                        return;
+                }
+
+                REPORTER.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                        reportProgress(currentPhase);
+                                }
+                        });
+                flush();
+        }
+
+        /**
+         * Returns the current time used by the timeouts
+         *
+         * @return The current time in milliseconds
+         */
+        long currentTimeMillis() {
+                return System.currentTimeMillis();
+        }
+
+        private String labelled(String name) {
+                return (label == null) ? name : label + ": " + name;
+        }
+
+        private boolean isThrottled() {
+                return loggingEnabled && reportInterval > 0;
+        }
+
+        private void log(String message) {
+                if (loggingEnabled) {
+                        task.log(message);
+                }
+        }
+
+        private void stopSampler() {
+                if (sampler != null) {
+                        sampler.cancel(false);
+                        sampler = null;
+                }
+        }
+
+        private void report(final String message) {
+                if (!isThrottled()) {
+                        log(message);
+
+                        return;
+                }
+
+                REPORTER.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                        task.log(message);
+                                }
+                        });
+        }
+
+        // Runs on the reporter thread
+        private void reportProgress(Phase currentPhase) {
+                long completed = currentPhase.completed.get();
+
+                if (completed == currentPhase.reportedWork) {
+                        return;
+                }
+
+                if (currentPhase.totalWork > 0) {
+                        long percent = Math.min(100, completed * 100 / currentPhase.totalWork);
+
+                        if (percent < currentPhase.reportedPercent + percentStep) {
+                                return;
+                        }
+
+                        currentPhase.reportedPercent = percent;
+                        task.log(String.format("[%s] %s %d%% (%d/%d)", currentPhase.title, MESSAGE_STATUS, percent, completed, currentPhase.totalWork));
+                }
+                else {
+                        task.log(String.format("[%s] %s %d", currentPhase.title, MESSAGE_STATUS, completed));
+                }
+
+                currentPhase.reportedWork = completed;
+        }
+
+        // Runs on the reporter thread
+        private void reportSummary(Phase endedPhase) {
+                task.log(String.format("[%s] %s: %d done in %d ms", endedPhase.title, MESSAGE_ENDING, endedPhase.completed.get(), endedPhase.getDuration()));
         }
 
 }
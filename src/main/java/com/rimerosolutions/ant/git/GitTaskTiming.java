@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Timing of a single git task execution, measured on the executing thread.
+ *
+ * <p>The execution is split between the repository discovery and opening, the task execution itself
+ * and the time spent in JGit commands during the execution.</p>
+ *
+ * @author Yves Zoundi
+ */
+public final class GitTaskTiming {
+
+        private final String taskName;
+        private final String directory;
+        private final String threadName;
+        private final long startTime;
+        private final long startAllocatedBytes;
+        private long openTime;
+        private long executeTime;
+        private long commandTime;
+        private long allocatedBytes = -1;
+
+        /**
+         * Starts timing a task execution on the current thread
+         *
+         * @param taskName The task name
+         * @param directory The task directory or null
+         */
+        public GitTaskTiming(String taskName, File directory) {
+                this.taskName = taskName;
+                this.directory = (directory == null) ? null : directory.getAbsolutePath();
+                this.threadName = Thread.currentThread().getName();
+                this.startAllocatedBytes = currentThreadAllocatedBytes();
+                this.startTime = System.nanoTime();
+        }
+
+        /**
+         * Creates the timing of a completed task execution
+         *
+         * @param taskName The task name
+         * @param directory The absolute path of the task directory or null
+         * @param threadName The name of the thread which executed the task
+         * @param openTime The repository discovery and opening time in nanoseconds
+         * @param executeTime The execution time in nanoseconds
+         * @param commandTime The time spent in JGit commands in nanoseconds
+         * @param allocatedBytes The allocated bytes, or -1 if unknown
+         */
+        GitTaskTiming(String taskName, String directory, String threadName, long openTime, long executeTime, long commandTime, long allocatedBytes) {
+                this.taskName = taskName;
+                this.directory = directory;
+                this.threadName = threadName;
+                this.startTime = 0;
+                this.startAllocatedBytes = -1;
+                this.openTime = openTime;
+                this.executeTime = executeTime;
+                this.commandTime = commandTime;
+                this.allocatedBytes = allocatedBytes;
+        }
+
+        /**
+         * Marks the end of the repository discovery and opening
+         */
+        public void repositoryOpened() {
+                openTime = System.nanoTime() - startTime;
+        }
+
+        /**
+         * Marks the end of the task execution
+         *
+         * @param commandTime The time spent in JGit commands in nanoseconds
+         */
+        public void finished(long commandTime) {
+                this.executeTime = System.nanoTime() - startTime - openTime;
+                this.commandTime = commandTime;
+
+                if (startAllocatedBytes >= 0) {
+                        allocatedBytes = currentThreadAllocatedBytes() - startAllocatedBytes;
+                }
+        }
+
+        /**
+         * Returns the task name
+         *
+         * @return The task name
+         */
+        public String getTaskName() {
+                return taskName;
+        }
+
+        /**
+         * Returns the task directory
+         *
+         * @return The absolute path of the task directory or null
+         */
+        public String getDirectory() {
+                return directory;
+        }
+
+        /**
+         * Returns the name of the thread which executed the task
+         *
+         * @return The thread name
+         */
+        public String getThreadName() {
+                return threadName;
+        }
+
+        /**
+         * Returns the repository discovery and opening time
+         *
+         * @return The open time in nanoseconds
+         */
+        public long getOpenTime() {
+                return openTime;
+        }
+
+        /**
+         * Returns the task execution time, repository opening excluded
+         *
+         * @return The execution time in nanoseconds
+         */
+        public long getExecuteTime() {
+                return executeTime;
+        }
+
+        /**
+         * Returns the time spent in JGit commands
+         *
+         * @return The command time in nanoseconds
+         */
+        public long getCommandTime() {
+                return commandTime;
+        }
+
+        /**
+         * Returns the total time of the task execution
+         *
+         * @return The total time in nanoseconds
+         */
+        public long getTotalTime() {
+                return openTime + executeTime;
+        }
+
+        /**
+         * Returns the number of bytes allocated by the executing thread during the task execution
+         *
+         * @return The allocated bytes, or -1 if the JVM doesn't measure thread allocations
+         */
+        public long getAllocatedBytes() {
+                return allocatedBytes;
+        }
+
+        private static long currentThreadAllocatedBytes() {
+                ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+                if (threadBean instanceof com.sun.management.ThreadMXBean) {
+                        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+
+                        if (allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled()) {
+                                return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                        }
+                }
+
+                return -1;
+        }
+
+}
@@ -52,6 +52,20 @@ public final class GitTaskUtils {
                 return s.trim().length() == 0;
         }
 
+        /**
+         * Splits a list of Ant patterns
+         *
+         * @param patterns Comma or space separated patterns
+         * @return The patterns or null if there are none
+         */
+        public static String[] splitPatterns(String patterns) {
+                if (isNullOrBlankString(patterns)) {
+                        return null;
+                }
+
+                return patterns.trim().split("[,\\s]+");
+        }
+
         /**
          * Strips the 'ref/someprefix/' prefix from a reference name if needed
          *
@@ -123,6 +137,51 @@ public final class GitTaskUtils {
                 }
         }
 
+        /**
+         * Quotes and escapes a string as a JSON string value
+         *
+         * @param s The string to quote
+         * @return The JSON string, or <code>null</code> if the string is null
+         */
+        public static String toJsonString(String s) {
+                if (s == null) {
+                        return "null";
+                }
+
+                StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+
+                for (int i = 0; i < s.length(); i++) {
+                        char c = s.charAt(i);
+
+                        switch (c) {
+                        case '"':
+                                sb.append("\\\"");
+                                break;
+                        case '\\':
+                                sb.append("\\\\");
+                                break;
+                        case '\n':
+                                sb.append("\\n");
+                                break;
+                        case '\r':
+                                sb.append("\\r");
+                                break;
+                        case '\t':
+                                sb.append("\\t");
+                                break;
+                        default:
+                                if (c < 0x20) {
+                                        sb.append(String.format("\\u%04x", (int) c));
+                                }
+                                else {
+                                        sb.append(c);
+                                }
+                        }
+                }
+
+                return sb.append('"').toString();
+        }
+
         private GitTaskUtils() {
                 throw new AssertionError();
         }
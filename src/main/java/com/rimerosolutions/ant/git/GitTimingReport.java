@@ -0,0 +1,309 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.Project;
+
+/**
+ * Build-wide report of the git tasks timings.
+ *
+ * <p>The report is registered as a project reference and as a build listener: git tasks record their timings
+ * while the build runs, a summary sorted by total time is logged when the build finishes
+ * and the detailed report is written as JSON if a report file is set.</p>
+ *
+ * @author Yves Zoundi
+ */
+public class GitTimingReport implements BuildListener {
+
+        /** Project reference id of the timing report */
+        public static final String REFERENCE_ID = "ant-git-tasks.timing.report";
+        private static final String SUMMARY_HEADER = "Git tasks timings (ms), slowest first:";
+        private static final String SUMMARY_TEMPLATE = "%-20s runs=%-4d total=%-8d open=%-8d execute=%-8d command=%-8d allocated=%s";
+        private final List<GitTaskTiming> timings = new ArrayList<GitTaskTiming>();
+        private File reportFile;
+
+        /**
+         * Registers a timing report for the rest of the build, replacing any existing one
+         *
+         * @param project The Ant project
+         * @param report The report to register
+         */
+        public static void register(Project project, GitTimingReport report) {
+                GitTimingReport existing = lookup(project);
+
+                if (existing != null) {
+                        project.removeBuildListener(existing);
+                }
+
+                project.addReference(REFERENCE_ID, report);
+                project.addBuildListener(report);
+        }
+
+        /**
+         * Lookup the timing report of a project
+         *
+         * @param project The Ant project
+         * @return The registered timing report or null if none
+         */
+        public static GitTimingReport lookup(Project project) {
+                Object report = project.getReference(REFERENCE_ID);
+
+                if (report instanceof GitTimingReport) {
+                        return (GitTimingReport) report;
+                }
+
+                return null;
+        }
+
+        /**
+         * Sets the file receiving the JSON report
+         *
+         * @param reportFile The report file or null
+         */
+        public void setReportFile(File reportFile) {
+                this.reportFile = reportFile;
+        }
+
+        /**
+         * Records the timing of a task execution
+         *
+         * @param timing The task execution timing
+         */
+        public synchronized void record(GitTaskTiming timing) {
+                timings.add(timing);
+        }
+
+        /**
+         * Aggregates the recorded timings per task name, slowest tasks first
+         *
+         * @return The aggregated timings
+         */
+        public synchronized List<TaskSummary> summarize() {
+                Map<String, TaskSummary> summaries = new LinkedHashMap<String, TaskSummary>();
+
+                for (GitTaskTiming timing : timings) {
+                        TaskSummary summary = summaries.get(timing.getTaskName());
+
+                        if (summary == null) {
+                                summary = new TaskSummary(timing.getTaskName());
+                                summaries.put(timing.getTaskName(), summary);
+                        }
+
+                        summary.add(timing);
+                }
+
+                List<TaskSummary> sortedSummaries = new ArrayList<TaskSummary>(summaries.values());
+                Collections.sort(sortedSummaries, new Comparator<TaskSummary>() {
+                                @Override
+                                public int compare(TaskSummary s1, TaskSummary s2) {
+                                        return Long.valueOf(s2.totalTime).compareTo(Long.valueOf(s1.totalTime));
+                                }
+                        });
+
+                return sortedSummaries;
+        }
+
+        /**
+         * Aggregated timings of a git task
+         */
+        public static final class TaskSummary {
+                private final String taskName;
+                private int runs;
+                private long totalTime;
+                private long openTime;
+                private long executeTime;
+                private long commandTime;
+                private long allocatedBytes;
+
+                TaskSummary(String taskName) {
+                        this.taskName = taskName;
+                }
+
+                void add(GitTaskTiming timing) {
+                        runs++;
+                        totalTime += timing.getTotalTime();
+                        openTime += timing.getOpenTime();
+                        executeTime += timing.getExecuteTime();
+                        commandTime += timing.getCommandTime();
+
+                        if (allocatedBytes >= 0) {
+                                allocatedBytes = (timing.getAllocatedBytes() < 0) ? -1 : allocatedBytes + timing.getAllocatedBytes();
+                        }
+                }
+
+                /**
+                 * Returns the task name
+                 *
+                 * @return The task name
+                 */
+                public String getTaskName() {
+                        return taskName;
+                }
+
+                /**
+                 * Returns the number of executions
+                 *
+                 * @return The number of executions
+                 */
+                public int getRuns() {
+                        return runs;
+                }
+
+                /**
+                 * Returns the total time of all executions
+                 *
+                 * @return The total time in nanoseconds
+                 */
+                public long getTotalTime() {
+                        return totalTime;
+                }
+        }
+
+        @Override
+        public void buildStarted(BuildEvent event) {
+        }
+
+        @Override
+        public void buildFinished(BuildEvent event) {
+                Project project = event.getProject();
+                List<TaskSummary> summaries = summarize();
+
+                if (summaries.isEmpty()) {
+                        return;
+                }
+
+                project.log(SUMMARY_HEADER);
+
+                for (TaskSummary summary : summaries) {
+                        project.log(String.format(SUMMARY_TEMPLATE,
+                                                  summary.taskName,
+                                                  summary.runs,
+                                                  toMillis(summary.totalTime),
+                                                  toMillis(summary.openTime),
+                                                  toMillis(summary.executeTime),
+                                                  toMillis(summary.commandTime),
+                                                  (summary.allocatedBytes < 0) ? "n/a" : summary.allocatedBytes + "B"));
+                }
+
+                if (reportFile != null) {
+                        try {
+                                writeReport(summaries);
+                                project.log("Git tasks timing report written to " + reportFile.getAbsolutePath());
+                        }
+                        catch (IOException e) {
+                                project.log(String.format("Could not write the git tasks timing report %s: %s", reportFile, e.getMessage()), Project.MSG_WARN);
+                        }
+                }
+        }
+
+        private synchronized void writeReport(List<TaskSummary> summaries) throws IOException {
+                String lineSeparator = System.getProperty("line.separator");
+                Map<String, Long> threadAllocations = new LinkedHashMap<String, Long>();
+                StringBuilder sb = new StringBuilder("{").append(lineSeparator);
+
+                sb.append("  \"summary\": [");
+
+                for (int i = 0; i < summaries.size(); i++) {
+                        TaskSummary summary = summaries.get(i);
+                        sb.append((i == 0) ? "" : ",").append(lineSeparator);
+                        sb.append(String.format("    {\"task\":%s,\"runs\":%d,\"totalMillis\":%d,\"openMillis\":%d,\"executeMillis\":%d,\"commandMillis\":%d,\"allocatedBytes\":%d}",
+                                                GitTaskUtils.toJsonString(summary.taskName),
+                                                summary.runs,
+                                                toMillis(summary.totalTime),
+                                                toMillis(summary.openTime),
+                                                toMillis(summary.executeTime),
+                                                toMillis(summary.commandTime),
+                                                summary.allocatedBytes));
+                }
+
+                sb.append(lineSeparator).append("  ],").append(lineSeparator);
+                sb.append("  \"executions\": [");
+
+                for (int i = 0; i < timings.size(); i++) {
+                        GitTaskTiming timing = timings.get(i);
+                        sb.append((i == 0) ? "" : ",").append(lineSeparator);
+                        sb.append(String.format("    {\"task\":%s,\"directory\":%s,\"thread\":%s,\"openMillis\":%d,\"executeMillis\":%d,\"commandMillis\":%d,\"allocatedBytes\":%d}",
+                                                GitTaskUtils.toJsonString(timing.getTaskName()),
+                                                GitTaskUtils.toJsonString(timing.getDirectory()),
+                                                GitTaskUtils.toJsonString(timing.getThreadName()),
+                                                toMillis(timing.getOpenTime()),
+                                                toMillis(timing.getExecuteTime()),
+                                                toMillis(timing.getCommandTime()),
+                                                timing.getAllocatedBytes()));
+
+                        if (timing.getAllocatedBytes() >= 0) {
+                                Long allocated = threadAllocations.get(timing.getThreadName());
+                                threadAllocations.put(timing.getThreadName(), ((allocated == null) ? 0L : allocated) + timing.getAllocatedBytes());
+                        }
+                }
+
+                sb.append(lineSeparator).append("  ],").append(lineSeparator);
+                sb.append("  \"threads\": [");
+
+                int i = 0;
+
+                for (Map.Entry<String, Long> entry : threadAllocations.entrySet()) {
+                        sb.append((i++ == 0) ? "" : ",").append(lineSeparator);
+                        sb.append(String.format("    {\"thread\":%s,\"allocatedBytes\":%d}", GitTaskUtils.toJsonString(entry.getKey()), entry.getValue()));
+                }
+
+                sb.append(lineSeparator).append("  ]").append(lineSeparator).append("}").append(lineSeparator);
+
+                try (Writer w = new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8")) {
+                        w.write(sb.toString());
+                }
+        }
+
+        private static long toMillis(long nanos) {
+                return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        @Override
+        public void targetStarted(BuildEvent event) {
+        }
+
+        @Override
+        public void targetFinished(BuildEvent event) {
+        }
+
+        @Override
+        public void taskStarted(BuildEvent event) {
+        }
+
+        @Override
+        public void taskFinished(BuildEvent event) {
+        }
+
+        @Override
+        public void messageLogged(BuildEvent event) {
+        }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.eclipse.jgit.lib.IndexDiff;
+
+/**
+ * Paths of a working tree which differ from HEAD or from the index, in the way of the JGit status.
+ *
+ * <p>Paths are kept sorted, so that the reported status doesn't depend on the order in which the tree was scanned.</p>
+ *
+ * @author Yves Zoundi
+ */
+public class GitTreeStatus {
+
+        private final SortedSet<String> added = new TreeSet<String>();
+        private final SortedSet<String> changed = new TreeSet<String>();
+        private final SortedSet<String> removed = new TreeSet<String>();
+        private final SortedSet<String> missing = new TreeSet<String>();
+        private final SortedSet<String> modified = new TreeSet<String>();
+        private final SortedSet<String> untracked = new TreeSet<String>();
+        private final SortedSet<String> conflicting = new TreeSet<String>();
+
+        /**
+         * Creates the status of an already computed index diff
+         *
+         * @param diff The index diff
+         * @return The status of the index diff paths
+         */
+        public static GitTreeStatus of(IndexDiff diff) {
+                GitTreeStatus status = new GitTreeStatus();
+                status.added.addAll(diff.getAdded());
+                status.changed.addAll(diff.getChanged());
+                status.removed.addAll(diff.getRemoved());
+                status.missing.addAll(diff.getMissing());
+                status.modified.addAll(diff.getModified());
+                status.untracked.addAll(diff.getUntracked());
+                status.conflicting.addAll(diff.getConflicting());
+
+                return status;
+        }
+
+        /**
+         * Adds the paths of another status to this one
+         *
+         * @param other The status to merge
+         */
+        public void merge(GitTreeStatus other) {
+                added.addAll(other.added);
+                changed.addAll(other.changed);
+                removed.addAll(other.removed);
+                missing.addAll(other.missing);
+                modified.addAll(other.modified);
+                untracked.addAll(other.untracked);
+                conflicting.addAll(other.conflicting);
+        }
+
+        /**
+         * Removes some paths and the paths under them
+         *
+         * @param paths The paths to remove, relative to the repository root
+         */
+        public void removeAll(Collection<String> paths) {
+                for (Set<String> pathSet : Arrays.asList(added, changed, removed, missing, modified, untracked, conflicting)) {
+                        for (Iterator<String> it = pathSet.iterator(); it.hasNext();) {
+                                if (isUnder(it.next(), paths)) {
+                                        it.remove();
+                                }
+                        }
+                }
+        }
+
+        private static boolean isUnder(String path, Collection<String> paths) {
+                String current = path;
+
+                while (true) {
+                        if (paths.contains(current)) {
+                                return true;
+                        }
+
+                        int slashIndex = current.lastIndexOf('/');
+
+                        if (slashIndex == -1) {
+                                return false;
+                        }
+
+                        current = current.substring(0, slashIndex);
+                }
+        }
+
+        /**
+         * @return Whether or not no path differs from HEAD or from the index
+         */
+        public boolean isClean() {
+                return added.isEmpty() && changed.isEmpty() && removed.isEmpty() && missing.isEmpty()
+                        && modified.isEmpty() && untracked.isEmpty() && conflicting.isEmpty();
+        }
+
+        /**
+         * @return Paths not in HEAD, added to the index
+         */
+        public SortedSet<String> getAdded() {
+                return added;
+        }
+
+        /**
+         * @return Paths in HEAD, changed in the index
+         */
+        public SortedSet<String> getChanged() {
+                return changed;
+        }
+
+        /**
+         * @return Paths in HEAD, removed from the index
+         */
+        public SortedSet<String> getRemoved() {
+                return removed;
+        }
+
+        /**
+         * @return Paths in the index, missing from the working tree
+         */
+        public SortedSet<String> getMissing() {
+                return missing;
+        }
+
+        /**
+         * @return Paths in the index, modified in the working tree
+         */
+        public SortedSet<String> getModified() {
+                return modified;
+        }
+
+        /**
+         * @return Paths in the working tree only, which are not ignored
+         */
+        public SortedSet<String> getUntracked() {
+                return untracked;
+        }
+
+        /**
+         * @return Paths with merge conflicts in the index
+         */
+        public SortedSet<String> getConflicting() {
+                return conflicting;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+                if (!(obj instanceof GitTreeStatus)) {
+                        return false;
+                }
+
+                GitTreeStatus other = (GitTreeStatus) obj;
+
+                return added.equals(other.added) && changed.equals(other.changed) && removed.equals(other.removed)
+                        && missing.equals(other.missing) && modified.equals(other.modified)
+                        && untracked.equals(other.untracked) && conflicting.equals(other.conflicting);
+        }
+
+        @Override
+        public int hashCode() {
+                int result = added.hashCode();
+                result = 31 * result + changed.hashCode();
+                result = 31 * result + removed.hashCode();
+                result = 31 * result + missing.hashCode();
+                result = 31 * result + modified.hashCode();
+                result = 31 * result + untracked.hashCode();
+
+                return 31 * result + conflicting.hashCode();
+        }
+
+        @Override
+        public String toString() {
+                StringBuilder sb = new StringBuilder();
+                sb.append("Changed:").append(changed);
+                sb.append("\n").append("Added:").append(added);
+                sb.append("\n").append("Modified:").append(modified);
+                sb.append("\n").append("Missing:").append(missing);
+                sb.append("\n").append("Removed:").append(removed);
+                sb.append("\n").append("Untracked:").append(untracked);
+
+                if (!conflicting.isEmpty()) {
+                        sb.append("\n").append("Conflicting:").append(conflicting);
+                }
+
+                return sb.toString();
+        }
+
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Untracked files of the untracked folders of a working tree, persisted under the git directory.
+ *
+ * <p>For each folder which is neither in HEAD nor in the index, the cache records the modification time of the walked
+ * folders, the <code>.gitignore</code> files of these folders and of their parents, and the untracked files found in them.
+ * A later scan reuses the recorded untracked files without walking the folder, as long as none of the recorded
+ * folders and ignore files changed. The whole cache is dropped when the repository excludes or the global excludes change.</p>
+ *
+ * <p>Folders modified less than {@link #RACY_INTERVAL} milliseconds before a scan are not cached, their modification time
+ * may not change for an update happening right after the scan.</p>
+ *
+ * @author Yves Zoundi
+ */
+public class GitUntrackedCache {
+
+        /** Minimum age in milliseconds of the cached folders */
+        public static final long RACY_INTERVAL = 2000;
+
+        private static final String CACHE_FILE = "ant-git-tasks/untracked-cache";
+        private static final String INFO_EXCLUDE = "info/exclude";
+        private static final int FORMAT_VERSION = 1;
+        private static final int TREE = 0;
+        private static final int INDEX = 1;
+        private static final int WORKDIR = 2;
+        private final File cacheFile;
+        private final File workTree;
+        private final String excludesStamp;
+        private final Map<String, Entry> entries = new HashMap<String, Entry>();
+        private final Set<String> usedEntries = new HashSet<String>();
+        private boolean modified;
+
+        private GitUntrackedCache(File cacheFile, File workTree, String excludesStamp) {
+                this.cacheFile = cacheFile;
+                this.workTree = workTree;
+                this.excludesStamp = excludesStamp;
+        }
+
+        /**
+         * Loads the untracked cache of a repository, an empty cache is returned if it doesn't exist or is obsolete
+         *
+         * @param repository The repository
+         * @return The untracked cache of the repository
+         */
+        public static GitUntrackedCache load(Repository repository) {
+                String excludesStamp = excludesStamp(repository);
+                GitUntrackedCache cache = new GitUntrackedCache(new File(repository.getDirectory(), CACHE_FILE), repository.getWorkTree(), excludesStamp);
+
+                if (cache.cacheFile.exists()) {
+                        try {
+                                cache.read();
+                        }
+                        catch (IOException e) {
+                                cache.entries.clear();
+                                cache.modified = true;
+                        }
+                }
+
+                return cache;
+        }
+
+        /**
+         * Writes the cache, if it changed. Only the entries used or recorded since the cache was loaded are kept.
+         *
+         * @throws IOException When the cache cannot be written
+         */
+        public synchronized void save() throws IOException {
+                if (!modified && usedEntries.size() == entries.size()) {
+                        return;
+                }
+
+                entries.keySet().retainAll(usedEntries);
+                cacheFile.getParentFile().mkdirs();
+
+                File tmpFile = new File(cacheFile.getPath() + ".tmp");
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+
+                try {
+                        out.writeInt(FORMAT_VERSION);
+                        out.writeUTF(excludesStamp);
+                        out.writeInt(entries.size());
+
+                        for (Entry entry : entries.values()) {
+                                entry.write(out);
+                        }
+                }
+                finally {
+                        out.close();
+                }
+
+                if (cacheFile.exists() && !cacheFile.delete()) {
+                        throw new IOException(String.format("Cannot replace the untracked cache '%s'.", cacheFile));
+                }
+
+                if (!tmpFile.renameTo(cacheFile)) {
+                        throw new IOException(String.format("Cannot write the untracked cache '%s'.", cacheFile));
+                }
+
+                modified = false;
+        }
+
+        /**
+         * Creates the recorder of a tree walk over HEAD, the index and the working tree, in that order.
+         * Untracked folders found in the cache are not walked, their untracked files are added to the status instead.
+         * The filter must be placed before the filters excluding paths, and {@link Recorder#finish()} must be called once the walk is done.
+         *
+         * @param status The status receiving the untracked files
+         * @return The recorder filter
+         */
+        public Recorder newRecorder(GitTreeStatus status) {
+                return new Recorder(status);
+        }
+
+        private synchronized List<String> lookup(String folderPath) {
+                Entry entry = entries.get(folderPath);
+
+                if (entry == null) {
+                        return null;
+                }
+
+                if (!entry.isValid(workTree)) {
+                        entries.remove(folderPath);
+                        modified = true;
+
+                        return null;
+                }
+
+                usedEntries.add(folderPath);
+
+                return entry.untracked;
+        }
+
+        private synchronized void store(Entry entry) {
+                entries.put(entry.folderPath, entry);
+                usedEntries.add(entry.folderPath);
+                modified = true;
+        }
+
+        private void read() throws IOException {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+
+                try {
+                        if (in.readInt() != FORMAT_VERSION || !excludesStamp.equals(in.readUTF())) {
+                                modified = true;
+
+                                return;
+                        }
+
+                        int count = in.readInt();
+
+                        for (int i = 0; i < count; i++) {
+                                Entry entry = Entry.read(in);
+                                entries.put(entry.folderPath, entry);
+                        }
+                }
+                finally {
+                        in.close();
+                }
+        }
+
+        private static String excludesStamp(Repository repository) {
+                StringBuilder sb = new StringBuilder();
+                sb.append(fileStamp(new File(repository.getDirectory(), INFO_EXCLUDE)));
+
+                String excludesFile = repository.getConfig().getString("core", null, "excludesfile");
+
+                if (excludesFile != null) {
+                        File file;
+
+                        if (excludesFile.startsWith("~/")) {
+                                file = new File(FS.DETECTED.userHome(), excludesFile.substring(2));
+                        }
+                        else {
+                                file = new File(excludesFile);
+                        }
+
+                        sb.append(':').append(excludesFile).append(':').append(fileStamp(file));
+                }
+
+                return sb.toString();
+        }
+
+        private static String fileStamp(File file) {
+                return file.lastModified() + "/" + file.length();
+        }
+
+        private static String ignoreFileStamp(File folder) {
+                return fileStamp(new File(folder, Constants.DOT_GIT_IGNORE));
+        }
+
+        private static String parentPath(String path) {
+                int slashIndex = path.lastIndexOf('/');
+
+                return slashIndex == -1 ? "" : path.substring(0, slashIndex);
+        }
+
+        /**
+         * Tree filter skipping the cached untracked folders and recording the others.
+         */
+        public final class Recorder extends TreeFilter {
+                private final GitTreeStatus status;
+                private final long scanStart = System.currentTimeMillis();
+                private final List<Entry> walkedEntries = new ArrayList<Entry>();
+                private Entry currentEntry;
+
+                private Recorder(GitTreeStatus status) {
+                        this.status = status;
+                }
+
+                @Override
+                public boolean include(TreeWalk walker) {
+                        if (!walker.isSubtree() || walker.getRawMode(WORKDIR) == 0
+                            || walker.getRawMode(TREE) != 0 || walker.getRawMode(INDEX) != 0) {
+                                return true;
+                        }
+
+                        String path = walker.getPathString();
+                        File folder = new File(workTree, path);
+
+                        if (currentEntry != null && path.startsWith(currentEntry.folderPath + "/")) {
+                                currentEntry.addFolder(path, folder);
+
+                                return true;
+                        }
+
+                        List<String> untracked = lookup(path);
+
+                        if (untracked != null) {
+                                status.getUntracked().addAll(untracked);
+
+                                return false;
+                        }
+
+                        currentEntry = new Entry(path);
+                        currentEntry.addFolder(path, folder);
+
+                        for (String parent = parentPath(path); ; parent = parentPath(parent)) {
+                                currentEntry.parents.put(parent, ignoreFileStamp(new File(workTree, parent)));
+
+                                if (parent.length() == 0) {
+                                        break;
+                                }
+                        }
+
+                        walkedEntries.add(currentEntry);
+
+                        return true;
+                }
+
+                /**
+                 * Records the untracked files of the walked untracked folders
+                 */
+                public void finish() {
+                        SortedSet<String> untracked = status.getUntracked();
+
+                        for (Entry entry : walkedEntries) {
+                                if (entry.newestModification >= scanStart - RACY_INTERVAL) {
+                                        continue;
+                                }
+
+                                entry.untracked.addAll(untracked.subSet(entry.folderPath + "/", entry.folderPath + "0"));
+                                store(entry);
+                        }
+                }
+
+                @Override
+                public boolean shouldBeRecursive() {
+                        return false;
+                }
+
+                @Override
+                public TreeFilter clone() {
+                        return this;
+                }
+
+                @Override
+                public String toString() {
+                        return "UNTRACKED_CACHE";
+                }
+        }
+
+        /**
+         * Cached untracked folder.
+         */
+        private static final class Entry {
+                private final String folderPath;
+                private final Map<String, Long> folders = new HashMap<String, Long>();
+                private final Map<String, String> ignoreFiles = new HashMap<String, String>();
+                private final Map<String, String> parents = new HashMap<String, String>();
+                private final List<String> untracked = new ArrayList<String>();
+                private long newestModification;
+
+                private Entry(String folderPath) {
+                        this.folderPath = folderPath;
+                }
+
+                private void addFolder(String path, File folder) {
+                        long lastModified = folder.lastModified();
+                        folders.put(path, lastModified);
+                        ignoreFiles.put(path, ignoreFileStamp(folder));
+                        newestModification = Math.max(newestModification, lastModified);
+                }
+
+                private boolean isValid(File workTree) {
+                        for (Map.Entry<String, String> parent : parents.entrySet()) {
+                                if (!parent.getValue().equals(ignoreFileStamp(new File(workTree, parent.getKey())))) {
+                                        return false;
+                                }
+                        }
+
+                        for (Map.Entry<String, Long> folder : folders.entrySet()) {
+                                File file = new File(workTree, folder.getKey());
+
+                                if (file.lastModified() != folder.getValue().longValue()
+                                    || !ignoreFiles.get(folder.getKey()).equals(ignoreFileStamp(file))) {
+                                        return false;
+                                }
+                        }
+
+                        return true;
+                }
+
+                private void write(DataOutputStream out) throws IOException {
+                        out.writeUTF(folderPath);
+                        out.writeInt(folders.size());
+
+                        for (Map.Entry<String, Long> folder : folders.entrySet()) {
+                                out.writeUTF(folder.getKey());
+                                out.writeLong(folder.getValue());
+                                out.writeUTF(ignoreFiles.get(folder.getKey()));
+                        }
+
+                        out.writeInt(parents.size());
+
+                        for (Map.Entry<String, String> parent : parents.entrySet()) {
+                                out.writeUTF(parent.getKey());
+                                out.writeUTF(parent.getValue());
+                        }
+
+                        out.writeInt(untracked.size());
+
+                        for (String path : untracked) {
+                                out.writeUTF(path);
+                        }
+                }
+
+                private static Entry read(DataInputStream in) throws IOException {
+                        Entry entry = new Entry(in.readUTF());
+                        int folderCount = in.readInt();
+
+                        for (int i = 0; i < folderCount; i++) {
+                                String path = in.readUTF();
+                                entry.folders.put(path, in.readLong());
+                                entry.ignoreFiles.put(path, in.readUTF());
+                        }
+
+                        int parentCount = in.readInt();
+
+                        for (int i = 0; i < parentCount; i++) {
+                                entry.parents.put(in.readUTF(), in.readUTF());
+                        }
+
+                        int untrackedCount = in.readInt();
+
+                        for (int i = 0; i < untrackedCount; i++) {
+                                entry.untracked.add(in.readUTF());
+                        }
+
+                        return entry;
+                }
+        }
+
+}
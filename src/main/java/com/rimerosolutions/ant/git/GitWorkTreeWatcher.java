@@ -0,0 +1,462 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Keeps the status of a working tree up to date from file system notifications.
+ *
+ * <p>There is one watcher per working tree and per JVM, shared by the builds running in the JVM. It is closed once it
+ * hasn't been queried for its idle timeout.
+ * The first status query scans the whole tree, the following queries only rescan the paths reported as changed
+ * since the previous query. A full scan is done again when notifications are lost, when a <code>.gitignore</code>
+ * file changes, when HEAD, the index or the repository excludes changed, or when the working tree was deleted
+ * and created again.</p>
+ *
+ * <p>Polling watch services don't report changes right away, working trees are always fully scanned on such platforms.</p>
+ *
+ * @author Yves Zoundi
+ */
+public final class GitWorkTreeWatcher {
+
+        private static final Map<File, GitWorkTreeWatcher> WATCHERS = new HashMap<File, GitWorkTreeWatcher>();
+        private static Timer idleTimer;
+        private static final int MAX_CHANGED_PATHS = 10000;
+        private static final int MAX_VIEWS = 16;
+        private static final int INDEX_CHECKSUM_LENGTH = 20;
+        private static final String INFO_EXCLUDE = "info/exclude";
+        private final Path workTree;
+        private final Map<WatchKey, Path> watchedFolders = new HashMap<WatchKey, Path>();
+        private final Map<String, View> views = new LinkedHashMap<String, View>(MAX_VIEWS, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, View> eldest) {
+                        return size() > MAX_VIEWS;
+                }
+        };
+        private WatchService watchService;
+        private boolean watchSupported = true;
+        private boolean closed;
+        private boolean lastScanIncremental;
+        private long idleTimeout;
+        private long lastUsed = System.nanoTime();
+        private TimerTask idleCheck;
+
+        private GitWorkTreeWatcher(Path workTree) {
+                this.workTree = workTree;
+        }
+
+        /**
+         * Returns the watcher of a working tree, starting it on first use. The watcher is closed once it hasn't been
+         * queried for the given time, the idle timeout of the last call applies.
+         *
+         * @param workTree The working tree folder
+         * @param idleTimeout The idle time in milliseconds after which the watcher is closed, 0 to keep it until the JVM exits
+         * @return The working tree watcher
+         * @throws IOException When the working tree cannot be resolved
+         */
+        public static GitWorkTreeWatcher forWorkTree(File workTree, long idleTimeout) throws IOException {
+                File canonicalWorkTree = workTree.getCanonicalFile();
+
+                synchronized (WATCHERS) {
+                        GitWorkTreeWatcher watcher = WATCHERS.get(canonicalWorkTree);
+
+                        if (watcher == null) {
+                                watcher = new GitWorkTreeWatcher(canonicalWorkTree.toPath());
+                                watcher.start();
+                                WATCHERS.put(canonicalWorkTree, watcher);
+                        }
+
+                        watcher.scheduleIdleCheck(idleTimeout);
+
+                        return watcher;
+                }
+        }
+
+        /**
+         * Stops watching the working tree, the following status queries scan the whole tree
+         */
+        public void close() {
+                synchronized (WATCHERS) {
+                        if (WATCHERS.get(workTree.toFile()) == this) {
+                                WATCHERS.remove(workTree.toFile());
+                        }
+                }
+
+                synchronized (this) {
+                        closed = true;
+                        stop();
+
+                        if (idleCheck != null) {
+                                idleCheck.cancel();
+                                idleCheck = null;
+                        }
+                }
+        }
+
+        /**
+         * Checks periodically whether the watcher was queried within the idle timeout, the caller holds the watchers lock
+         */
+        private synchronized void scheduleIdleCheck(long newIdleTimeout) {
+                lastUsed = System.nanoTime();
+
+                if (closed || (idleCheck != null && newIdleTimeout == idleTimeout)) {
+                        return;
+                }
+
+                if (idleCheck != null) {
+                        idleCheck.cancel();
+                        idleCheck = null;
+                }
+
+                idleTimeout = newIdleTimeout;
+
+                if (idleTimeout <= 0) {
+                        return;
+                }
+
+                if (idleTimer == null) {
+                        idleTimer = new Timer("git-worktree-watchers", true);
+                }
+
+                idleCheck = new TimerTask() {
+                                @Override
+                                public void run() {
+                                        closeIfIdle();
+                                }
+                        };
+                idleTimer.schedule(idleCheck, idleTimeout, idleTimeout);
+        }
+
+        private void closeIfIdle() {
+                synchronized (this) {
+                        if (System.nanoTime() - lastUsed < TimeUnit.MILLISECONDS.toNanos(idleTimeout)) {
+                                return;
+                        }
+                }
+
+                close();
+        }
+
+        /**
+         * @return Whether or not the working tree is watched, a full scan is done for every query otherwise
+         */
+        public synchronized boolean isWatching() {
+                return watchService != null;
+        }
+
+        /**
+         * @return Whether or not the last status query only rescanned the changed paths
+         */
+        public synchronized boolean isLastScanIncremental() {
+                return lastScanIncremental;
+        }
+
+        /**
+         * Computes the status of the working tree
+         *
+         * @param repository The repository of the working tree
+         * @param filter The filter of the checked paths
+         * @param threads The number of threads scanning the working tree
+         * @return The status of the working tree
+         * @throws IOException When the repository cannot be read
+         */
+        public GitTreeStatus status(Repository repository, TreeFilter filter, int threads) throws IOException {
+                return status(repository, filter, threads, null);
+        }
+
+        /**
+         * Computes the status of the working tree, using an untracked cache for the full scans
+         *
+         * @param repository The repository of the working tree
+         * @param filter The filter of the checked paths
+         * @param threads The number of threads scanning the working tree
+         * @param untrackedCache The untracked cache of the repository, possibly null
+         * @return The status of the working tree
+         * @throws IOException When the repository cannot be read
+         */
+        public synchronized GitTreeStatus status(Repository repository, TreeFilter filter, int threads, GitUntrackedCache untrackedCache) throws IOException {
+                if (watchService == null && watchSupported && !closed) {
+                        start();
+                }
+
+                processEvents();
+
+                String viewKey = filter.toString();
+                View view = views.get(viewKey);
+                RepositoryState state = new RepositoryState(repository);
+                ParallelStatusScanner scanner = new ParallelStatusScanner(repository, threads);
+
+                if (watchService == null || view == null || !view.state.equals(state)) {
+                        view = new View(state);
+                        scanner.setFilter(filter);
+                        scanner.setUntrackedCache(untrackedCache);
+                        view.status = scanner.scan();
+                        lastScanIncremental = false;
+
+                        if (watchService != null) {
+                                views.put(viewKey, view);
+                        }
+                }
+                else {
+                        if (!view.changedPaths.isEmpty()) {
+                                scanner.setFilter(AndTreeFilter.create(filter, PathFilterGroup.createFromStrings(view.changedPaths)));
+                                view.status.removeAll(view.changedPaths);
+                                view.status.merge(scanner.scan());
+                                view.changedPaths.clear();
+                        }
+
+                        lastScanIncremental = true;
+                }
+
+                GitTreeStatus status = new GitTreeStatus();
+                status.merge(view.status);
+                lastUsed = System.nanoTime();
+
+                return status;
+        }
+
+        private void start() {
+                try {
+                        watchService = FileSystems.getDefault().newWatchService();
+
+                        if (watchService.getClass().getName().endsWith("PollingWatchService")) {
+                                watchService.close();
+                                watchService = null;
+                                watchSupported = false;
+
+                                return;
+                        }
+
+                        registerFolders(workTree);
+                }
+                catch (IOException e) {
+                        stop();
+                }
+        }
+
+        private void stop() {
+                if (watchService != null) {
+                        try {
+                                watchService.close();
+                        }
+                        catch (IOException e) {
+                                // nothing to do, the watcher is dropped anyway
+                        }
+                }
+
+                watchService = null;
+                watchedFolders.clear();
+                views.clear();
+        }
+
+        private void registerFolders(Path root) throws IOException {
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                                @Override
+                                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                                        if (Constants.DOT_GIT.equals(String.valueOf(dir.getFileName()))) {
+                                                return FileVisitResult.SKIP_SUBTREE;
+                                        }
+
+                                        WatchKey key = dir.register(watchService,
+                                                                    StandardWatchEventKinds.ENTRY_CREATE,
+                                                                    StandardWatchEventKinds.ENTRY_DELETE,
+                                                                    StandardWatchEventKinds.ENTRY_MODIFY);
+                                        watchedFolders.put(key, dir);
+
+                                        return FileVisitResult.CONTINUE;
+                                }
+                        });
+        }
+
+        /**
+         * Records the pending notifications as changed paths of all the views.
+         */
+        private void processEvents() {
+                if (watchService == null) {
+                        return;
+                }
+
+                boolean fullScanNeeded = false;
+                boolean workTreeDeleted = false;
+                WatchKey key;
+
+                while ((key = watchService.poll()) != null) {
+                        Path watchedFolder = watchedFolders.get(key);
+
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                                if (event.kind() == StandardWatchEventKinds.OVERFLOW || watchedFolder == null) {
+                                        fullScanNeeded = true;
+
+                                        continue;
+                                }
+
+                                Path path = watchedFolder.resolve((Path) event.context());
+                                String relativePath = workTree.relativize(path).toString().replace(File.separatorChar, '/');
+
+                                if (relativePath.equals(Constants.DOT_GIT) || relativePath.startsWith(Constants.DOT_GIT + "/")) {
+                                        continue;
+                                }
+
+                                if (Constants.DOT_GIT_IGNORE.equals(String.valueOf(path.getFileName()))) {
+                                        fullScanNeeded = true;
+                                }
+
+                                boolean isFolder = Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS);
+
+                                if (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY && isFolder) {
+                                        continue;
+                                }
+
+                                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && isFolder) {
+                                        try {
+                                                registerFolders(path);
+                                        }
+                                        catch (IOException e) {
+                                                fullScanNeeded = true;
+                                        }
+                                }
+
+                                for (View view : views.values()) {
+                                        view.changedPaths.add(relativePath);
+                                }
+                        }
+
+                        if (!key.reset()) {
+                                watchedFolders.remove(key);
+                                workTreeDeleted |= workTree.equals(watchedFolder);
+                        }
+                }
+
+                if (workTreeDeleted) {
+                        // Nothing is watched anymore, the folders are registered again by the next query
+                        stop();
+
+                        return;
+                }
+
+                if (fullScanNeeded) {
+                        views.clear();
+                }
+
+                for (Iterator<View> it = views.values().iterator(); it.hasNext();) {
+                        if (it.next().changedPaths.size() > MAX_CHANGED_PATHS) {
+                                it.remove();
+                        }
+                }
+        }
+
+        /**
+         * Status of the paths selected by a filter, with the paths changed since it was computed.
+         */
+        private static final class View {
+                private final RepositoryState state;
+                private final Set<String> changedPaths = new TreeSet<String>();
+                private GitTreeStatus status;
+
+                private View(RepositoryState state) {
+                        this.state = state;
+                }
+        }
+
+        /**
+         * The repository data which affects the status of all paths: HEAD, the index and the excludes.
+         */
+        private static final class RepositoryState {
+                private final ObjectId headTree;
+                private final byte[] indexChecksum;
+                private final long excludesModified;
+
+                private RepositoryState(Repository repository) throws IOException {
+                        headTree = repository.resolve(Constants.HEAD + "^{tree}");
+                        indexChecksum = readIndexChecksum(repository.getIndexFile());
+                        excludesModified = new File(repository.getDirectory(), INFO_EXCLUDE).lastModified();
+                }
+
+                private static byte[] readIndexChecksum(File indexFile) throws IOException {
+                        byte[] checksum = new byte[INDEX_CHECKSUM_LENGTH];
+
+                        if (!indexFile.exists()) {
+                                return checksum;
+                        }
+
+                        RandomAccessFile in = new RandomAccessFile(indexFile, "r");
+
+                        try {
+                                if (in.length() >= INDEX_CHECKSUM_LENGTH) {
+                                        in.seek(in.length() - INDEX_CHECKSUM_LENGTH);
+                                        in.readFully(checksum);
+                                }
+                        }
+                        finally {
+                                in.close();
+                        }
+
+                        return checksum;
+                }
+
+                @Override
+                public boolean equals(Object obj) {
+                        if (!(obj instanceof RepositoryState)) {
+                                return false;
+                        }
+
+                        RepositoryState other = (RepositoryState) obj;
+
+                        return (headTree == null ? other.headTree == null : headTree.equals(other.headTree))
+                                && Arrays.equals(indexChecksum, other.indexChecksum)
+                                && excludesModified == other.excludesModified;
+                }
+
+                @Override
+                public int hashCode() {
+                        return 31 * Arrays.hashCode(indexChecksum) + (int) excludesModified;
+                }
+        }
+
+}
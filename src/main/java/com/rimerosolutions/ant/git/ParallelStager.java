@@ -0,0 +1,326 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuildIterator;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig.AutoCRLF;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator.MetadataDiff;
+import org.eclipse.jgit.treewalk.WorkingTreeOptions;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+
+/**
+ * Stages files in the index, hashing their content on several threads.
+ *
+ * <p>The working tree is walked once to build the new index, in the way of the JGit {@link org.eclipse.jgit.api.AddCommand}.
+ * The content of regular files is hashed and inserted by a fork-join pool, in batches sharing an object inserter,
+ * and the index is written once all the blobs are stored. Symbolic links, submodules and files converted by
+ * <code>core.autocrlf</code> are hashed while walking the tree. Files whose size and modification time match their index entry
+ * aren't hashed again, and the entries flagged <code>skip-worktree</code> by a sparse checkout are kept as they are.</p>
+ *
+ * <p>When pack objects is enabled, the regular files are split in one batch per thread and each batch writes its blobs
+ * to a single pack file with a {@link GitPackInserter}, the other files are still stored as loose objects.</p>
+ *
+ * @author Yves Zoundi
+ */
+public class ParallelStager {
+
+        private static final int BATCH_SIZE = 128;
+        private static final int INDEX = 0;
+        private static final int WORKDIR = 1;
+        private final Repository repository;
+        private final int threads;
+        private final Set<String> filepatterns = new LinkedHashSet<String>();
+        private boolean update;
+        private boolean packObjects;
+
+        /**
+         * Creates a new stager
+         *
+         * @param repository The repository
+         * @param threads The number of threads hashing the files
+         */
+        public ParallelStager(Repository repository, int threads) {
+                this.repository = repository;
+                this.threads = threads;
+        }
+
+        /**
+         * Adds a path to stage, relative to the repository root. Folders are staged with all their content, "." stages the whole tree.
+         *
+         * @param filepattern The path to stage
+         */
+        public void addFilepattern(String filepattern) {
+                filepatterns.add(filepattern);
+        }
+
+        /**
+         * Whether or not only the files already in the index are staged, missing files being removed from the index
+         * unless they are flagged <code>skip-worktree</code>
+         *
+         * @param update Only stage tracked files?
+         */
+        public void setUpdate(boolean update) {
+                this.update = update;
+        }
+
+        /**
+         * Whether or not the blobs of the regular files are written to pack files, one per thread, instead of loose objects.
+         *
+         * <p>Each thread deflates its share of the files to its own pack rather than feeding a single pack: a single pack writer
+         * would serialize the compression, which is most of the cost of storing the blobs. Staging on <i>n</i> threads leaves
+         * up to <i>n</i> packs, until they are repacked by <code>git gc</code>.</p>
+         *
+         * @param packObjects Write the blobs to pack files?
+         */
+        public void setPackObjects(boolean packObjects) {
+                this.packObjects = packObjects;
+        }
+
+        /**
+         * Stages the files and writes the index
+         *
+         * @return The written index
+         * @throws IOException When the files cannot be staged
+         */
+        public DirCache stage() throws IOException {
+                DirCache dirCache = repository.lockDirCache();
+                ObjectInserter inserter = repository.newObjectInserter();
+                TreeWalk treeWalk = new TreeWalk(repository);
+
+                try {
+                        DirCacheBuilder builder = dirCache.builder();
+                        List<PendingBlob> pendingBlobs = new ArrayList<PendingBlob>();
+                        boolean autoCRLF = repository.getConfig().get(WorkingTreeOptions.KEY).getAutoCRLF() != AutoCRLF.FALSE;
+                        String lastAddedFile = null;
+
+                        treeWalk.addTree(new DirCacheBuildIterator(builder));
+                        treeWalk.addTree(new FileTreeIterator(repository));
+                        treeWalk.setRecursive(true);
+
+                        if (!filepatterns.contains(".")) {
+                                treeWalk.setFilter(PathFilterGroup.createFromStrings(filepatterns));
+                        }
+
+                        while (treeWalk.next()) {
+                                String path = treeWalk.getPathString();
+                                DirCacheIterator dirCacheIterator = treeWalk.getTree(INDEX, DirCacheIterator.class);
+                                WorkingTreeIterator workingTreeIterator = treeWalk.getTree(WORKDIR, WorkingTreeIterator.class);
+
+                                if (dirCacheIterator == null && workingTreeIterator != null && workingTreeIterator.isEntryIgnored()) {
+                                        continue;
+                                }
+
+                                // Conflicting paths are walked once per stage, a single entry replaces all of them
+                                if (path.equals(lastAddedFile) || (update && dirCacheIterator == null)) {
+                                        continue;
+                                }
+
+                                if (workingTreeIterator != null) {
+                                        DirCacheEntry indexEntry = dirCacheIterator == null ? null : dirCacheIterator.getDirCacheEntry();
+
+                                        // Unchanged files keep their entry, as do the files left out of a sparse checkout
+                                        if (indexEntry != null && (indexEntry.isAssumeValid() || indexEntry.isSkipWorkTree()
+                                                                   || workingTreeIterator.compareMetadata(indexEntry) == MetadataDiff.EQUAL)) {
+                                                builder.add(indexEntry);
+
+                                                continue;
+                                        }
+
+                                        DirCacheEntry entry = new DirCacheEntry(path);
+                                        FileMode mode = workingTreeIterator.getIndexFileMode(dirCacheIterator);
+                                        entry.setFileMode(mode);
+
+                                        if (mode == FileMode.GITLINK) {
+                                                entry.setObjectId(workingTreeIterator.getEntryObjectId());
+                                        }
+                                        else {
+                                                long length = workingTreeIterator.getEntryLength();
+                                                entry.setLength(length);
+                                                entry.setLastModified(workingTreeIterator.getEntryLastModified());
+
+                                                if (!autoCRLF && (mode == FileMode.REGULAR_FILE || mode == FileMode.EXECUTABLE_FILE)) {
+                                                        pendingBlobs.add(new PendingBlob(entry, length));
+                                                }
+                                                else {
+                                                        InputStream in = workingTreeIterator.openEntryStream();
+
+                                                        try {
+                                                                entry.setObjectId(inserter.insert(Constants.OBJ_BLOB, workingTreeIterator.getEntryContentLength(), in));
+                                                        }
+                                                        finally {
+                                                                in.close();
+                                                        }
+                                                }
+                                        }
+
+                                        builder.add(entry);
+                                        lastAddedFile = path;
+                                }
+                                else if (dirCacheIterator != null && (!update || dirCacheIterator.getEntryFileMode() == FileMode.GITLINK
+                                                                      || dirCacheIterator.getDirCacheEntry().isSkipWorkTree())) {
+                                        builder.add(dirCacheIterator.getDirCacheEntry());
+                                }
+                        }
+
+                        inserter.flush();
+                        insertBlobs(pendingBlobs);
+                        builder.commit();
+
+                        return dirCache;
+                }
+                finally {
+                        treeWalk.release();
+                        inserter.release();
+                        dirCache.unlock();
+                }
+        }
+
+        private void insertBlobs(List<PendingBlob> blobs) throws IOException {
+                if (blobs.isEmpty()) {
+                        return;
+                }
+
+                List<Callable<Void>> batches = new ArrayList<Callable<Void>>();
+                int batchSize = packObjects ? (blobs.size() + threads - 1) / threads : BATCH_SIZE;
+
+                for (int i = 0; i < blobs.size(); i += batchSize) {
+                        final List<PendingBlob> batch = blobs.subList(i, Math.min(i + batchSize, blobs.size()));
+
+                        batches.add(new Callable<Void>() {
+                                        @Override
+                                        public Void call() throws IOException {
+                                                insertBatch(batch);
+
+                                                return null;
+                                        }
+                                });
+                }
+
+                ForkJoinPool pool = new ForkJoinPool(Math.min(threads, batches.size()));
+
+                try {
+                        for (Future<Void> result : pool.invokeAll(batches)) {
+                                result.get();
+                        }
+                }
+                catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+
+                        throw new IOException("Interrupted while hashing the staged files.", e);
+                }
+                catch (ExecutionException e) {
+                        if (e.getCause() instanceof IOException) {
+                                throw (IOException) e.getCause();
+                        }
+
+                        throw new IOException("Unexpected error while hashing the staged files.", e.getCause());
+                }
+                finally {
+                        pool.shutdownNow();
+                }
+        }
+
+        /**
+         * Inserts the blobs of a batch of regular files, JGit object inserters are not thread safe.
+         */
+        private void insertBatch(List<PendingBlob> batch) throws IOException {
+                if (packObjects) {
+                        GitPackInserter packInserter = new GitPackInserter(repository);
+
+                        try {
+                                for (PendingBlob blob : batch) {
+                                        InputStream in = openBlob(blob);
+
+                                        try {
+                                                blob.entry.setObjectId(packInserter.insert(Constants.OBJ_BLOB, blob.length, in));
+                                        }
+                                        finally {
+                                                in.close();
+                                        }
+                                }
+
+                                packInserter.flush();
+                        }
+                        finally {
+                                packInserter.release();
+                        }
+
+                        return;
+                }
+
+                ObjectInserter inserter = repository.newObjectInserter();
+
+                try {
+                        for (PendingBlob blob : batch) {
+                                InputStream in = openBlob(blob);
+
+                                try {
+                                        blob.entry.setObjectId(inserter.insert(Constants.OBJ_BLOB, blob.length, in));
+                                }
+                                finally {
+                                        in.close();
+                                }
+                        }
+
+                        inserter.flush();
+                }
+                finally {
+                        inserter.release();
+                }
+        }
+
+        private InputStream openBlob(PendingBlob blob) throws IOException {
+                return new FileInputStream(new File(repository.getWorkTree(), blob.entry.getPathString()));
+        }
+
+        /**
+         * Index entry of a regular file, waiting for its blob id.
+         */
+        private static final class PendingBlob {
+                private final DirCacheEntry entry;
+                private final long length;
+
+                private PendingBlob(DirCacheEntry entry, long length) {
+                        this.entry = entry;
+                        this.length = length;
+                }
+        }
+
+}
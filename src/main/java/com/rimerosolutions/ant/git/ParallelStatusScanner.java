@@ -0,0 +1,300 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.IndexDiffFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.SkipWorkTreeFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Computes the status of a working tree on several threads.
+ *
+ * <p>The tree is partitioned by top-level folders, the files at the root of the repository make a partition of their own.
+ * The partitions are compared to HEAD and to the index on a fork-join pool, the index being read only once for all of them.
+ * Paths are classified as the JGit {@link org.eclipse.jgit.lib.IndexDiff} does, the merged status is the same as
+ * a serial scan.</p>
+ *
+ * <p>When an untracked cache is set, whole tree scans skip the cached untracked folders and save the cache once done.</p>
+ *
+ * @author Yves Zoundi
+ */
+public class ParallelStatusScanner {
+
+        private static final int TREE = 0;
+        private static final int INDEX = 1;
+        private static final int WORKDIR = 2;
+        private final Repository repository;
+        private final int threads;
+        private TreeFilter filter = TreeFilter.ALL;
+        private GitUntrackedCache untrackedCache;
+
+        /**
+         * Creates a new scanner
+         *
+         * @param repository The repository to scan
+         * @param threads The number of threads
+         */
+        public ParallelStatusScanner(Repository repository, int threads) {
+                this.repository = repository;
+                this.threads = threads;
+        }
+
+        /**
+         * Restricts the scan to some paths
+         *
+         * @param filter The filter of the scanned paths
+         */
+        public void setFilter(TreeFilter filter) {
+                this.filter = filter;
+        }
+
+        /**
+         * Sets the untracked cache, only used when scanning the whole tree
+         *
+         * @param untrackedCache The untracked cache of the repository
+         */
+        public void setUntrackedCache(GitUntrackedCache untrackedCache) {
+                this.untrackedCache = untrackedCache;
+        }
+
+        /**
+         * Scans the working tree
+         *
+         * @return The status of the working tree
+         * @throws IOException When the repository cannot be read
+         */
+        public GitTreeStatus scan() throws IOException {
+                final ObjectId headTree = repository.resolve(Constants.HEAD + "^{tree}");
+                final DirCache dirCache = repository.readDirCache();
+                List<Callable<GitTreeStatus>> partitionScans = new ArrayList<Callable<GitTreeStatus>>();
+
+                for (final TreeFilter partition : listPartitions(headTree, dirCache)) {
+                        partitionScans.add(new Callable<GitTreeStatus>() {
+                                        @Override
+                                        public GitTreeStatus call() throws IOException {
+                                                return scanPartition(headTree, dirCache, partition);
+                                        }
+                                });
+                }
+
+                GitTreeStatus status = new GitTreeStatus();
+
+                if (partitionScans.isEmpty()) {
+                        return status;
+                }
+
+                ForkJoinPool pool = new ForkJoinPool(Math.min(threads, partitionScans.size()));
+
+                try {
+                        for (Future<GitTreeStatus> result : pool.invokeAll(partitionScans)) {
+                                status.merge(result.get());
+                        }
+                }
+                catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+
+                        throw new IOException("Interrupted while scanning the working tree.", e);
+                }
+                catch (ExecutionException e) {
+                        if (e.getCause() instanceof IOException) {
+                                throw (IOException) e.getCause();
+                        }
+
+                        throw new IOException("Unexpected error while scanning the working tree.", e.getCause());
+                }
+                finally {
+                        pool.shutdownNow();
+                }
+
+                if (isUntrackedCacheUsed()) {
+                        untrackedCache.save();
+                }
+
+                return status;
+        }
+
+        /**
+         * Lists the top-level entries of HEAD, the index and the working tree, one partition per folder
+         * and one for all the files.
+         */
+        private List<TreeFilter> listPartitions(ObjectId headTree, DirCache dirCache) throws IOException {
+                Set<String> folders = new LinkedHashSet<String>();
+                Set<String> files = new LinkedHashSet<String>();
+                TreeWalk treeWalk = createTreeWalk(headTree, dirCache);
+
+                try {
+                        treeWalk.setRecursive(false);
+                        treeWalk.setFilter(filter);
+
+                        while (treeWalk.next()) {
+                                if (treeWalk.isSubtree()) {
+                                        folders.add(treeWalk.getPathString());
+                                }
+                                else {
+                                        files.add(treeWalk.getPathString());
+                                }
+                        }
+                }
+                finally {
+                        treeWalk.release();
+                }
+
+                List<TreeFilter> partitions = new ArrayList<TreeFilter>(folders.size() + 1);
+
+                for (String folder : folders) {
+                        partitions.add(PathFilter.create(folder));
+                }
+
+                files.removeAll(folders);
+
+                if (!files.isEmpty()) {
+                        partitions.add(PathFilterGroup.createFromStrings(files));
+                }
+
+                return partitions;
+        }
+
+        private GitTreeStatus scanPartition(ObjectId headTree, DirCache dirCache, TreeFilter partition) throws IOException {
+                GitTreeStatus status = new GitTreeStatus();
+                TreeWalk treeWalk = createTreeWalk(headTree, dirCache);
+                GitUntrackedCache.Recorder recorder = null;
+
+                try {
+                        List<TreeFilter> filters = new ArrayList<TreeFilter>(5);
+                        filters.add(partition);
+
+                        if (filter != TreeFilter.ALL) {
+                                filters.add(filter);
+                        }
+
+                        if (isUntrackedCacheUsed()) {
+                                recorder = untrackedCache.newRecorder(status);
+                                filters.add(recorder);
+                        }
+
+                        filters.add(new SkipWorkTreeFilter(INDEX));
+                        filters.add(new IndexDiffFilter(INDEX, WORKDIR));
+
+                        treeWalk.setRecursive(true);
+                        treeWalk.setFilter(AndTreeFilter.create(filters));
+
+                        while (treeWalk.next()) {
+                                classify(treeWalk, status);
+                        }
+
+                        if (recorder != null) {
+                                recorder.finish();
+                        }
+                }
+                finally {
+                        treeWalk.release();
+                }
+
+                return status;
+        }
+
+        private boolean isUntrackedCacheUsed() {
+                return untrackedCache != null && filter == TreeFilter.ALL;
+        }
+
+        private static void classify(TreeWalk treeWalk, GitTreeStatus status) throws IOException {
+                String path = treeWalk.getPathString();
+                AbstractTreeIterator treeIterator = treeWalk.getTree(TREE, AbstractTreeIterator.class);
+                DirCacheIterator dirCacheIterator = treeWalk.getTree(INDEX, DirCacheIterator.class);
+                WorkingTreeIterator workingTreeIterator = treeWalk.getTree(WORKDIR, WorkingTreeIterator.class);
+
+                if (dirCacheIterator != null) {
+                        DirCacheEntry dirCacheEntry = dirCacheIterator.getDirCacheEntry();
+
+                        if (dirCacheEntry != null && dirCacheEntry.getStage() > 0) {
+                                status.getConflicting().add(path);
+
+                                return;
+                        }
+                }
+
+                if (treeIterator != null) {
+                        if (dirCacheIterator != null) {
+                                if (!treeIterator.idEqual(dirCacheIterator) || treeIterator.getEntryRawMode() != dirCacheIterator.getEntryRawMode()) {
+                                        status.getChanged().add(path);
+                                }
+                        }
+                        else {
+                                status.getRemoved().add(path);
+
+                                if (workingTreeIterator != null) {
+                                        status.getUntracked().add(path);
+                                }
+                        }
+                }
+                else if (dirCacheIterator != null) {
+                        status.getAdded().add(path);
+                }
+                else if (workingTreeIterator != null && !workingTreeIterator.isEntryIgnored()) {
+                        status.getUntracked().add(path);
+                }
+
+                if (dirCacheIterator != null) {
+                        if (workingTreeIterator == null) {
+                                status.getMissing().add(path);
+                        }
+                        else if (workingTreeIterator.isModified(dirCacheIterator.getDirCacheEntry(), true)) {
+                                status.getModified().add(path);
+                        }
+                }
+        }
+
+        private TreeWalk createTreeWalk(ObjectId headTree, DirCache dirCache) throws IOException {
+                TreeWalk treeWalk = new TreeWalk(repository);
+
+                if (headTree != null) {
+                        treeWalk.addTree(headTree);
+                }
+                else {
+                        treeWalk.addTree(new EmptyTreeIterator());
+                }
+
+                treeWalk.addTree(new DirCacheIterator(dirCache));
+                treeWalk.addTree(new FileTreeIterator(repository));
+
+                return treeWalk;
+        }
+
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.ant.types.Resource;
+import org.apache.tools.ant.types.ResourceCollection;
+import org.apache.tools.ant.types.resources.FileResource;
+import org.apache.tools.ant.types.resources.Union;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Turns the files selected by Ant resource collections into a minimal list of paths relative to the repository root.
+ *
+ * <p>The root of the repository and the base folder of each fileset are canonicalized once, the selected files are
+ * then located by their path relative to the fileset. A folder is replaced by its own path when all its files are selected:
+ * every file and folder found on disk under it, and every index entry under it. The root of the repository is never
+ * collapsed, a full selection is compiled to the top-level entries of the repository.</p>
+ *
+ * @author Yves Zoundi
+ */
+public class PathspecCompiler {
+
+        private static final Comparator<String> DEEPEST_FIRST = new Comparator<String>() {
+                @Override
+                public int compare(String path, String otherPath) {
+                        int lengthDifference = otherPath.length() - path.length();
+
+                        return lengthDifference != 0 ? lengthDifference : path.compareTo(otherPath);
+                }
+        };
+
+        private final Repository repository;
+
+        /**
+         * Creates a new compiler
+         *
+         * @param repository The repository of the selected files
+         */
+        public PathspecCompiler(Repository repository) {
+                this.repository = repository;
+        }
+
+        /**
+         * Compiles the files of a union of resource collections into paths relative to the repository root
+         *
+         * @param union The selected files
+         * @return The sorted repository paths, folders standing for all their content
+         * @throws IOException When the files or the index cannot be read
+         */
+        public List<String> compile(Union union) throws IOException {
+                File workTree = repository.getWorkTree().getCanonicalFile();
+                Set<String> files = new HashSet<String>();
+
+                for (Object collection : union.getResourceCollections()) {
+                        if (collection instanceof FileSet) {
+                                FileSet fileSet = (FileSet) collection;
+                                // The union of a task created outside of a build file may not have a project
+                                Project project = (fileSet.getProject() != null) ? fileSet.getProject() : union.getProject();
+                                DirectoryScanner directoryScanner = fileSet.getDirectoryScanner(project);
+                                String basePath = relativePath(workTree, directoryScanner.getBasedir().getCanonicalFile());
+
+                                for (String includedFile : directoryScanner.getIncludedFiles()) {
+                                        String path = includedFile.replace(File.separatorChar, '/');
+                                        files.add(basePath.length() == 0 ? path : basePath + "/" + path);
+                                }
+                        }
+                        else {
+                                Iterator<?> resources = ((ResourceCollection) collection).iterator();
+
+                                while (resources.hasNext()) {
+                                        Resource resource = (Resource) resources.next();
+
+                                        if (resource instanceof FileResource) {
+                                                files.add(relativePath(workTree, ((FileResource) resource).getFile().getCanonicalFile()));
+                                        }
+                                }
+                        }
+                }
+
+                files.remove("");
+
+                return collapse(workTree, files);
+        }
+
+        private List<String> collapse(File workTree, Set<String> files) throws IOException {
+                Set<String> folders = new TreeSet<String>(DEEPEST_FIRST);
+
+                for (String file : files) {
+                        String folder = parentPath(file);
+
+                        while (folder.length() > 0 && folders.add(folder)) {
+                                folder = parentPath(folder);
+                        }
+                }
+
+                Map<String, Boolean> completeFolders = new HashMap<String, Boolean>();
+                DirCache dirCache = folders.isEmpty() ? null : repository.readDirCache();
+
+                for (String folder : folders) {
+                        completeFolders.put(folder, isComplete(workTree, folder, files, completeFolders, dirCache));
+                }
+
+                Set<String> pathspecs = new TreeSet<String>();
+
+                for (String file : files) {
+                        String pathspec = file;
+
+                        for (String folder = parentPath(file); folder.length() > 0; folder = parentPath(folder)) {
+                                if (completeFolders.get(folder)) {
+                                        pathspec = folder;
+                                }
+                        }
+
+                        pathspecs.add(pathspec);
+                }
+
+                return Collections.unmodifiableList(new ArrayList<String>(pathspecs));
+        }
+
+        /**
+         * Checks that all the content of a folder is selected, the subfolders being checked first
+         */
+        private static boolean isComplete(File workTree, String folder, Set<String> files, Map<String, Boolean> completeFolders, DirCache dirCache) {
+                String[] names = new File(workTree, folder).list();
+
+                if (names == null) {
+                        return false;
+                }
+
+                for (String name : names) {
+                        String path = folder + "/" + name;
+
+                        if (files.contains(path) || Boolean.TRUE.equals(completeFolders.get(path))) {
+                                continue;
+                        }
+
+                        String[] childNames = completeFolders.containsKey(path) ? null : new File(workTree, path).list();
+
+                        if (childNames == null || childNames.length > 0 || name.equals(Constants.DOT_GIT)) {
+                                return false;
+                        }
+                }
+
+                for (DirCacheEntry entry : dirCache.getEntriesWithin(folder)) {
+                        if (!files.contains(entry.getPathString())) {
+                                return false;
+                        }
+                }
+
+                return true;
+        }
+
+        private static String relativePath(File workTree, File file) {
+                String workTreePath = workTree.getPath();
+                String filePath = file.getPath();
+
+                if (filePath.equals(workTreePath)) {
+                        return "";
+                }
+
+                if (!filePath.startsWith(workTreePath + File.separator)) {
+                        throw new GitBuildException(String.format("The file '%s' is outside of the repository '%s'.", file, workTree));
+                }
+
+                return filePath.substring(workTreePath.length() + 1).replace(File.separatorChar, '/');
+        }
+
+        private static String parentPath(String path) {
+                int slashIndex = path.lastIndexOf('/');
+
+                return slashIndex == -1 ? "" : path.substring(0, slashIndex);
+        }
+
+}
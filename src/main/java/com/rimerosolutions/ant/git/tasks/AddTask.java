@@ -15,6 +15,9 @@
  */
 package com.rimerosolutions.ant.git.tasks;
 
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.resources.Union;
 import org.eclipse.jgit.api.AddCommand;
@@ -22,6 +25,9 @@ import org.eclipse.jgit.api.errors.GitAPIException;
 
 import com.rimerosolutions.ant.git.AbstractGitRepoAwareTask;
 import com.rimerosolutions.ant.git.GitBuildException;
+import com.rimerosolutions.ant.git.GitSparseCheckout;
+import com.rimerosolutions.ant.git.ParallelStager;
+import com.rimerosolutions.ant.git.PathspecCompiler;
 
 /**
  * Add files.
@@ -33,6 +39,24 @@ import com.rimerosolutions.ant.git.GitBuildException;
  </git:add>
  *  </git:git>}</pre>
  *
+ * <p>Large sets of files can be hashed on several threads, the index is written once all the files are stored:</p>
+ *
+ * <pre>{@code
+ *  <git:git directory="${testLocalRepo}">
+ *    <git:add threads="8">
+ *      <fileset dir="${testLocalRepo}/generated"/>
+ *    </git:add>
+ *  </git:git>}</pre>
+ *
+ * <p>Generated files can be written to a pack file per thread rather than to one loose object per file:</p>
+ *
+ * <pre>{@code
+ *  <git:git directory="${testLocalRepo}">
+ *    <git:add packObjects="true">
+ *      <fileset dir="${testLocalRepo}/generated"/>
+ *    </git:add>
+ *  </git:git>}</pre>
+ *
  * <p><a href="http://www.kernel.org/pub/software/scm/git/docs/git-add.html">Git documentation about add</a></p>
  * <p><a href="http://download.eclipse.org/jgit/docs/jgit-2.0.0.201206130900-r/apidocs/org/eclipse/jgit/api/AddCommand.html">JGit AddCommand</a></p>
  *
@@ -43,9 +67,12 @@ public class AddTask extends AbstractGitRepoAwareTask {
         private static final String TASK_NAME = "git-patch";
         private boolean update;
         private Union path;
+        private int threads = 1;
+        private boolean packObjects;
 
         /**
          * If set to true, the command only matches filepattern against already tracked files in the index rather than the working tree.
+         * Missing files are removed from the index, except the files left out of a sparse checkout.
          *
          * @antdoc.notrequired
          * @param update Default is false;
@@ -54,6 +81,31 @@ public class AddTask extends AbstractGitRepoAwareTask {
                 this.update = update;
         }
 
+        /**
+         * Sets the number of threads hashing the added files
+         *
+         * @antdoc.notrequired
+         * @param threads The number of threads (Default 1)
+         */
+        public void setThreads(int threads) {
+                if (threads < 1) {
+                        throw new BuildException("The number of threads must be at least 1.");
+                }
+
+                this.threads = threads;
+        }
+
+        /**
+         * Writes the blobs of the added files to pack files instead of one loose object per file.
+         * Files larger than <code>core.streamFileThreshold</code> are streamed to the pack.
+         *
+         * @antdoc.notrequired
+         * @param packObjects Whether or not to write the added files to pack files (Default false)
+         */
+        public void setPackObjects(boolean packObjects) {
+                this.packObjects = packObjects;
+        }
+
         @Override
         public String getName() {
                 return TASK_NAME;
@@ -79,19 +131,35 @@ public class AddTask extends AbstractGitRepoAwareTask {
         @Override
         protected void doExecute() {
                 try {
-                        AddCommand addCommand = git.add().setUpdate(update);
-                        String prefix = getDirectory().getCanonicalPath();
-                        String[] allFiles = getPath().list();
-                        if (allFiles.length == 0) {
+                        List<String> pathspecs = new PathspecCompiler(git.getRepository()).compile(getPath());
+                        if (pathspecs.isEmpty()) {
                                 return;
                         }
 
-                        for (String file : allFiles) {
-                                String addedFile = translateFilePathUsingPrefix(file, prefix);
-                                addCommand.addFilepattern(addedFile);
+                        // The JGit add command drops the entries of the files left out of a sparse checkout in update mode
+                        if (threads > 1 || packObjects || (update && GitSparseCheckout.hasSkippedEntries(git.getRepository()))) {
+                                long start = System.nanoTime();
+                                ParallelStager stager = new ParallelStager(git.getRepository(), threads);
+                                stager.setUpdate(update);
+                                stager.setPackObjects(packObjects);
+
+                                for (String pathspec : pathspecs) {
+                                        stager.addFilepattern(pathspec);
+                                }
+
+                                stager.stage();
+                                addCommandTime(start);
+
+                                return;
+                        }
+
+                        AddCommand addCommand = git.add().setUpdate(update);
+
+                        for (String pathspec : pathspecs) {
+                                addCommand.addFilepattern(pathspec);
                         }
 
-                        addCommand.call();
+                        callCommand(addCommand);
                 }
                 catch (GitAPIException e) {
                         throw new GitBuildException(e);
@@ -78,13 +78,13 @@ public class ApplyTask extends AbstractGitRepoAwareTask {
 
                 try {
                         in = new FileInputStream(patchFile);
-                        ApplyResult result = git.apply().setPatch(in).call();
+                        ApplyResult result = callCommand(git.apply().setPatch(in));
                         Collection<File> updatedFiles = result.getUpdatedFiles();
 
                         log("Updated files:" + updatedFiles.size());
 
                         if (updatedCountProperty != null) {
-                                getProject().setProperty(updatedCountProperty, String.valueOf(updatedFiles.size()));
+                                setProjectProperty(updatedCountProperty, String.valueOf(updatedFiles.size()));
                         }
                 }
                 catch (PatchFormatException pfe) {
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git.tasks;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+
+import com.rimerosolutions.ant.git.AbstractAsyncGitTask;
+import com.rimerosolutions.ant.git.GitTaskUtils;
+
+/**
+ * Waits for a git task started with <code>async="true"</code>.
+ *
+ * <p>The outcome of the background task is reported as if it had run in the foreground:
+ * output properties are set and failures break the build unless <code>failOnError</code> is disabled.</p>
+ *
+ * <pre>{@code
+ * <git:git directory="${testLocalRepoClient}">
+ *   <git:fetch uri="file://${testLocalRepo}" async="true" id="f1"/>
+ * </git:git>
+ *
+ * <git:await id="f1"/>}</pre>
+ *
+ * @author Yves Zoundi
+ */
+public class AwaitTask extends Task {
+
+        private String id;
+
+        /**
+         * Sets the id of the background task to wait for
+         *
+         * @param id The background task id
+         */
+        public void setId(String id) {
+                this.id = id;
+        }
+
+        @Override
+        public void execute() throws BuildException {
+                if (GitTaskUtils.isNullOrBlankString(id)) {
+                        throw new BuildException("Please specify the id of the background task.");
+                }
+
+                AbstractAsyncGitTask.await(getProject(), id);
+        }
+
+}
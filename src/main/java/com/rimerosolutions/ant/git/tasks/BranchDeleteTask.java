@@ -62,7 +62,7 @@ public class BranchDeleteTask extends AbstractGitRepoAwareTask {
         @Override
         protected void doExecute() {
                 try {
-                        git.branchDelete().setBranchNames(branchNames).call();
+                        callCommand(git.branchDelete().setBranchNames(branchNames));
                 } catch (GitAPIException e) {
                         throw new GitBuildException("Could not delete specified branches.", e);
                 }
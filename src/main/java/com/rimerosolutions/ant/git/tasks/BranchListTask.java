@@ -80,7 +80,7 @@ public class BranchListTask extends TagListTask {
         @Override
         protected void doExecute() {
                 try {
-                        List<Ref> branchesRefList = git.branchList().setListMode(listMode).call();
+                        List<Ref> branchesRefList = callCommand(git.branchList().setListMode(listMode));
                         processReferencesAndOutput(branchesRefList);
                 } catch (GitAPIException e) {
                         throw new GitBuildException("Could not list branches.", e);
@@ -15,7 +15,10 @@
  */
 package com.rimerosolutions.ant.git.tasks;
 
+import java.io.IOException;
+
 import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
 import org.eclipse.jgit.api.CheckoutCommand;
 import org.eclipse.jgit.api.CheckoutResult;
 import org.eclipse.jgit.api.CreateBranchCommand;
@@ -24,9 +27,14 @@ import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.InvalidRefNameException;
 import org.eclipse.jgit.api.errors.RefAlreadyExistsException;
 import org.eclipse.jgit.api.errors.RefNotFoundException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
 
 import com.rimerosolutions.ant.git.AbstractGitRepoAwareTask;
 import com.rimerosolutions.ant.git.GitBuildException;
+import com.rimerosolutions.ant.git.GitSparseCheckout;
 import com.rimerosolutions.ant.git.GitTaskUtils;
 import org.eclipse.jgit.lib.Constants;
 /**
@@ -38,6 +46,22 @@ import org.eclipse.jgit.lib.Constants;
  *  <git:branchDelete failonerror="true" branches="${dummy.checkout.branch}"/>
  * </git:git>}</pre>
  *
+ * <p>With <code>includes</code> or <code>excludes</code> patterns, HEAD and the index are switched to the branch and only
+ * the matching files are written to the working tree, the other files are flagged <code>skip-worktree</code> in the index.
+ * The checkout fails before any file is touched if local changes would be overwritten.</p>
+ *
+ * <pre>{@code
+ * <git:git directory="${testLocalRepo}" verbose="true">
+ *  <git:checkout branchName="master" includes="src/**" excludes="src/test/**"/>
+ * </git:git>}</pre>
+ *
+ * <p>Some paths can be restored from the index or from another revision, without switching branches:</p>
+ *
+ * <pre>{@code
+ * <git:git directory="${testLocalRepo}" verbose="true">
+ *  <git:checkout paths="build.xml,src/main/resources" revision="HEAD~1"/>
+ * </git:git>}</pre>
+ *
  * <p><a href="https://www.kernel.org/pub/software/scm/git/docs/git-checkout.html">Git documentation about checkout</a></p>
  * <p><a href="http://download.eclipse.org/jgit/docs/latest/apidocs/org/eclipse/jgit/api/CheckoutCommand.html">JGit CheckoutCommand</a></p>
  *
@@ -49,6 +73,10 @@ public class CheckoutTask extends AbstractGitRepoAwareTask {
         private String startPoint;
         private boolean createBranch = false;
         private boolean trackBranchOnCreate = true;
+        private String includes;
+        private String excludes;
+        private String paths;
+        private String revision;
         private static final String TASK_NAME = "git-checkout";
 
         @Override
@@ -95,12 +123,81 @@ public class CheckoutTask extends AbstractGitRepoAwareTask {
                 this.branchName = branchName;
         }
 
+        /**
+         * Restricts the working tree to the files matching some patterns (comma or space separated Ant patterns, relative to the repository root)
+         *
+         * @antdoc.notrequired
+         * @param includes The include patterns
+         */
+        public void setIncludes(String includes) {
+                this.includes = includes;
+        }
+
+        /**
+         * Leaves the files matching some patterns out of the working tree (comma or space separated Ant patterns, relative to the repository root)
+         *
+         * @antdoc.notrequired
+         * @param excludes The exclude patterns
+         */
+        public void setExcludes(String excludes) {
+                this.excludes = excludes;
+        }
+
+        /**
+         * Sets the paths to restore instead of checking out a branch
+         *
+         * @antdoc.notrequired
+         * @param paths Comma-separated list of repository relative files or folders
+         */
+        public void setPaths(String paths) {
+                this.paths = paths;
+        }
+
+        /**
+         * Sets the revision the paths are restored from
+         *
+         * @antdoc.notrequired
+         * @param revision The commit, branch or tag to restore the paths from (Default is the index)
+         */
+        public void setRevision(String revision) {
+                this.revision = revision;
+        }
+
         @Override
         protected void doExecute() throws BuildException {
+                boolean restorePaths = !GitTaskUtils.isNullOrBlankString(paths);
+
+                if (restorePaths && !GitTaskUtils.isNullOrBlankString(branchName)) {
+                        throw new BuildException("Either a branch or some paths can be checked out, not both.");
+                }
+
+                boolean sparse = includes != null || excludes != null;
+
+                if (sparse && GitTaskUtils.isNullOrBlankString(branchName) && !restorePaths) {
+                        sparseCheckout();
+
+                        return;
+                }
+
                 try {
+                        if (sparse && !GitTaskUtils.isNullOrBlankString(branchName)) {
+                                switchBranch();
+
+                                return;
+                        }
+
                         CheckoutCommand checkoutCommand = git.checkout();
 
-                        if (createBranch) {
+                        if (restorePaths) {
+                                for (String path : paths.split(",")) {
+                                        checkoutCommand.addPath(path.trim());
+                                }
+
+                                if (!GitTaskUtils.isNullOrBlankString(revision)) {
+                                        checkoutCommand.setStartPoint(revision);
+                                }
+                        }
+                        else if (createBranch) {
                                 checkoutCommand.setCreateBranch(true);
 
                                 if (trackBranchOnCreate) {
@@ -112,11 +209,11 @@ public class CheckoutTask extends AbstractGitRepoAwareTask {
                                 checkoutCommand.setName(branchName);
                         }
 
-			if (!GitTaskUtils.isNullOrBlankString(startPoint)) {
+			if (!restorePaths && !GitTaskUtils.isNullOrBlankString(startPoint)) {
 				checkoutCommand.setStartPoint(Constants.DEFAULT_REMOTE_NAME + "/" + startPoint);
 			}			
 
-                        checkoutCommand.call();
+                        callCommand(checkoutCommand);
 
                         CheckoutResult checkoutResult = checkoutCommand.getResult();
 
@@ -130,6 +227,10 @@ public class CheckoutTask extends AbstractGitRepoAwareTask {
 
                                 throw new GitBuildException(String.format("Some files could not be deleted:%s.", undeleted));
                         }
+
+                        if (sparse || (restorePaths && hasSkippedFiles())) {
+                                sparseCheckout();
+                        }
                 } catch (RefAlreadyExistsException e) {
                         throw new GitBuildException(String.format("Cannot create branch '%s', as it already exists!", branchName), e);
                 } catch (RefNotFoundException e) {
@@ -143,4 +244,105 @@ public class CheckoutTask extends AbstractGitRepoAwareTask {
                 }
         }
 
+        private boolean hasSkippedFiles() {
+                try {
+                        return GitSparseCheckout.hasSkippedEntries(git.getRepository());
+                }
+                catch (IOException e) {
+                        throw new GitBuildException("Could not read the index: " + e.getMessage(), e);
+                }
+        }
+
+        /**
+         * Switches HEAD and the index to the branch, only the files matching the patterns are written to the working tree
+         */
+        private void switchBranch() throws GitAPIException {
+                Repository repository = git.getRepository();
+
+                if (createBranch) {
+                        CreateBranchCommand createBranchCommand = git.branchCreate().setName(branchName);
+
+                        if (trackBranchOnCreate) {
+                                createBranchCommand.setUpstreamMode(CreateBranchCommand.SetupUpstreamMode.TRACK);
+                        }
+
+                        if (!GitTaskUtils.isNullOrBlankString(startPoint)) {
+                                createBranchCommand.setStartPoint(Constants.DEFAULT_REMOTE_NAME + "/" + startPoint);
+                        }
+
+                        callCommand(createBranchCommand);
+                }
+
+                try {
+                        Ref ref = repository.getRef(branchName);
+                        ObjectId commit = repository.resolve(branchName + "^{commit}");
+
+                        if (commit == null) {
+                                throw new RefNotFoundException(String.format("Ref %s can not be resolved.", branchName));
+                        }
+
+                        GitSparseCheckout sparseCheckout = newSparseCheckout();
+                        sparseCheckout.switchTo(commit);
+                        apply(sparseCheckout);
+
+                        boolean branch = ref != null && ref.getName().startsWith(Constants.R_HEADS);
+                        RefUpdate headUpdate = repository.updateRef(Constants.HEAD, !branch);
+                        headUpdate.setRefLogMessage("checkout: moving to " + branchName, false);
+                        RefUpdate.Result result;
+
+                        if (branch) {
+                                result = headUpdate.link(ref.getName());
+                        }
+                        else {
+                                headUpdate.setNewObjectId(commit);
+                                result = headUpdate.forceUpdate();
+                        }
+
+                        if (result != RefUpdate.Result.NEW && result != RefUpdate.Result.FORCED && result != RefUpdate.Result.NO_CHANGE) {
+                                throw new GitBuildException(String.format("Could not update HEAD to '%s': %s.", branchName, result));
+                        }
+                }
+                catch (IOException e) {
+                        throw new GitBuildException(String.format("Could not checkout branch '%s'.", branchName), e);
+                }
+        }
+
+        /**
+         * Restricts the working tree to the files of HEAD matching the patterns. Without patterns,
+         * the files restored to the working tree are no longer skipped.
+         */
+        private void sparseCheckout() {
+                apply(newSparseCheckout());
+        }
+
+        private GitSparseCheckout newSparseCheckout() {
+                GitSparseCheckout sparseCheckout;
+
+                if (includes != null || excludes != null) {
+                        sparseCheckout = new GitSparseCheckout(git.getRepository(), GitTaskUtils.splitPatterns(includes), GitTaskUtils.splitPatterns(excludes));
+                }
+                else {
+                        sparseCheckout = new GitSparseCheckout(git.getRepository());
+                }
+
+                return sparseCheckout;
+        }
+
+        private void apply(GitSparseCheckout sparseCheckout) {
+                long start = System.nanoTime();
+
+                try {
+                        sparseCheckout.apply();
+                }
+                catch (IOException e) {
+                        throw new GitBuildException("Could not restrict the working tree: " + e.getMessage(), e);
+                }
+                finally {
+                        addCommandTime(start);
+                }
+
+                log(String.format("Checked out %d files, %d files left out of the working tree.",
+                                  sparseCheckout.getWrittenCount(), sparseCheckout.getSkippedCount()), Project.MSG_VERBOSE);
+        }
+
 }
@@ -15,6 +15,7 @@
  */
 package com.rimerosolutions.ant.git.tasks;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
@@ -23,6 +24,8 @@ import org.eclipse.jgit.api.CleanCommand;
 
 import com.rimerosolutions.ant.git.AbstractGitRepoAwareTask;
 import com.rimerosolutions.ant.git.GitBuildException;
+import com.rimerosolutions.ant.git.GitUntrackedCache;
+import com.rimerosolutions.ant.git.ParallelStatusScanner;
 
 /**
  * Git clean.
@@ -35,6 +38,15 @@ import com.rimerosolutions.ant.git.GitBuildException;
  * </git:git>
  * }</pre>
  *
+ * <p>With the untracked cache of the repository, the clean is skipped without a full status computation
+ * when the cache shows that no untracked file exists. Untracked empty folders are then left in place.</p>
+ *
+ * <pre>{@code
+ * <git:git directory="${testLocalRepo}">
+ *   <git:clean untrackedCache="true"/>
+ * </git:git>
+ * }</pre>
+ *
  * <p><a href="http://www.kernel.org/pub/software/scm/git/docs/git-clean.html">Git documentation about clean</a></p>
  * <p><a href="http://download.eclipse.org/jgit/docs/latest/apidocs/org/eclipse/jgit/api/CleanCommand.html">JGit CleanCommand</a></p>
  *
@@ -44,6 +56,7 @@ public class CleanTask extends AbstractGitRepoAwareTask {
         private boolean dryRun = false;
         private boolean cleanDirectories = true;
         private boolean ignore = true;
+        private boolean untrackedCache = false;
         private Set<String> pathList = new HashSet<String>();
         private static final String TASK_NAME = "git-clean";
 
@@ -95,9 +108,26 @@ public class CleanTask extends AbstractGitRepoAwareTask {
                 this.dryRun = dryRun;
         }
 
+        /**
+         * Whether or not to use the untracked cache of the repository to find out whether there is anything to clean.
+         * Only applies when ignored files are kept.
+         *
+         * @antdoc.notrequired
+         * @param untrackedCache Use the untracked cache? (Default false)
+         */
+        public void setUntrackedCache(boolean untrackedCache) {
+                this.untrackedCache = untrackedCache;
+        }
+
         @Override
         public void doExecute() {
                 try {
+                        if (untrackedCache && ignore && !hasUntrackedFiles()) {
+                                log("Nothing to clean.");
+
+                                return;
+                        }
+
                         CleanCommand cleanCommand = git.clean();
 
                         if (!pathList.isEmpty()) {
@@ -106,11 +136,22 @@ public class CleanTask extends AbstractGitRepoAwareTask {
 
                         cleanCommand.setDryRun(dryRun).
                                 setIgnore(ignore).
-                                setCleanDirectories(cleanDirectories).
-                                call();
+                                setCleanDirectories(cleanDirectories);
+
+                        callCommand(cleanCommand);
                 } catch (Exception e) {
                         throw new GitBuildException("Unexpected exception: " + e.getMessage(), e);
                 }
         }
 
+        private boolean hasUntrackedFiles() throws IOException {
+                long start = System.nanoTime();
+                ParallelStatusScanner scanner = new ParallelStatusScanner(git.getRepository(), 1);
+                scanner.setUntrackedCache(GitUntrackedCache.load(git.getRepository()));
+                boolean untrackedFilesFound = !scanner.scan().getUntracked().isEmpty();
+                addCommandTime(start);
+
+                return untrackedFilesFound;
+        }
+
 }
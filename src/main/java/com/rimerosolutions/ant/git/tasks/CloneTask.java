@@ -15,14 +15,50 @@
  */
 package com.rimerosolutions.ant.git.tasks;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
 import org.eclipse.jgit.api.CloneCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.SubmoduleInitCommand;
+import org.eclipse.jgit.api.TransportConfigCallback;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.internal.storage.pack.PackWriter;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.util.FileUtils;
 
 import com.rimerosolutions.ant.git.AbstractGitTask;
 import com.rimerosolutions.ant.git.GitBuildException;
+import com.rimerosolutions.ant.git.GitMirrorCache;
+import com.rimerosolutions.ant.git.GitObjectsLinker;
+import com.rimerosolutions.ant.git.GitSettings;
+import com.rimerosolutions.ant.git.GitSparseCheckout;
+import com.rimerosolutions.ant.git.GitSubmoduleUpdater;
+import com.rimerosolutions.ant.git.GitTaskTiming;
+import com.rimerosolutions.ant.git.GitTaskUtils;
 
 /**
  * Clone a repository.
@@ -32,6 +68,59 @@ import com.rimerosolutions.ant.git.GitBuildException;
  *    <git:clone uri="file://${testLocalRepo}/.git" directory="${testLocalRepoClone}"/>
  *  </git:git>}</pre>
  *
+ * <p>With a <code>timeout</code> or an <code>idleTimeout</code>, a stalled clone is cancelled
+ * and the files of the partial clone are removed.</p>
+ *
+ * <pre>{@code
+ *  <git:git directory="${testLocalRepoClone}">
+ *    <git:clone uri="https://github.com/rimerosolutions/ant-git-tasks.git" timeout="600" idleTimeout="60"/>
+ *  </git:git>}</pre>
+ *
+ * <p>With a <code>reference</code> repository, the objects of a local mirror are borrowed through
+ * <code>objects/info/alternates</code> and only the missing objects are downloaded. The clone can then
+ * be made independent of the mirror with <code>dissociate</code>, which copies the borrowed objects to a pack of the clone
+ * reusing the deltas of the reference repository.</p>
+ *
+ * <pre>{@code
+ *  <git:git directory="${testLocalRepoClone}">
+ *    <git:clone uri="https://github.com/rimerosolutions/ant-git-tasks.git" reference="/var/cache/git/ant-git-tasks.git"/>
+ *  </git:git>}</pre>
+ *
+ * <p>With <code>hardLinks="true"</code>, the object files of a repository cloned from a plain local path are hard linked
+ * instead of being transferred. As with Git, <code>file</code> URIs always go through the transport and the objects
+ * are transferred when both repositories are on different file systems.</p>
+ *
+ * <pre>{@code
+ *  <git:git directory="${testLocalRepoClone}">
+ *    <git:clone uri="${testLocalRepo}" hardLinks="true"/>
+ *  </git:git>}</pre>
+ *
+ * <p>With a <code>cacheDir</code>, a bare mirror of the remote repository is kept in the cache folder and updated
+ * before each clone, only the new objects are downloaded. The clone is made from the mirror and its <code>origin</code>
+ * remote points back to the remote repository. Mirrors are evicted once unused for <code>cacheMaxIdleDays</code>
+ * or when the cache exceeds <code>cacheMaxSize</code> megabytes.</p>
+ *
+ * <pre>{@code
+ *  <git:git directory="${testLocalRepoClone}">
+ *    <git:clone uri="https://github.com/rimerosolutions/ant-git-tasks.git" cacheDir="${user.home}/.cache/git-mirrors" cacheMaxSize="4096"/>
+ *  </git:git>}</pre>
+ *
+ * <p>With <code>includes</code> or <code>excludes</code> patterns, only the matching files are written to the working tree,
+ * the other files are flagged <code>skip-worktree</code> in the index.</p>
+ *
+ * <pre>{@code
+ *  <git:git directory="${testLocalRepoClone}">
+ *    <git:clone uri="https://github.com/rimerosolutions/ant-git-tasks.git" includes="src/main/**, build.xml"/>
+ *  </git:git>}</pre>
+ *
+ * <p>Sub-modules are cloned once the repository is checked out, <code>submoduleThreads</code> sub-modules at a time,
+ * with the credentials of the task settings. Nested sub-modules are cloned as well.</p>
+ *
+ * <pre>{@code
+ *  <git:git directory="${testLocalRepoClone}" settingsRef="git.testing">
+ *    <git:clone uri="https://github.com/rimerosolutions/ant-git-tasks.git" submoduleThreads="4"/>
+ *  </git:git>}</pre>
+ *
  * <p><a href="http://www.kernel.org/pub/software/scm/git/docs/git-clone.html">Git documentation about clone</a></p>
  * <p><a href="http://download.eclipse.org/jgit/docs/latest/apidocs/org/eclipse/jgit/api/CloneCommand.html">JGit CloneCommand</a></p>
  *
@@ -42,16 +131,32 @@ public class CloneTask extends AbstractGitTask {
         private String branchToTrack;
         private boolean bare = false;
         private boolean cloneSubModules = true;
+        private int submoduleThreads = 1;
         private boolean cloneAllBranches = false;
         private boolean noCheckout = false;
         private List<String> branchNames = new ArrayList<String>();
+        private File reference;
+        private boolean dissociate = false;
+        private boolean hardLinks = false;
+        private File cacheDir;
+        private long cacheMaxSize;
+        private int cacheMaxIdleDays;
+        private String includes;
+        private String excludes;
         private static final String TASK_NAME = "git-clone";
         private static final String MESSAGE_CLONE_FAILED = "Could not clone URL '%s'.";
+        private static final String ALTERNATES_FILE = "objects/info/alternates";
+        private static final String OBJECTS_FOLDER = "objects";
 
         @Override
         public String getName() {
                 return TASK_NAME;
         }
+
+        @Override
+        protected boolean usesNetwork() {
+                return true;
+        }
         
         /**
          * Sets the branch names to clone
@@ -94,6 +199,20 @@ public class CloneTask extends AbstractGitTask {
                 this.cloneSubModules = cloneSubModules;
         }
 
+        /**
+         * Sets the number of sub-modules cloned at a time
+         *
+         * @antdoc.notrequired
+         * @param submoduleThreads The number of threads cloning sub-modules (Default 1)
+         */
+        public void setSubmoduleThreads(int submoduleThreads) {
+                if (submoduleThreads < 1) {
+                        throw new BuildException("The number of threads must be at least 1.");
+                }
+
+                this.submoduleThreads = submoduleThreads;
+        }
+
         /**
          * Whether or not to clone all branches
          *
@@ -114,37 +233,516 @@ public class CloneTask extends AbstractGitTask {
                 this.noCheckout = noCheckout;
         }
 
+        /**
+         * Sets a local repository sharing its objects with the clone, only the objects missing from it are downloaded
+         *
+         * @antdoc.notrequired
+         * @param reference The reference repository, bare or not
+         */
+        public void setReference(File reference) {
+                this.reference = reference;
+        }
+
+        /**
+         * Sets whether or not the objects borrowed from the reference repository are copied to the clone once it's done
+         *
+         * @antdoc.notrequired
+         * @param dissociate Whether or not to stop using the reference repository after the clone (Default false)
+         */
+        public void setDissociate(boolean dissociate) {
+                this.dissociate = dissociate;
+        }
+
+        /**
+         * Sets whether or not the object files of a repository cloned from a plain local path are hard linked instead of being transferred
+         *
+         * @antdoc.notrequired
+         * @param hardLinks Whether or not to hard link the objects of local repositories (Default false)
+         */
+        public void setHardLinks(boolean hardLinks) {
+                this.hardLinks = hardLinks;
+        }
+
+        /**
+         * Sets the folder of the mirror cache, the repository is cloned from a local mirror updated beforehand
+         *
+         * @antdoc.notrequired
+         * @param cacheDir The folder holding the mirrors of remote repositories
+         */
+        public void setCacheDir(File cacheDir) {
+                this.cacheDir = cacheDir;
+        }
+
+        /**
+         * Sets the maximum size of the mirror cache, the least recently used mirrors are evicted first
+         *
+         * @antdoc.notrequired
+         * @param cacheMaxSize The maximum size in megabytes (Default 0, no limit)
+         */
+        public void setCacheMaxSize(long cacheMaxSize) {
+                this.cacheMaxSize = cacheMaxSize;
+        }
+
+        /**
+         * Sets the number of days after which an unused mirror is evicted from the cache
+         *
+         * @antdoc.notrequired
+         * @param cacheMaxIdleDays The maximum idle time in days (Default 0, no limit)
+         */
+        public void setCacheMaxIdleDays(int cacheMaxIdleDays) {
+                this.cacheMaxIdleDays = cacheMaxIdleDays;
+        }
+
+        /**
+         * Restricts the working tree to the files matching some patterns (comma or space separated Ant patterns, relative to the repository root)
+         *
+         * @antdoc.notrequired
+         * @param includes The include patterns
+         */
+        public void setIncludes(String includes) {
+                this.includes = includes;
+        }
+
+        /**
+         * Leaves the files matching some patterns out of the working tree (comma or space separated Ant patterns, relative to the repository root)
+         *
+         * @antdoc.notrequired
+         * @param excludes The exclude patterns
+         */
+        public void setExcludes(String excludes) {
+                this.excludes = excludes;
+        }
+
         @Override
         public void execute() {
+                boolean newDirectory = isEmptyDirectory(getDirectory());
+                GitTaskTiming timing = startTiming();
+
                 try {
-                        CloneCommand cloneCommand = new CloneCommand();
+                        GitMirrorCache mirrorCache = null;
+                        GitMirrorCache.Mirror mirror = null;
 
-                        if (branchToTrack != null) {
-                                cloneCommand.setBranch(branchToTrack);
+                        if (cacheDir != null) {
+                                mirrorCache = new GitMirrorCache(cacheDir);
+                                mirrorCache.setMaxSize(cacheMaxSize * 1024 * 1024);
+                                mirrorCache.setMaxIdleTime(TimeUnit.DAYS.toMillis(cacheMaxIdleDays));
+                                mirror = fetchMirror(mirrorCache, getUri());
                         }
 
-                        if (!branchNames.isEmpty()) {
-                                cloneCommand.setBranchesToClone(branchNames);
+                        boolean sparse = !bare && !noCheckout && (includes != null || excludes != null);
+                        Git git;
+
+                        try {
+                                CloneCommand cloneCommand = newCloneCommand((mirror == null) ? getUri() : mirror.getDirectory().getPath());
+                                git = callCommand(cloneCommand.setNoCheckout(noCheckout || sparse));
+                        }
+                        finally {
+                                if (mirror != null) {
+                                        releaseMirror(mirrorCache, mirror);
+                                }
                         }
 
-                        cloneCommand.setURI(getUri()).
-                                setBare(bare).
-                                setCloneAllBranches(cloneAllBranches).
-                                setCloneSubmodules(cloneSubModules).
-                                setNoCheckout(noCheckout).
-                                setDirectory(getDirectory());
+                        try {
+                                List<String> submodulePaths = null;
 
-                        setupCredentials(cloneCommand);
+                                if (mirror != null) {
+                                        restoreRemoteUri(git.getRepository());
+                                }
 
-                        if (getProgressMonitor() != null) {
-                                cloneCommand.setProgressMonitor(getProgressMonitor());
-                        }
+                                if (sparse) {
+                                        submodulePaths = sparseCheckout(git.getRepository());
+                                }
 
-                        cloneCommand.call();
+                                if (cloneSubModules && !bare && !noCheckout) {
+                                        cloneSubmodules(git.getRepository(), submodulePaths);
+                                }
+
+                                if (reference != null && dissociate) {
+                                        dissociate(git.getRepository());
+                                }
+                        }
+                        finally {
+                                git.getRepository().close();
+                        }
                 }
                 catch (Exception e) {
+                        GitBuildException cancellation = cancellationFailure(e);
+
+                        if (cancellation != null) {
+                                if (newDirectory) {
+                                        deletePartialClone();
+                                }
+
+                                throw cancellation;
+                        }
+
                         throw new GitBuildException(String.format(MESSAGE_CLONE_FAILED, getUri()), e);
                 }
+                finally {
+                        flushProgressMonitor();
+                        finishTiming(timing);
+                }
+        }
+
+        private CloneCommand newCloneCommand(String sourceUri) throws URISyntaxException, IOException {
+                CloneCommand cloneCommand = new CloneCommand();
+
+                final File referenceObjects = (reference == null) ? null : findObjectsDirectory(reference);
+                final File localObjects = (reference == null && hardLinks) ? findLocalObjects(sourceUri) : null;
+
+                if (reference != null && referenceObjects == null) {
+                        throw new GitBuildException(String.format("The reference '%s' is not a Git repository.", reference));
+                }
+
+                if (referenceObjects != null || localObjects != null) {
+                        cloneCommand.setTransportConfigCallback(new TransportConfigCallback() {
+                                        @Override
+                                        public void configure(Transport transport) {
+                                                if (referenceObjects != null) {
+                                                        addAlternate(referenceObjects);
+                                                }
+                                                else {
+                                                        linkObjects(localObjects);
+                                                }
+                                        }
+                                });
+                }
+
+                if (branchToTrack != null) {
+                        cloneCommand.setBranch(branchToTrack);
+                }
+
+                if (!branchNames.isEmpty()) {
+                        cloneCommand.setBranchesToClone(branchNames);
+                }
+
+                cloneCommand.setURI(sourceUri).
+                        setBare(bare).
+                        setCloneAllBranches(cloneAllBranches).
+                        setCloneSubmodules(false).
+                        setNoCheckout(noCheckout).
+                        setDirectory(getDirectory());
+
+                setupCredentials(cloneCommand);
+                setupTimeouts(cloneCommand);
+
+                if (getProgressMonitor() != null) {
+                        cloneCommand.setProgressMonitor(getProgressMonitor());
+                }
+
+                return cloneCommand;
+        }
+
+        /**
+         * Points the origin remote of a clone made from a mirror back to the remote repository
+         */
+        private void restoreRemoteUri(Repository repository) throws IOException {
+                StoredConfig config = repository.getConfig();
+                config.setString(ConfigConstants.CONFIG_REMOTE_SECTION, Constants.DEFAULT_REMOTE_NAME, ConfigConstants.CONFIG_KEY_URL, getUri());
+                config.save();
+        }
+
+        /**
+         * Writes the files matching the patterns to the working tree of a clone made without checkout,
+         * once HEAD points to the cloned branch
+         *
+         * @return The paths of the sub-modules matching the patterns
+         */
+        private List<String> sparseCheckout(Repository repository) throws IOException {
+                long start = System.nanoTime();
+                GitSparseCheckout sparseCheckout = new GitSparseCheckout(repository, GitTaskUtils.splitPatterns(includes), GitTaskUtils.splitPatterns(excludes));
+
+                try {
+                        GitSparseCheckout.linkClonedHead(repository, Constants.DEFAULT_REMOTE_NAME, branchToTrack);
+                        sparseCheckout.apply();
+                }
+                finally {
+                        addCommandTime(start);
+                }
+
+                log(String.format("Checked out %d files, %d files left out of the working tree.",
+                                  sparseCheckout.getWrittenCount(), sparseCheckout.getSkippedCount()), Project.MSG_VERBOSE);
+
+                return sparseCheckout.getSubmodulePaths();
+        }
+
+        /**
+         * Clones the sub-modules once the repository is checked out, relative sub-module URLs resolve against the remote
+         * repository of a clone made from a mirror. Only the sub-modules matching the patterns of a sparse clone are cloned.
+         *
+         * @param paths The sub-module paths, all the sub-modules if null
+         */
+        private void cloneSubmodules(Repository repository, List<String> paths) throws GitAPIException, IOException {
+                if (paths != null && paths.isEmpty()) {
+                        return;
+                }
+
+                SubmoduleInitCommand initCommand = new SubmoduleInitCommand(repository);
+                GitSubmoduleUpdater updater = new GitSubmoduleUpdater(repository, submoduleThreads);
+
+                if (paths != null) {
+                        for (String path : paths) {
+                                initCommand.addPath(path);
+                                updater.addPath(path);
+                        }
+                }
+
+                callCommand(initCommand);
+
+                GitSettings settings = lookupSettings();
+
+                if (settings != null) {
+                        updater.setCredentialsProvider(settings.getCredentials());
+                }
+
+                updater.setTimeout(getTransportTimeout());
+                updater.setRecursive(true);
+                long start = System.nanoTime();
+
+                try {
+                        List<String> clonedPaths = updater.update();
+                        log(String.format("Cloned %d sub-modules.", clonedPaths.size()), Project.MSG_VERBOSE);
+                }
+                finally {
+                        addCommandTime(start);
+                }
+        }
+
+        /**
+         * Copies the objects borrowed from the reference repository to a pack of the clone, and stops using the reference repository.
+         * Objects reachable from the references of the clone are written to the pack if the clone doesn't store them.
+         */
+        private void dissociate(Repository repository) throws IOException {
+                long start = System.nanoTime();
+                File alternates = new File(repository.getDirectory(), ALTERNATES_FILE);
+                File disabledAlternates = new File(alternates.getPath() + ".dissociating");
+
+                if (!alternates.renameTo(disabledAlternates)) {
+                        throw new IOException(String.format("Cannot disable '%s'.", alternates));
+                }
+
+                boolean copied = false;
+                Repository localRepository = new RepositoryBuilder().setGitDir(repository.getDirectory()).build();
+
+                try {
+                        copyBorrowedObjects(repository, localRepository);
+                        copied = true;
+                }
+                finally {
+                        localRepository.close();
+
+                        if (copied) {
+                                disabledAlternates.delete();
+                        }
+                        else {
+                                disabledAlternates.renameTo(alternates);
+                        }
+
+                        addCommandTime(start);
+                }
+        }
+
+        /**
+         * Writes the objects that the clone doesn't store to a new pack, the deltas and the compressed objects of the reference
+         * repository are reused and the other objects are delta compressed against each other.
+         */
+        private void copyBorrowedObjects(Repository repository, Repository localRepository) throws IOException {
+                ObjectWalk walk = new ObjectWalk(repository);
+                ObjectReader reader = localRepository.newObjectReader();
+                List<RevObject> borrowedObjects = new ArrayList<RevObject>();
+
+                try {
+                        for (Ref ref : repository.getAllRefs().values()) {
+                                if (ref.getObjectId() != null) {
+                                        walk.markStart(walk.parseAny(ref.getObjectId()));
+                                }
+                        }
+
+                        RevObject object;
+
+                        while ((object = walk.next()) != null) {
+                                if (!reader.has(object)) {
+                                        borrowedObjects.add(object);
+                                }
+                        }
+
+                        while ((object = walk.nextObject()) != null) {
+                                if (!reader.has(object)) {
+                                        borrowedObjects.add(object);
+                                }
+                        }
+
+                        if (borrowedObjects.isEmpty()) {
+                                return;
+                        }
+
+                        writePack(repository, localRepository, borrowedObjects);
+                        log(String.format("Copied %d objects of the reference repository.", borrowedObjects.size()), Project.MSG_VERBOSE);
+                }
+                finally {
+                        walk.release();
+                        reader.release();
+                }
+        }
+
+        private void writePack(Repository repository, Repository localRepository, List<RevObject> objects) throws IOException {
+                PackConfig packConfig = new PackConfig(repository);
+                packConfig.setReuseObjects(true);
+                packConfig.setReuseDeltas(true);
+                packConfig.setDeltaCompress(true);
+
+                ProgressMonitor monitor = (getProgressMonitor() == null) ? NullProgressMonitor.INSTANCE : getProgressMonitor();
+                File packFolder = new File(localRepository.getDirectory(), "objects/pack");
+                packFolder.mkdirs();
+                File tmpPack = File.createTempFile("incoming_", ".pack", packFolder);
+                File tmpIndex = new File(tmpPack.getPath().replaceFirst("\\.pack$", ".idx"));
+                ObjectReader packReader = repository.newObjectReader();
+                PackWriter packWriter = new PackWriter(packConfig, packReader);
+
+                try {
+                        packWriter.setDeltaBaseAsOffset(true);
+                        packWriter.preparePack(objects.iterator());
+
+                        OutputStream packOut = new BufferedOutputStream(new FileOutputStream(tmpPack));
+
+                        try {
+                                packWriter.writePack(monitor, monitor, packOut);
+                        }
+                        finally {
+                                packOut.close();
+                        }
+
+                        OutputStream indexOut = new BufferedOutputStream(new FileOutputStream(tmpIndex));
+
+                        try {
+                                packWriter.writeIndex(indexOut);
+                        }
+                        finally {
+                                indexOut.close();
+                        }
+
+                        String packName = "pack-" + packWriter.computeName().name();
+                        File pack = new File(packFolder, packName + ".pack");
+                        File index = new File(packFolder, packName + ".idx");
+
+                        if (!pack.exists() && (!tmpPack.renameTo(pack) || !tmpIndex.renameTo(index))) {
+                                pack.delete();
+
+                                throw new IOException(String.format("Cannot move the pack '%s' to the folder '%s'.", tmpPack, packFolder));
+                        }
+                }
+                finally {
+                        tmpPack.delete();
+                        tmpIndex.delete();
+                        packWriter.release();
+                        packReader.release();
+                }
+        }
+
+        /**
+         * Registers the objects of the reference repository in the alternates of the repository being cloned.
+         * The transport is configured once the repository is created, before any object is fetched.
+         */
+        private void addAlternate(File referenceObjects) {
+                File alternates = new File(getGitDir(), ALTERNATES_FILE);
+
+                try {
+                        alternates.getParentFile().mkdirs();
+                        OutputStream out = new FileOutputStream(alternates);
+
+                        try {
+                                out.write(Constants.encode(referenceObjects.getPath() + "\n"));
+                        }
+                        finally {
+                                out.close();
+                        }
+                }
+                catch (IOException e) {
+                        throw new GitBuildException(String.format("Cannot write '%s'.", alternates), e);
+                }
+        }
+
+        /**
+         * Hard links the object files of a local repository in the repository being cloned, the objects
+         * found locally are not transferred. Nothing is linked when the repositories are on different file systems.
+         */
+        private void linkObjects(File localObjects) {
+                GitObjectsLinker linker = new GitObjectsLinker(localObjects, new File(getGitDir(), OBJECTS_FOLDER));
+
+                try {
+                        if (!linker.canLink()) {
+                                log(String.format("'%s' is on another file system, the objects are transferred.", localObjects), Project.MSG_VERBOSE);
+
+                                return;
+                        }
+
+                        int count = linker.link();
+                        log(String.format("Linked %d object files of '%s'.", count, localObjects), Project.MSG_VERBOSE);
+                }
+                catch (IOException e) {
+                        log(String.format("Could not link the objects of '%s', they are transferred: %s", localObjects, e.getMessage()), Project.MSG_VERBOSE);
+                }
+        }
+
+        private File getGitDir() {
+                return bare ? getDirectory() : new File(getDirectory(), Constants.DOT_GIT);
+        }
+
+        /**
+         * Finds the objects of the repository at a plain local path, URIs and shallow repositories are ignored
+         *
+         * @return The objects folder or null if the URI isn't a local repository
+         */
+        private static File findLocalObjects(String uri) throws URISyntaxException, IOException {
+                URIish uriish = new URIish(uri);
+
+                if (uriish.getHost() != null || uriish.getScheme() != null) {
+                        return null;
+                }
+
+                File objects = findObjectsDirectory(new File(uriish.getPath()));
+
+                if (objects == null || new File(objects.getParentFile(), "shallow").exists()) {
+                        return null;
+                }
+
+                return objects;
+        }
+
+        private static File findObjectsDirectory(File repository) throws IOException {
+                File objects = new File(repository, OBJECTS_FOLDER);
+
+                if (!objects.isDirectory()) {
+                        objects = new File(new File(repository, Constants.DOT_GIT), OBJECTS_FOLDER);
+                }
+
+                return objects.isDirectory() ? objects.getCanonicalFile() : null;
+        }
+
+        private static boolean isEmptyDirectory(File dir) {
+                String[] children = dir.list();
+
+                return children == null || children.length == 0;
+        }
+
+        /**
+         * Removes the files of a cancelled clone, the directory is left empty
+         */
+        private void deletePartialClone() {
+                File[] children = getDirectory().listFiles();
+
+                if (children == null) {
+                        return;
+                }
+
+                for (File child : children) {
+                        try {
+                                FileUtils.delete(child, FileUtils.RECURSIVE | FileUtils.RETRY | FileUtils.SKIP_MISSING);
+                        }
+                        catch (IOException e) {
+                                log(String.format("Could not delete %s: %s", child, e.getMessage()), Project.MSG_WARN);
+                        }
+                }
         }
 
 }
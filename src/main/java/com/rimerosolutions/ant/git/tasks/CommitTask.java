@@ -16,6 +16,7 @@
 package com.rimerosolutions.ant.git.tasks;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.types.FileSet;
@@ -28,8 +29,11 @@ import org.eclipse.jgit.revwalk.RevCommit;
 import com.rimerosolutions.ant.git.AbstractGitRepoAwareTask;
 import com.rimerosolutions.ant.git.GitBuildException;
 import com.rimerosolutions.ant.git.GitSettings;
+import com.rimerosolutions.ant.git.GitSparseCheckout;
 import com.rimerosolutions.ant.git.GitTaskUtils;
 import com.rimerosolutions.ant.git.MissingRequiredGitSettingsException;
+import com.rimerosolutions.ant.git.ParallelStager;
+import com.rimerosolutions.ant.git.PathspecCompiler;
 
 /**
  * Commits all local changes.
@@ -111,6 +115,7 @@ public class CommitTask extends AbstractGitRepoAwareTask {
                 try {
                         setFailOnError(true);
                         CommitCommand cmd = git.commit();
+                        boolean stageAll = false;
 
                         if (!GitTaskUtils.isNullOrBlankString(message)) {
                                 cmd.setMessage(brandedMessage ? GitTaskUtils.BRANDING_MESSAGE + " " + message : message);
@@ -119,21 +124,18 @@ public class CommitTask extends AbstractGitRepoAwareTask {
                                 cmd.setMessage(GitTaskUtils.BRANDING_MESSAGE);
                         }
 
-                        String prefix = getDirectory().getCanonicalPath();
-                        String[] allFiles = getPath().list();
-
                         if (!GitTaskUtils.isNullOrBlankString(only)) {
                                 cmd.setOnly(only);
                         }
-                        else if (allFiles.length > 0) {
-                                for (String file : allFiles) {
-                                        String modifiedFile = translateFilePathUsingPrefix(file, prefix);
-                                        log("Will commit " + modifiedFile);
-                                        cmd.setOnly(modifiedFile);
-                                }
-                        }
                         else {
-                                cmd.setAll(true);
+                                List<String> pathspecs = new PathspecCompiler(git.getRepository()).compile(getPath());
+
+                                stageAll = pathspecs.isEmpty();
+
+                                for (String pathspec : pathspecs) {
+                                        log("Will commit " + pathspec);
+                                        cmd.setOnly(pathspec);
+                                }
                         }
 
                         GitSettings gitSettings = lookupSettings();
@@ -148,11 +150,18 @@ public class CommitTask extends AbstractGitRepoAwareTask {
                                 cmd.setReflogComment(reflogComment);
                         }
 
-                        RevCommit revCommit = cmd.call();
+                        if (stageAll && GitSparseCheckout.hasSkippedEntries(git.getRepository())) {
+                                stageTrackedFiles();
+                        }
+                        else if (stageAll) {
+                                cmd.setAll(true);
+                        }
+
+                        RevCommit revCommit = callCommand(cmd);
 
                         if (revCommitIdProperty != null) {
                                 String revisionId = ObjectId.toString(revCommit.getId());
-                                getProject().setProperty(revCommitIdProperty, revisionId);
+                                setProjectProperty(revCommitIdProperty, revisionId);
                         }
 
                         log(revCommit.getFullMessage());
@@ -163,6 +172,23 @@ public class CommitTask extends AbstractGitRepoAwareTask {
                 }
         }
 
+        /**
+         * Stages the changes of the tracked files, the JGit commit command would stage the deletion of the files left out of a sparse checkout
+         */
+        private void stageTrackedFiles() throws IOException {
+                long start = System.nanoTime();
+                ParallelStager stager = new ParallelStager(git.getRepository(), 1);
+                stager.setUpdate(true);
+                stager.addFilepattern(".");
+
+                try {
+                        stager.stage();
+                }
+                finally {
+                        addCommandTime(start);
+                }
+        }
+
         /**
          * Used to amend the tip of the current branch.
          *
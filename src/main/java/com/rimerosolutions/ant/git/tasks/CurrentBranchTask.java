@@ -45,6 +45,11 @@ public class CurrentBranchTask extends AbstractGitRepoAwareTask {
                 return TASK_NAME;
         }
 
+        @Override
+        public boolean isReadOnly() {
+                return true;
+        }
+
         /**
          * Sets the output property name
          *
@@ -58,7 +63,7 @@ public class CurrentBranchTask extends AbstractGitRepoAwareTask {
         @Override
         protected void doExecute() {
                 try {
-                        getProject().setProperty(outputProperty, git.getRepository().getBranch());
+                        setProjectProperty(outputProperty, git.getRepository().getBranch());
                 } catch (IOException e) {
                         throw new GitBuildException("Could not query the current branch.", e);
                 }
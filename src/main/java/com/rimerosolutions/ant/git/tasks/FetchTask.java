@@ -15,42 +15,91 @@
  */
 package com.rimerosolutions.ant.git.tasks;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
 import org.eclipse.jgit.api.FetchCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.InvalidRemoteException;
 import org.eclipse.jgit.api.errors.TransportException;
 import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.transport.FetchResult;
 import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.TrackingRefUpdate;
 import org.eclipse.jgit.transport.URIish;
 
-import com.rimerosolutions.ant.git.AbstractGitRepoAwareTask;
+import com.rimerosolutions.ant.git.AbstractAsyncGitTask;
 import com.rimerosolutions.ant.git.GitBuildException;
+import com.rimerosolutions.ant.git.GitMirrorCache;
 import com.rimerosolutions.ant.git.GitTaskUtils;
 
 /**
  * Fetch remote repository data.
  *
+ * <p>With <code>async="true"</code>, the fetch runs in the background until joined with an <code>await</code> task:</p>
+ *
+ * <pre>{@code
+ * <git:git directory="${testLocalRepoClient}" settingsRef="git.testing">
+ *   <git:fetch uri="file://${testLocalRepo}" async="true" id="f1"/>
+ * </git:git>
+ *
+ * <javac srcdir="src" destdir="classes"/>
+ *
+ * <git:await id="f1"/>}</pre>
+ *
+ * <p>With a <code>cacheDir</code>, a bare mirror of the remote repository kept in the cache folder is updated first,
+ * then the repository fetches from the mirror. Mirrors are shared with the <code>clone</code> task.</p>
+ *
+ * <pre>{@code
+ * <git:git directory="${testLocalRepoClient}" settingsRef="git.testing">
+ *   <git:fetch uri="https://github.com/rimerosolutions/ant-git-tasks.git" cacheDir="${user.home}/.cache/git-mirrors"/>
+ * </git:git>}</pre>
+ *
+ * <p>With <code>remotes</code>, several configured remotes are fetched concurrently, each one with its own refspecs
+ * and progress reporting. The build waits for the slowest remote and the updated references of all remotes are merged.
+ * Use <code>remotes="*"</code> to fetch all the configured remotes.</p>
+ *
+ * <pre>{@code
+ * <git:git directory="${testLocalRepoClient}" settingsRef="git.testing" verbose="true">
+ *   <git:fetch remotes="origin, upstream, mirror" updatedRefsProperty="fetch.updated"/>
+ * </git:git>}</pre>
+ *
  * <p><a href="http://www.kernel.org/pub/software/scm/git/docs/git-fetch.html">Git documentation about fetch</a></p>
  * <p><a href="http://download.eclipse.org/jgit/docs/latest/apidocs/org/eclipse/jgit/api/FetchCommand.html">JGit FetchCommand</a></p>
  *
  * @author Yves Zoundi
  */
-public class FetchTask extends AbstractGitRepoAwareTask {
+public class FetchTask extends AbstractAsyncGitTask {
 
         private boolean dryRun = false;
         private String remoteRefSpec = "+" + Constants.R_HEADS + "*:" + Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/*";
         private boolean removeDeletedRefs = true;
         private boolean thinPack = true;
         private boolean defaultRefSpecs = true;
+        private String updatedRefsProperty;
+        private File cacheDir;
+        private long cacheMaxSize;
+        private int cacheMaxIdleDays;
+        private String remotes;
+        private FutureTask<List<FetchResult>> backgroundFetch;
         private static final String TASK_NAME = "git-fetch";
         private static final String FETCH_FAILED_MESSAGE = "Fetch failed";
 
@@ -59,6 +108,11 @@ public class FetchTask extends AbstractGitRepoAwareTask {
                 return TASK_NAME;
         }
 
+        @Override
+        protected boolean usesNetwork() {
+                return true;
+        }
+
         /**
          * Sets the thin-pack preference for fetch operation.
          *
@@ -112,8 +166,73 @@ public class FetchTask extends AbstractGitRepoAwareTask {
                 this.defaultRefSpecs  = defaultRefSpecs;
         }
 
+        /**
+         * Sets a property holding the comma-separated list of updated local references
+         *
+         * @antdoc.notrequired
+         * @param updatedRefsProperty The property name
+         */
+        public void setUpdatedRefsProperty(String updatedRefsProperty) {
+                this.updatedRefsProperty = updatedRefsProperty;
+        }
+
+        /**
+         * Sets the folder of the mirror cache, the repository fetches from a local mirror updated beforehand
+         *
+         * @antdoc.notrequired
+         * @param cacheDir The folder holding the mirrors of remote repositories, requires the <code>uri</code> attribute
+         */
+        public void setCacheDir(File cacheDir) {
+                this.cacheDir = cacheDir;
+        }
+
+        /**
+         * Sets the maximum size of the mirror cache, the least recently used mirrors are evicted first
+         *
+         * @antdoc.notrequired
+         * @param cacheMaxSize The maximum size in megabytes (Default 0, no limit)
+         */
+        public void setCacheMaxSize(long cacheMaxSize) {
+                this.cacheMaxSize = cacheMaxSize;
+        }
+
+        /**
+         * Sets the number of days after which an unused mirror is evicted from the cache
+         *
+         * @antdoc.notrequired
+         * @param cacheMaxIdleDays The maximum idle time in days (Default 0, no limit)
+         */
+        public void setCacheMaxIdleDays(int cacheMaxIdleDays) {
+                this.cacheMaxIdleDays = cacheMaxIdleDays;
+        }
+
+        /**
+         * Sets the configured remotes to fetch concurrently instead of the task URI, with their own refspecs.
+         * The <code>remoteRefSpec</code> and <code>defaultRefSpecs</code> attributes are ignored.
+         *
+         * @antdoc.notrequired
+         * @param remotes Comma-separated list of remote names, or <code>*</code> for all the configured remotes
+         */
+        public void setRemotes(String remotes) {
+                this.remotes = remotes;
+        }
+
         @Override
         public void doExecute() {
+                if (!GitTaskUtils.isNullOrBlankString(remotes)) {
+                        if (cacheDir != null) {
+                                throw new BuildException("The mirror cache can only be used to fetch a single URI.");
+                        }
+
+                        doExecuteRemotes();
+
+                        return;
+                }
+
+                if (cacheDir != null && GitTaskUtils.isNullOrBlankString(getUri())) {
+                        throw new BuildException("The mirror cache requires the uri attribute to be set.");
+                }
+
                 try {
                         StoredConfig config = git.getRepository().getConfig();
                         List<RemoteConfig> remoteConfigs = RemoteConfig.getAllRemoteConfigs(config);
@@ -142,7 +261,7 @@ public class FetchTask extends AbstractGitRepoAwareTask {
                             specs.add(new RefSpec("+" + Constants.R_TAGS + "*:" + Constants.R_TAGS + "*"));
                         }
 
-                        FetchCommand fetchCommand = git.fetch().
+                        final FetchCommand fetchCommand = git.fetch().
                                 setDryRun(dryRun).
                                 setThin(thinPack).
                                 setRemote(getUri()).
@@ -150,17 +269,26 @@ public class FetchTask extends AbstractGitRepoAwareTask {
                                 setRemoveDeletedRefs(removeDeletedRefs);
 
                         setupCredentials(fetchCommand);
+                        setupTimeouts(fetchCommand);
 
                         if (getProgressMonitor() != null) {
                                 fetchCommand.setProgressMonitor(getProgressMonitor());
                         }
 
-                        FetchResult fetchResult = fetchCommand.call();
+                        if (isAsync()) {
+                                startBackgroundFetch(new Callable<List<FetchResult>>() {
+                                                @Override
+                                                public List<FetchResult> call() throws GitAPIException, IOException {
+                                                        return Collections.singletonList(fetch(fetchCommand));
+                                                }
+                                        });
 
-                        GitTaskUtils.validateTrackingRefUpdates(FETCH_FAILED_MESSAGE, fetchResult.getTrackingRefUpdates());
-
-                        log(fetchResult.getMessages());
+                                return;
+                        }
 
+                        FetchResult fetchResult = fetch(fetchCommand);
+                        GitTaskUtils.validateTrackingRefUpdates(FETCH_FAILED_MESSAGE, fetchResult.getTrackingRefUpdates());
+                        processFetchResults(Collections.singletonList(fetchResult));
                 }
                 catch (URISyntaxException e) {
                         throw new GitBuildException("Invalid URI syntax: " + e.getMessage(), e);
@@ -168,14 +296,314 @@ public class FetchTask extends AbstractGitRepoAwareTask {
                 catch (IOException e) {
                         throw new GitBuildException("Could not save or get repository configuration: " + e.getMessage(), e);
                 }
-                catch (InvalidRemoteException e) {
-                        throw new GitBuildException("Invalid remote URI: " + e.getMessage(), e);
+                catch (GitAPIException e) {
+                        throw fetchFailure(e);
                 }
-                catch (TransportException e) {
-                        throw new GitBuildException("Communication error: " + e.getMessage(), e);
+        }
+
+        private void doExecuteRemotes() {
+                final List<RemoteFetch> remoteFetches = new ArrayList<RemoteFetch>();
+
+                try {
+                        for (RemoteConfig remoteConfig : selectRemotes(git.getRepository().getConfig())) {
+                                FetchCommand fetchCommand = git.fetch().
+                                        setDryRun(dryRun).
+                                        setThin(thinPack).
+                                        setRemote(remoteConfig.getName()).
+                                        setRemoveDeletedRefs(removeDeletedRefs);
+
+                                setupCredentials(fetchCommand);
+                                setupTimeouts(fetchCommand);
+
+                                ProgressMonitor monitor = forkProgressMonitor(remoteConfig.getName());
+
+                                if (monitor != null) {
+                                        fetchCommand.setProgressMonitor(monitor);
+                                }
+
+                                remoteFetches.add(new RemoteFetch(remoteConfig.getName(), fetchCommand, monitor));
+                        }
                 }
-                catch (GitAPIException e) {
-                        throw new GitBuildException("Unexpected exception: " + e.getMessage(), e);
+                catch (URISyntaxException e) {
+                        throw new GitBuildException("Invalid URI syntax: " + e.getMessage(), e);
+                }
+
+                if (isAsync()) {
+                        startBackgroundFetch(new Callable<List<FetchResult>>() {
+                                        @Override
+                                        public List<FetchResult> call() {
+                                                return fetchRemotes(remoteFetches);
+                                        }
+                                });
+
+                        return;
+                }
+
+                long start = System.nanoTime();
+                List<FetchResult> fetchResults;
+
+                try {
+                        fetchResults = fetchRemotes(remoteFetches);
+                }
+                finally {
+                        addCommandTime(start);
+                }
+
+                processFetchResults(fetchResults);
+        }
+
+        /**
+         * Finds the remotes to fetch in the repository configuration
+         */
+        private List<RemoteConfig> selectRemotes(StoredConfig config) throws URISyntaxException {
+                List<RemoteConfig> remoteConfigs = RemoteConfig.getAllRemoteConfigs(config);
+
+                if ("*".equals(remotes.trim())) {
+                        if (remoteConfigs.isEmpty()) {
+                                throw new GitBuildException("No remote is configured.");
+                        }
+
+                        return remoteConfigs;
+                }
+
+                List<RemoteConfig> selectedRemotes = new ArrayList<RemoteConfig>();
+
+                for (String remote : remotes.split(",")) {
+                        RemoteConfig selectedRemote = null;
+
+                        for (RemoteConfig remoteConfig : remoteConfigs) {
+                                if (remoteConfig.getName().equals(remote.trim())) {
+                                        selectedRemote = remoteConfig;
+                                }
+                        }
+
+                        if (selectedRemote == null) {
+                                throw new GitBuildException(String.format("Unknown remote '%s'.", remote.trim()));
+                        }
+
+                        selectedRemotes.add(selectedRemote);
+                }
+
+                return selectedRemotes;
+        }
+
+        /**
+         * Fetches the remotes concurrently, one thread per remote. The reference updates of each remote are validated
+         * as soon as its fetch is done, all the remotes are fetched even if some of them fail.
+         */
+        private List<FetchResult> fetchRemotes(final List<RemoteFetch> remoteFetches) {
+                List<Callable<FetchResult>> fetches = new ArrayList<Callable<FetchResult>>(remoteFetches.size());
+
+                for (final RemoteFetch remoteFetch : remoteFetches) {
+                        fetches.add(new Callable<FetchResult>() {
+                                        @Override
+                                        public FetchResult call() {
+                                                try {
+                                                        FetchResult fetchResult = remoteFetch.command.call();
+                                                        GitTaskUtils.validateTrackingRefUpdates(String.format("Fetch from '%s' failed", remoteFetch.name),
+                                                                                                fetchResult.getTrackingRefUpdates());
+
+                                                        return fetchResult;
+                                                }
+                                                catch (GitAPIException e) {
+                                                        throw fetchFailure(remoteFetch.monitor, e);
+                                                }
+                                        }
+                                });
+                }
+
+                List<FetchResult> fetchResults = new ArrayList<FetchResult>(remoteFetches.size());
+                List<String> failedRemotes = new ArrayList<String>();
+                Exception failure = null;
+                ExecutorService executor = Executors.newFixedThreadPool(remoteFetches.size());
+
+                try {
+                        List<Future<FetchResult>> results = executor.invokeAll(fetches);
+
+                        for (int i = 0; i < results.size(); i++) {
+                                try {
+                                        fetchResults.add(results.get(i).get());
+                                }
+                                catch (ExecutionException e) {
+                                        Exception cause = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+                                        log(String.format("Could not fetch '%s': %s", remoteFetches.get(i).name, cause.getMessage()), Project.MSG_ERR);
+                                        failedRemotes.add(remoteFetches.get(i).name);
+
+                                        if (failure == null) {
+                                                failure = cause;
+                                        }
+                                }
+                        }
+                }
+                catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+
+                        throw new GitBuildException("Interrupted while fetching the remotes.", e);
+                }
+                finally {
+                        executor.shutdownNow();
+                }
+
+                if (failure != null) {
+                        StringBuilder sb = new StringBuilder();
+
+                        for (String failedRemote : failedRemotes) {
+                                if (sb.length() > 0) {
+                                        sb.append(", ");
+                                }
+
+                                sb.append(failedRemote);
+                        }
+
+                        throw new GitBuildException(String.format("Fetch failed for %d of %d remotes: %s.", failedRemotes.size(), remoteFetches.size(), sb), failure);
+                }
+
+                return fetchResults;
+        }
+
+        /**
+         * Runs the fetch in the background, with its own reference to the repository.
+         */
+        private void startBackgroundFetch(final Callable<List<FetchResult>> fetch) {
+                registerBackgroundTask();
+
+                final Repository repository = git.getRepository();
+                repository.incrementOpen();
+
+                backgroundFetch = new FutureTask<List<FetchResult>>(new Callable<List<FetchResult>>() {
+                                @Override
+                                public List<FetchResult> call() throws Exception {
+                                        try {
+                                                return fetch.call();
+                                        }
+                                        finally {
+                                                repository.close();
+                                        }
+                                }
+                        });
+
+                Thread fetchThread = new Thread(backgroundFetch, TASK_NAME + "-" + getId());
+                fetchThread.setDaemon(true);
+                fetchThread.start();
+
+                log(String.format("Fetching '%s' in the background.", getId()));
+        }
+
+        /**
+         * Fetches from the remote repository, or from its mirror once updated when a mirror cache is used
+         */
+        private FetchResult fetch(FetchCommand fetchCommand) throws GitAPIException, IOException {
+                if (cacheDir == null) {
+                        return callCommand(fetchCommand);
+                }
+
+                GitMirrorCache mirrorCache = new GitMirrorCache(cacheDir);
+                mirrorCache.setMaxSize(cacheMaxSize * 1024 * 1024);
+                mirrorCache.setMaxIdleTime(TimeUnit.DAYS.toMillis(cacheMaxIdleDays));
+                GitMirrorCache.Mirror mirror = fetchMirror(mirrorCache, getUri());
+
+                try {
+                        return callCommand(fetchCommand.setRemote(mirror.getDirectory().getPath()));
+                }
+                finally {
+                        releaseMirror(mirrorCache, mirror);
+                }
+        }
+
+        @Override
+        protected void join() {
+                try {
+                        List<FetchResult> fetchResults = backgroundFetch.get();
+
+                        if (GitTaskUtils.isNullOrBlankString(remotes)) {
+                                GitTaskUtils.validateTrackingRefUpdates(FETCH_FAILED_MESSAGE, fetchResults.get(0).getTrackingRefUpdates());
+                        }
+
+                        processFetchResults(fetchResults);
+                }
+                catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+
+                        throw new GitBuildException("Interrupted while waiting for fetch: " + e.getMessage(), e);
+                }
+                catch (ExecutionException e) {
+                        if (e.getCause() instanceof GitAPIException) {
+                                throw fetchFailure((GitAPIException) e.getCause());
+                        }
+
+                        if (e.getCause() instanceof GitBuildException) {
+                                throw (GitBuildException) e.getCause();
+                        }
+
+                        throw new GitBuildException("Unexpected exception: " + e.getCause().getMessage(), e);
+                }
+        }
+
+        /**
+         * Logs the fetch results and merges their updated references
+         */
+        private void processFetchResults(List<FetchResult> fetchResults) {
+                StringBuilder updatedRefs = new StringBuilder();
+                int updatedCount = 0;
+
+                for (FetchResult fetchResult : fetchResults) {
+                        if (fetchResults.size() == 1 || fetchResult.getMessages().length() > 0) {
+                                log(fetchResult.getMessages());
+                        }
+
+                        for (TrackingRefUpdate refUpdate : fetchResult.getTrackingRefUpdates()) {
+                                if (updatedRefs.length() > 0) {
+                                        updatedRefs.append(',');
+                                }
+
+                                updatedRefs.append(refUpdate.getLocalName());
+                                updatedCount++;
+                        }
+                }
+
+                if (fetchResults.size() > 1) {
+                        log(String.format("Fetched %d remotes, %d references updated.", fetchResults.size(), updatedCount));
+                }
+
+                if (updatedRefsProperty != null) {
+                        setProjectProperty(updatedRefsProperty, updatedRefs.toString());
+                }
+        }
+
+        private GitBuildException fetchFailure(GitAPIException e) {
+                return fetchFailure(getProgressMonitor(), e);
+        }
+
+        private GitBuildException fetchFailure(ProgressMonitor monitor, GitAPIException e) {
+                GitBuildException cancellation = cancellationFailure(monitor, e);
+
+                if (cancellation != null) {
+                        return cancellation;
+                }
+
+                if (e instanceof InvalidRemoteException) {
+                        return new GitBuildException("Invalid remote URI: " + e.getMessage(), e);
+                }
+
+                if (e instanceof TransportException) {
+                        return new GitBuildException("Communication error: " + e.getMessage(), e);
+                }
+
+                return new GitBuildException("Unexpected exception: " + e.getMessage(), e);
+        }
+
+        /**
+         * The fetch of one of the remotes fetched concurrently
+         */
+        private static final class RemoteFetch {
+                private final String name;
+                private final FetchCommand command;
+                private final ProgressMonitor monitor;
+
+                private RemoteFetch(String name, FetchCommand command, ProgressMonitor monitor) {
+                        this.name = name;
+                        this.command = command;
+                        this.monitor = monitor;
                 }
         }
 
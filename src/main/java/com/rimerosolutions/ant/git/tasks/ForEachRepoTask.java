@@ -0,0 +1,364 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git.tasks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.IntrospectionHelper;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.ProjectComponent;
+import org.apache.tools.ant.ProjectHelper;
+import org.apache.tools.ant.RuntimeConfigurable;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.UnknownElement;
+import org.apache.tools.ant.taskdefs.Echo;
+import org.apache.tools.ant.types.DirSet;
+import org.apache.tools.ant.util.FileUtils;
+
+import com.rimerosolutions.ant.git.GitTask;
+import com.rimerosolutions.ant.git.GitTaskUtils;
+
+/**
+ * Applies the same nested git tasks to several repositories.
+ *
+ * <p>Repositories are processed concurrently by a bounded pool of <code>threads</code> workers,
+ * the nested tasks of a given repository run in sequence. A failing repository doesn't stop the others,
+ * the results are reported in a summary once all repositories are done.</p>
+ *
+ * <p>Project properties set by the nested tasks are applied in repository order once all repositories are done,
+ * so that the result doesn't depend on which repository finished first. As a consequence, <code>if</code> and
+ * <code>unless</code> conditions only see the properties set before the repositories are processed.</p>
+ *
+ * <pre>{@code
+ * <git:foreachrepo threads="8" settingsRef="git.testing" failedRepositoriesProperty="sweep.failures">
+ *   <dirset dir="${workspace}" includes="*" excludes="*.tmp"/>
+ *   <git:fetch/>
+ *   <git:uptodate failOnError="false"/>
+ * </git:foreachrepo>}</pre>
+ *
+ * @author Yves Zoundi
+ */
+public class ForEachRepoTask extends GitTasks {
+
+        private static final String SUMMARY_SUCCESS_TEMPLATE = "[%s] OK";
+        private static final String SUMMARY_FAILURE_TEMPLATE = "[%s] FAILED: %s";
+        private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+        private final List<DirSet> dirsets = new ArrayList<DirSet>();
+        private final List<File> directories = new ArrayList<File>();
+        private boolean failOnError = true;
+        private String failedRepositoriesProperty;
+        private String summaryFilename;
+
+        /**
+         * Adds a set of repository directories
+         *
+         * @param dirset The repository directories
+         */
+        public void addDirset(DirSet dirset) {
+                dirsets.add(dirset);
+        }
+
+        /**
+         * Sets the repository directories (comma-separated list)
+         *
+         * @antdoc.notrequired
+         * @param directories Comma-separated list of repository directories
+         */
+        public void setDirectories(String directories) {
+                if (GitTaskUtils.isNullOrBlankString(directories)) {
+                        throw new BuildException("Invalid repository directories.");
+                }
+
+                FileUtils fileUtils = FileUtils.getFileUtils();
+
+                for (String dir : directories.split(",")) {
+                        this.directories.add(fileUtils.resolveFile(getProject().getBaseDir(), dir.trim()));
+                }
+        }
+
+        /**
+         * Not supported, use the <code>directories</code> attribute or nested <code>dirset</code> elements.
+         *
+         * @param dir The local directory
+         */
+        @Override
+        public void setDirectory(File dir) {
+                throw new BuildException("Please use the directories attribute or nested dirset elements.");
+        }
+
+        /**
+         * Not supported, the nested tasks of a repository run in sequence.
+         *
+         * @param parallel Whether or not to run read-only tasks concurrently
+         */
+        @Override
+        public void setParallel(boolean parallel) {
+                throw new BuildException("Repositories are processed concurrently, please use the threads attribute.");
+        }
+
+        /**
+         * Whether or not the build fails once all repositories are processed, if any of them failed.
+         *
+         * @antdoc.notrequired
+         * @param failOnError Build fails on error? (Default true)
+         */
+        public void setFailOnError(boolean failOnError) {
+                this.failOnError = failOnError;
+        }
+
+        /**
+         * Sets a property holding the comma-separated list of repositories that failed
+         *
+         * @antdoc.notrequired
+         * @param failedRepositoriesProperty The property name
+         */
+        public void setFailedRepositoriesProperty(String failedRepositoriesProperty) {
+                this.failedRepositoriesProperty = failedRepositoriesProperty;
+        }
+
+        /**
+         * Sets the file receiving the summary of the repositories results
+         *
+         * @antdoc.notrequired
+         * @param summaryFilename The summary file name
+         */
+        public void setSummaryFilename(String summaryFilename) {
+                if (GitTaskUtils.isNullOrBlankString(summaryFilename)) {
+                        throw new BuildException("Invalid summary file name.");
+                }
+
+                this.summaryFilename = summaryFilename;
+        }
+
+        @Override
+        public void execute() throws BuildException {
+                List<File> repositories = collectRepositories();
+
+                if (repositories.isEmpty()) {
+                        log("No repository to process.", Project.MSG_WARN);
+
+                        return;
+                }
+
+                List<List<Task>> repositoryTasks = new ArrayList<List<Task>>(repositories.size());
+                List<Future<?>> results = new ArrayList<Future<?>>(repositories.size());
+                ExecutorService executor = Executors.newFixedThreadPool(Math.min(getThreads(), repositories.size()));
+
+                try {
+                        for (final File repository : repositories) {
+                                final List<Task> taskList = copyTasks();
+                                repositoryTasks.add(taskList);
+
+                                results.add(executor.submit(new Callable<Void>() {
+                                                @Override
+                                                public Void call() {
+                                                        executeTasks(taskList, repository);
+
+                                                        return null;
+                                                }
+                                        }));
+                        }
+
+                        List<String> summary = new ArrayList<String>(repositories.size());
+                        List<String> failedRepositories = new ArrayList<String>();
+
+                        for (int i = 0; i < repositories.size(); i++) {
+                                String repositoryPath = repositories.get(i).getAbsolutePath();
+                                Throwable failure = waitFor(results.get(i));
+
+                                for (Task task : repositoryTasks.get(i)) {
+                                        ((GitTask) task).flushPropertyWrites();
+                                }
+
+                                if (failure == null) {
+                                        summary.add(String.format(SUMMARY_SUCCESS_TEMPLATE, repositoryPath));
+                                }
+                                else {
+                                        summary.add(String.format(SUMMARY_FAILURE_TEMPLATE, repositoryPath, failure.getMessage()));
+                                        failedRepositories.add(repositoryPath);
+                                }
+                        }
+
+                        reportSummary(summary, failedRepositories);
+
+                        if (failOnError && !failedRepositories.isEmpty()) {
+                                String errorMsg = "%d of %d repositories failed: %s";
+
+                                throw new BuildException(String.format(errorMsg, failedRepositories.size(), repositories.size(), failedRepositories));
+                        }
+                }
+                finally {
+                        executor.shutdownNow();
+                }
+        }
+
+        private Throwable waitFor(Future<?> result) {
+                try {
+                        result.get();
+
+                        return null;
+                }
+                catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+
+                        return e;
+                }
+                catch (ExecutionException e) {
+                        return e.getCause();
+                }
+        }
+
+        private void reportSummary(List<String> summary, List<String> failedRepositories) {
+                StringBuilder sb = new StringBuilder();
+
+                for (String line : summary) {
+                        log(line);
+                        sb.append(line).append(LINE_SEPARATOR);
+                }
+
+                if (failedRepositoriesProperty != null && !failedRepositories.isEmpty()) {
+                        StringBuilder failures = new StringBuilder();
+
+                        for (String failedRepository : failedRepositories) {
+                                if (failures.length() > 0) {
+                                        failures.append(',');
+                                }
+
+                                failures.append(failedRepository);
+                        }
+
+                        getProject().setProperty(failedRepositoriesProperty, failures.toString());
+                }
+
+                if (summaryFilename != null) {
+                        Echo echo = new Echo();
+                        echo.setProject(getProject());
+                        echo.setFile(FileUtils.getFileUtils().resolveFile(getProject().getBaseDir(), summaryFilename));
+                        echo.addText(sb.toString());
+                        echo.perform();
+                }
+        }
+
+        private List<File> collectRepositories() {
+                List<File> repositories = new ArrayList<File>(directories);
+
+                for (DirSet dirset : dirsets) {
+                        File baseDir = dirset.getDir(getProject());
+
+                        for (String dir : dirset.getDirectoryScanner(getProject()).getIncludedDirectories()) {
+                                repositories.add(new File(baseDir, dir));
+                        }
+                }
+
+                return repositories;
+        }
+
+        /**
+         * Creates the nested tasks of a repository from their declaration, each repository works with
+         * its own task instances and nested elements. Property writes of the copies are deferred until all repositories are done.
+         */
+        private List<Task> copyTasks() {
+                List<Task> copies = new ArrayList<Task>(getTasks().size());
+
+                for (Task task : getTasks()) {
+                        Task copy = newTask(task);
+                        configureElement(copy, task.getRuntimeConfigurableWrapper());
+                        ((GitTask) copy).deferPropertyWrites();
+                        copies.add(copy);
+                }
+
+                return copies;
+        }
+
+        private Task newTask(Task task) {
+                Task copy;
+
+                try {
+                        copy = task.getClass().newInstance();
+                }
+                catch (InstantiationException e) {
+                        throw new BuildException(String.format("Cannot copy the nested task '%s'.", task.getTaskName()), e);
+                }
+                catch (IllegalAccessException e) {
+                        throw new BuildException(String.format("Cannot copy the nested task '%s'.", task.getTaskName()), e);
+                }
+
+                copy.setProject(getProject());
+                copy.setTaskName(task.getTaskName());
+                copy.setTaskType(task.getTaskType());
+                copy.setLocation(task.getLocation());
+                copy.setOwningTarget(task.getOwningTarget());
+
+                return copy;
+        }
+
+        /**
+         * Configures an element and creates its nested elements the way Ant does, from a copy of the declaration
+         *
+         * @param element The element to configure
+         * @param declaration The declaration of the element in the build file
+         */
+        private void configureElement(Object element, RuntimeConfigurable declaration) {
+                RuntimeConfigurable wrapper = new RuntimeConfigurable(element, declaration.getElementTag());
+                wrapper.setPolyType(declaration.getPolyType());
+                wrapper.addText(declaration.getText().toString());
+
+                Map<?, ?> attributes = declaration.getAttributeMap();
+
+                for (Map.Entry<?, ?> attribute : attributes.entrySet()) {
+                        wrapper.setAttribute((String) attribute.getKey(), String.valueOf(attribute.getValue()));
+                }
+
+                if (element instanceof Task) {
+                        ((Task) element).setRuntimeConfigurableWrapper(wrapper);
+                }
+
+                wrapper.maybeConfigure(getProject());
+
+                IntrospectionHelper helper = IntrospectionHelper.getHelper(getProject(), element.getClass());
+                Enumeration<?> children = declaration.getChildren();
+
+                while (children.hasMoreElements()) {
+                        RuntimeConfigurable childDeclaration = (RuntimeConfigurable) children.nextElement();
+                        String childName = ProjectHelper.extractNameFromComponentName(childDeclaration.getElementTag());
+                        UnknownElement childElement = new UnknownElement(childName);
+                        childElement.setProject(getProject());
+
+                        IntrospectionHelper.Creator creator = helper.getElementCreator(getProject(), "", element, childName, childElement);
+                        creator.setPolyType(childDeclaration.getPolyType());
+
+                        Object child = creator.create();
+
+                        if (child instanceof ProjectComponent) {
+                                ((ProjectComponent) child).setProject(getProject());
+                        }
+
+                        configureElement(child, childDeclaration);
+                        creator.store();
+                }
+        }
+
+}
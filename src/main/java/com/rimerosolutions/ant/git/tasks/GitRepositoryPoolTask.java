@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git.tasks;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+
+import com.rimerosolutions.ant.git.GitRepositoryPool;
+
+/**
+ * Keeps repositories open for the rest of the build.
+ *
+ * <p>Once declared, all the <code>git</code> containers share the opened repositories instead of reopening them,
+ * the pool is closed when the build finishes.</p>
+ *
+ * <pre>{@code
+ * <git:repositorypool maxRepositories="8" idleTimeout="600"/>
+ *
+ * <git:git directory="${testLocalRepo}">
+ *   <git:currentbranch outputProperty="currentBranchName"/>
+ * </git:git>
+ *
+ * <git:git directory="${testLocalRepo}">
+ *   <git:uptodate modificationExistProperty="tree.modified" failOnError="false"/>
+ * </git:git>}</pre>
+ *
+ * @author Yves Zoundi
+ */
+public class GitRepositoryPoolTask extends Task {
+
+        private int maxRepositories = 16;
+        private long idleTimeout = 0;
+
+        /**
+         * Sets the maximum number of repositories kept open, the least recently used ones are closed first
+         *
+         * @antdoc.notrequired
+         * @param maxRepositories The maximum number of opened repositories, 0 for no limit (Default 16)
+         */
+        public void setMaxRepositories(int maxRepositories) {
+                if (maxRepositories < 0) {
+                        throw new BuildException("The maximum number of repositories cannot be negative.");
+                }
+
+                this.maxRepositories = maxRepositories;
+        }
+
+        /**
+         * Sets the number of seconds after which an unused repository is closed
+         *
+         * @antdoc.notrequired
+         * @param idleTimeout The idle timeout in seconds, 0 for no timeout (Default 0)
+         */
+        public void setIdleTimeout(long idleTimeout) {
+                if (idleTimeout < 0) {
+                        throw new BuildException("The idle timeout cannot be negative.");
+                }
+
+                this.idleTimeout = idleTimeout;
+        }
+
+        @Override
+        public void execute() throws BuildException {
+                GitRepositoryPool pool = new GitRepositoryPool();
+                pool.setMaxRepositories(maxRepositories);
+                pool.setIdleTimeout(idleTimeout * 1000L);
+
+                GitRepositoryPool.register(getProject(), pool);
+        }
+
+}
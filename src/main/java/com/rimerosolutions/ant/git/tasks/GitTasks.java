@@ -18,10 +18,16 @@ package com.rimerosolutions.ant.git.tasks;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Task;
 
+import com.rimerosolutions.ant.git.GitRepositoryCache;
+import com.rimerosolutions.ant.git.GitRepositoryPool;
 import com.rimerosolutions.ant.git.GitTask;
 import com.rimerosolutions.ant.git.GitTaskMonitor;
 import com.rimerosolutions.ant.git.GitTaskUtils;
@@ -29,6 +35,9 @@ import com.rimerosolutions.ant.git.GitTaskUtils;
 /**
  * Git tasks container.
  *
+ * <p>Nested tasks working on the same repository share a single opened instance for the duration of the container,
+ * or for the rest of the build when a <code>repositorypool</code> was declared.</p>
+ *
  * <pre>{@code
  * <git:settings refId="git.testing"
  *               username="xxxtesting"
@@ -48,6 +57,12 @@ public class GitTasks extends Task {
         private boolean verbose = true;
         private File directory;
         private String settingsRef;
+        private boolean parallel = false;
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private long progressInterval = 0;
+        private int progressStep = 10;
+        private String metricsPrefix;
+        private File metricsFile;
 
         private final List<Task> tasks = new ArrayList<Task>();
 
@@ -61,6 +76,85 @@ public class GitTasks extends Task {
                 this.verbose = verbose;
         }
 
+        /**
+         * Sets the minimum delay between two progress reports of verbose Git commands
+         *
+         * @antdoc.notrequired
+         * @param progressInterval The delay in milliseconds, 0 to log every progress update (Default 0)
+         */
+        public void setProgressInterval(long progressInterval) {
+                if (progressInterval < 0) {
+                        throw new BuildException("The progress interval cannot be negative.");
+                }
+
+                this.progressInterval = progressInterval;
+        }
+
+        /**
+         * Sets the minimum progress between two reports of a Git command phase, when its total work is known
+         *
+         * @antdoc.notrequired
+         * @param progressStep The progress step in percent (Default 10)
+         */
+        public void setProgressStep(int progressStep) {
+                if (progressStep < 0 || progressStep > 100) {
+                        throw new BuildException("The progress step must be a percentage.");
+                }
+
+                this.progressStep = progressStep;
+        }
+
+        /**
+         * Sets the prefix of the properties receiving the duration, work and throughput of the Git commands phases,
+         * i.e. <code>prefix.git-clone.receiving-objects.duration</code>
+         *
+         * @antdoc.notrequired
+         * @param metricsPrefix The properties prefix
+         */
+        public void setMetricsPrefix(String metricsPrefix) {
+                if (GitTaskUtils.isNullOrBlankString(metricsPrefix)) {
+                        throw new BuildException("Invalid metrics properties prefix.");
+                }
+
+                this.metricsPrefix = metricsPrefix;
+        }
+
+        /**
+         * Sets the file receiving the duration, work and throughput of the Git commands phases, one JSON object per line.
+         * The metrics are appended to the file.
+         *
+         * @antdoc.notrequired
+         * @param metricsFile The metrics file
+         */
+        public void setMetricsFile(File metricsFile) {
+                this.metricsFile = metricsFile;
+        }
+
+        /**
+         * Whether or not adjacent read-only tasks (<code>currentbranch</code>, <code>branchlist</code>,
+         * <code>taglist</code>, <code>uptodate</code>, <code>lsremote</code>) run concurrently. Other tasks wait for the previous ones.
+         *
+         * @antdoc.notrequired
+         * @param parallel Whether or not to run read-only tasks concurrently (Default false)
+         */
+        public void setParallel(boolean parallel) {
+                this.parallel = parallel;
+        }
+
+        /**
+         * Sets the maximum number of tasks running concurrently in parallel mode
+         *
+         * @antdoc.notrequired
+         * @param threads The number of threads (Default is the number of processors)
+         */
+        public void setThreads(int threads) {
+                if (threads < 1) {
+                        throw new BuildException("The number of threads must be at least 1.");
+                }
+
+                this.threads = threads;
+        }
+
         /**
          * Sets a settings reference ID to lookup git settings
          *
@@ -235,6 +329,18 @@ public class GitTasks extends Task {
                 return c;
         }
 
+        /**
+         * Creates a nested <code>lsremote</code> task.
+         *
+         * @return a new task to list remote references.
+         */
+        public LsRemoteTask createLsRemote() {
+                LsRemoteTask c = new LsRemoteTask();
+                tasks.add(c);
+
+                return c;
+        }
+
         /**
          * Creates a nested <code>pull</code> task.
          *
@@ -283,6 +389,18 @@ public class GitTasks extends Task {
                 return c;
         }
 
+        /**
+         * Creates a nested <code>submoduleupdate</code> task.
+         *
+         * @return a new task to update sub-modules.
+         */
+        public SubmoduleUpdateTask createSubmoduleUpdate() {
+                SubmoduleUpdateTask c = new SubmoduleUpdateTask();
+                tasks.add(c);
+
+                return c;
+        }
+
         /**
          * Creates a nested <code>tag</code> task
          *
@@ -337,33 +455,204 @@ public class GitTasks extends Task {
                         throw new BuildException("Please specify a directory attribute.");
                 }
 
-                for (Task task : tasks) {
-                        GitTask t = (GitTask) task;
-                        GitTaskUtils.validateTaskConditions(t);
+                executeTasks(tasks, directory);
+        }
+
+        /**
+         * Returns the nested tasks
+         *
+         * @return The nested tasks in declaration order
+         */
+        protected List<Task> getTasks() {
+                return tasks;
+        }
+
+        /**
+         * Returns the maximum number of tasks running concurrently
+         *
+         * @return The number of threads
+         */
+        protected int getThreads() {
+                return threads;
+        }
+
+        /**
+         * Executes tasks against a given directory, sharing repositories through the build pool if any
+         *
+         * @param taskList The tasks to execute
+         * @param dir The Git local directory
+         */
+        protected void executeTasks(List<Task> taskList, File dir) {
+                GitRepositoryPool repositoryPool = GitRepositoryPool.lookup(getProject());
+
+                if (repositoryPool != null) {
+                        executeTasks(taskList, dir, repositoryPool);
+
+                        return;
+                }
+
+                GitRepositoryCache repositoryCache = new GitRepositoryCache();
+
+                try {
+                        executeTasks(taskList, dir, repositoryCache);
+                }
+                finally {
+                        repositoryCache.close();
+                }
+        }
+
+        private void executeTasks(List<Task> taskList, File dir, GitRepositoryCache repositoryCache) {
+                if (parallel) {
+                        executeTasksInParallel(taskList, dir, repositoryCache);
+
+                        return;
+                }
+
+                for (Task task : taskList) {
+                        if (prepareTask(task, dir, repositoryCache)) {
+                                task.perform();
+                        }
+                }
+        }
+
+        /**
+         * Runs adjacent read-only tasks concurrently, any other task waits for the previous ones and runs alone.
+         * A task with an <code>if</code> or <code>unless</code> condition also starts a new batch,
+         * so that the condition sees the properties set by the tasks before it.
+         */
+        private void executeTasksInParallel(List<Task> taskList, File dir, GitRepositoryCache repositoryCache) {
+                ExecutorService executor = Executors.newFixedThreadPool(threads);
+                List<Task> batch = new ArrayList<Task>();
 
-                        if (!GitTaskUtils.isNullOrBlankString(t.getIf())) {
-                                if (getProject().getProperty(t.getIf()) == null) {
+                try {
+                        for (Task task : taskList) {
+                                GitTask t = (GitTask) task;
+
+                                if (!t.isReadOnly() || t.getIf() != null || t.getUnless() != null) {
+                                        performBatch(batch, executor);
+                                        batch.clear();
+                                }
+
+                                if (!prepareTask(task, dir, repositoryCache)) {
                                         continue;
                                 }
+
+                                if (t.isReadOnly()) {
+                                        batch.add(task);
+                                }
+                                else {
+                                        task.perform();
+                                }
                         }
 
-                        if (!GitTaskUtils.isNullOrBlankString(t.getUnless())) {
-                                if (getProject().getProperty(t.getUnless()) != null) {
-                                        continue;
+                        performBatch(batch, executor);
+                }
+                finally {
+                        executor.shutdownNow();
+                }
+        }
+
+        /**
+         * Performs a batch of tasks concurrently. Once all the tasks are done, their properties are set
+         * in declaration order and the failure of the first failed task, if any, is rethrown.
+         */
+        private void performBatch(List<Task> batch, ExecutorService executor) {
+                if (batch.isEmpty()) {
+                        return;
+                }
+
+                if (batch.size() == 1) {
+                        batch.get(0).perform();
+
+                        return;
+                }
+
+                List<Future<?>> results = new ArrayList<Future<?>>(batch.size());
+
+                for (final Task task : batch) {
+                        ((GitTask) task).deferPropertyWrites();
+
+                        results.add(executor.submit(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                                getProject().registerThreadTask(Thread.currentThread(), task);
+
+                                                try {
+                                                        task.perform();
+                                                }
+                                                finally {
+                                                        getProject().registerThreadTask(Thread.currentThread(), null);
+                                                }
+                                        }
+                                }));
+                }
+
+                RuntimeException failure = null;
+
+                for (int i = 0; i < batch.size(); i++) {
+                        try {
+                                results.get(i).get();
+                        }
+                        catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+
+                                if (failure == null) {
+                                        failure = new BuildException("Interrupted while waiting for git tasks.", e);
+                                }
+                        }
+                        catch (ExecutionException e) {
+                                if (failure == null) {
+                                        failure = (e.getCause() instanceof RuntimeException) ?
+                                                (RuntimeException) e.getCause() :
+                                                new BuildException(e.getCause());
                                 }
                         }
+                        finally {
+                                ((GitTask) batch.get(i)).flushPropertyWrites();
+                        }
+                }
 
-                        if (!GitTaskUtils.isNullOrBlankString(settingsRef)) {
-                                t.setSettingsRef(settingsRef);
+                if (failure != null) {
+                        throw failure;
+                }
+        }
+
+        /**
+         * Configures a nested task before execution
+         *
+         * @return false if the task conditions veto its execution
+         */
+        private boolean prepareTask(Task task, File dir, GitRepositoryCache repositoryCache) {
+                GitTask t = (GitTask) task;
+                GitTaskUtils.validateTaskConditions(t);
+
+                if (!GitTaskUtils.isNullOrBlankString(t.getIf())) {
+                        if (getProject().getProperty(t.getIf()) == null) {
+                                return false;
                         }
+                }
 
-                        if (verbose) {
-                                t.useProgressMonitor(new GitTaskMonitor(t));
+                if (!GitTaskUtils.isNullOrBlankString(t.getUnless())) {
+                        if (getProject().getProperty(t.getUnless()) != null) {
+                                return false;
                         }
+                }
 
-                        t.setDirectory(directory);
+                if (!GitTaskUtils.isNullOrBlankString(settingsRef)) {
+                        t.setSettingsRef(settingsRef);
+                }
 
-                        task.perform();
+                if (verbose || metricsPrefix != null || metricsFile != null) {
+                        GitTaskMonitor monitor = new GitTaskMonitor(t, progressInterval, progressStep);
+                        monitor.setLoggingEnabled(verbose);
+                        monitor.setMetricsPrefix(metricsPrefix);
+                        monitor.setMetricsFile(metricsFile);
+                        t.useProgressMonitor(monitor);
                 }
+
+                t.setDirectory(dir);
+                t.useRepositoryCache(repositoryCache);
+
+                return true;
         }
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git.tasks;
+
+import java.io.File;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+
+import com.rimerosolutions.ant.git.GitTimingReport;
+
+/**
+ * Records the timings of all the git tasks executed for the rest of the build.
+ *
+ * <p>For each task execution, the report measures the repository discovery and opening time,
+ * the execution time, the time spent in JGit commands and the bytes allocated by the executing thread.
+ * When the build finishes, a summary sorted by total time is logged and the detailed report is written
+ * to the report file, if any.</p>
+ *
+ * <pre>{@code
+ * <git:timingreport file="${build.dir}/git-timings.json"/>
+ *
+ * <git:git directory="${testLocalRepo}">
+ *   <git:uptodate modificationExistProperty="tree.modified" failOnError="false"/>
+ * </git:git>}</pre>
+ *
+ * @author Yves Zoundi
+ */
+public class GitTimingReportTask extends Task {
+
+        private File file;
+
+        /**
+         * Sets the file receiving the JSON report
+         *
+         * @antdoc.notrequired
+         * @param file The report file
+         */
+        public void setFile(File file) {
+                this.file = file;
+        }
+
+        @Override
+        public void execute() throws BuildException {
+                GitTimingReport report = new GitTimingReport();
+                report.setReportFile(file);
+
+                GitTimingReport.register(getProject(), report);
+        }
+
+}
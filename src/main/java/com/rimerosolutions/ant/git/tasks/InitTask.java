@@ -20,6 +20,7 @@ import org.eclipse.jgit.api.errors.GitAPIException;
 
 import com.rimerosolutions.ant.git.AbstractGitTask;
 import com.rimerosolutions.ant.git.GitBuildException;
+import com.rimerosolutions.ant.git.GitTaskTiming;
 
 /**
  * Initialize a Git repository.
@@ -64,16 +65,23 @@ public class InitTask extends AbstractGitTask {
 
         @Override
         public void execute() {
+                GitTaskTiming timing = startTiming();
+
                 try {
+                        long start = System.nanoTime();
                         Git git = Git.init().
                                 setBare(bare).
                                 setDirectory(getDirectory()).
                                 call();
+                        addCommandTime(start);
 
                         git.getRepository().close();
                 } catch (GitAPIException e) {
                         throw new GitBuildException(MESSAGE_INIT_FAILED, e);
                 }
+                finally {
+                        finishTiming(timing);
+                }
         }
 
 }
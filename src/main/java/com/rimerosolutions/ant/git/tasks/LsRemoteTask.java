@@ -0,0 +1,310 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.eclipse.jgit.errors.NotSupportedException;
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+import org.eclipse.jgit.transport.FetchConnection;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.URIish;
+
+import com.rimerosolutions.ant.git.AbstractGitTask;
+import com.rimerosolutions.ant.git.GitBuildException;
+import com.rimerosolutions.ant.git.GitRefsSnapshot;
+import com.rimerosolutions.ant.git.GitSettings;
+import com.rimerosolutions.ant.git.GitTaskTiming;
+
+/**
+ * List the references advertised by a remote repository, without downloading any object.
+ *
+ * <p>With a <code>snapshotFile</code>, the advertised references are compared to the snapshot of the previous run
+ * and the snapshot is replaced. The <code>changedProperty</code> is only set when a reference was added, updated
+ * or removed, so that the fetch and everything downstream can be skipped when nothing moved:</p>
+ *
+ * <pre>{@code
+ *  <git:lsremote uri="https://github.com/rimerosolutions/ant-git-tasks.git" heads="true"
+ *                snapshotFile="${user.home}/.cache/git-refs/ant-git-tasks.refs"
+ *                changedProperty="remote.changed" updatedRefsProperty="remote.updatedRefs"/>
+ *
+ *  <git:git directory="${testLocalRepoClient}" settingsRef="git.testing">
+ *    <git:pull if="remote.changed"/>
+ *  </git:git>}</pre>
+ *
+ * <p>Inside a <code>git</code> task without <code>uri</code>, the <code>origin</code> remote of the repository is listed.</p>
+ *
+ * <p><a href="http://www.kernel.org/pub/software/scm/git/docs/git-ls-remote.html">Git documentation about ls-remote</a></p>
+ * <p><a href="http://download.eclipse.org/jgit/docs/latest/apidocs/org/eclipse/jgit/transport/FetchConnection.html">JGit FetchConnection</a></p>
+ *
+ * @author Yves Zoundi
+ */
+public class LsRemoteTask extends AbstractGitTask {
+
+        private static final String TASK_NAME = "git-ls-remote";
+        private boolean heads = false;
+        private boolean tags = false;
+        private File snapshotFile;
+        private boolean updateSnapshot = true;
+        private String changedProperty;
+        private String addedRefsProperty;
+        private String updatedRefsProperty;
+        private String removedRefsProperty;
+
+        @Override
+        public String getName() {
+                return TASK_NAME;
+        }
+
+        @Override
+        protected boolean usesNetwork() {
+                return true;
+        }
+
+        @Override
+        public boolean isReadOnly() {
+                return true;
+        }
+
+        /**
+         * Sets whether or not the branches are listed
+         *
+         * @antdoc.notrequired
+         * @param heads Only list the branches, along with the tags if requested (Default false, all the references)
+         */
+        public void setHeads(boolean heads) {
+                this.heads = heads;
+        }
+
+        /**
+         * Sets whether or not the tags are listed
+         *
+         * @antdoc.notrequired
+         * @param tags Only list the tags, along with the branches if requested (Default false, all the references)
+         */
+        public void setTags(boolean tags) {
+                this.tags = tags;
+        }
+
+        /**
+         * Sets the file keeping the references listed by the previous run
+         *
+         * @antdoc.notrequired
+         * @param snapshotFile The snapshot file, created by the first run
+         */
+        public void setSnapshotFile(File snapshotFile) {
+                this.snapshotFile = snapshotFile;
+        }
+
+        /**
+         * Sets whether or not the snapshot file is replaced by the listed references
+         *
+         * @antdoc.notrequired
+         * @param updateSnapshot Replace the snapshot? (Default true)
+         */
+        public void setUpdateSnapshot(boolean updateSnapshot) {
+                this.updateSnapshot = updateSnapshot;
+        }
+
+        /**
+         * Sets the property set to true when the references changed since the snapshot
+         *
+         * @antdoc.notrequired
+         * @param changedProperty The property name, left unset when nothing changed
+         */
+        public void setChangedProperty(String changedProperty) {
+                this.changedProperty = changedProperty;
+        }
+
+        /**
+         * Sets a property holding the comma-separated list of references missing from the snapshot
+         *
+         * @antdoc.notrequired
+         * @param addedRefsProperty The property name
+         */
+        public void setAddedRefsProperty(String addedRefsProperty) {
+                this.addedRefsProperty = addedRefsProperty;
+        }
+
+        /**
+         * Sets a property holding the comma-separated list of references pointing to another object in the snapshot
+         *
+         * @antdoc.notrequired
+         * @param updatedRefsProperty The property name
+         */
+        public void setUpdatedRefsProperty(String updatedRefsProperty) {
+                this.updatedRefsProperty = updatedRefsProperty;
+        }
+
+        /**
+         * Sets a property holding the comma-separated list of references of the snapshot that are gone
+         *
+         * @antdoc.notrequired
+         * @param removedRefsProperty The property name
+         */
+        public void setRemovedRefsProperty(String removedRefsProperty) {
+                this.removedRefsProperty = removedRefsProperty;
+        }
+
+        @Override
+        public void execute() {
+                if (getUri() == null && getDirectory() == null) {
+                        throw new BuildException("Please specify a uri attribute.");
+                }
+
+                GitTaskTiming timing = startTiming();
+
+                try {
+                        GitRefsSnapshot snapshot = GitRefsSnapshot.of(listRefs());
+                        log(String.format("%d references advertised.", snapshot.getRefs().size()), Project.MSG_VERBOSE);
+
+                        if (snapshotFile != null) {
+                                compareSnapshot(snapshot);
+                        }
+                }
+                catch (IOException e) {
+                        throw new GitBuildException(String.format("Could not list the references of '%s': %s", describeRemote(), e.getMessage()), e);
+                }
+                catch (URISyntaxException e) {
+                        throw new GitBuildException("Invalid URI syntax: " + e.getMessage(), e);
+                }
+                finally {
+                        finishTiming(timing);
+                }
+        }
+
+        /**
+         * Opens a connection to the remote repository and reads the advertised references
+         */
+        private Collection<Ref> listRefs() throws IOException, URISyntaxException {
+                long start = System.nanoTime();
+                Repository repository = (getUri() == null) ? new RepositoryBuilder().readEnvironment().findGitDir(getDirectory()).build() : null;
+
+                try {
+                        Transport transport = (repository == null) ? Transport.open(new URIish(getUri())) : Transport.open(repository, Constants.DEFAULT_REMOTE_NAME);
+
+                        try {
+                                GitSettings settings = lookupSettings();
+
+                                if (settings != null) {
+                                        transport.setCredentialsProvider(settings.getCredentials());
+                                }
+
+                                if (getTransportTimeout() > 0) {
+                                        transport.setTimeout(getTransportTimeout());
+                                }
+
+                                FetchConnection connection = transport.openFetch();
+
+                                try {
+                                        List<Ref> refs = new ArrayList<Ref>();
+
+                                        for (Ref ref : connection.getRefs()) {
+                                                if (isListed(ref.getName())) {
+                                                        refs.add(ref);
+                                                }
+                                        }
+
+                                        return refs;
+                                }
+                                finally {
+                                        connection.close();
+                                }
+                        }
+                        finally {
+                                transport.close();
+                        }
+                }
+                catch (NotSupportedException e) {
+                        throw new GitBuildException("Invalid remote URI: " + e.getMessage(), e);
+                }
+                catch (TransportException e) {
+                        throw new GitBuildException("Communication error: " + e.getMessage(), e);
+                }
+                finally {
+                        if (repository != null) {
+                                repository.close();
+                        }
+
+                        addCommandTime(start);
+                }
+        }
+
+        private boolean isListed(String refName) {
+                if (!heads && !tags) {
+                        return true;
+                }
+
+                return (heads && refName.startsWith(Constants.R_HEADS)) || (tags && refName.startsWith(Constants.R_TAGS));
+        }
+
+        private void compareSnapshot(GitRefsSnapshot snapshot) throws IOException {
+                GitRefsSnapshot previousSnapshot = GitRefsSnapshot.read(snapshotFile);
+                List<String> addedRefs = snapshot.added(previousSnapshot);
+                List<String> updatedRefs = snapshot.updated(previousSnapshot);
+                List<String> removedRefs = snapshot.removed(previousSnapshot);
+                boolean changed = !addedRefs.isEmpty() || !updatedRefs.isEmpty() || !removedRefs.isEmpty();
+
+                log(String.format("%d references added, %d updated and %d removed since the last snapshot.",
+                                  addedRefs.size(), updatedRefs.size(), removedRefs.size()));
+
+                setRefsProperty(addedRefsProperty, addedRefs);
+                setRefsProperty(updatedRefsProperty, updatedRefs);
+                setRefsProperty(removedRefsProperty, removedRefs);
+
+                if (changed && changedProperty != null) {
+                        setProjectProperty(changedProperty, Boolean.TRUE.toString());
+                }
+
+                if (changed && updateSnapshot) {
+                        snapshot.write(snapshotFile);
+                }
+        }
+
+        private void setRefsProperty(String property, List<String> refNames) {
+                if (property == null) {
+                        return;
+                }
+
+                StringBuilder sb = new StringBuilder();
+
+                for (String refName : refNames) {
+                        if (sb.length() > 0) {
+                                sb.append(',');
+                        }
+
+                        sb.append(refName);
+                }
+
+                setProjectProperty(property, sb.toString());
+        }
+
+        private String describeRemote() {
+                return (getUri() == null) ? Constants.DEFAULT_REMOTE_NAME : getUri();
+        }
+
+}
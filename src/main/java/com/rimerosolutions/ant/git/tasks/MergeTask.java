@@ -79,7 +79,7 @@ public class MergeTask extends AbstractGitRepoAwareTask {
 
                         MergeResult mergeResult = null;
                         try {
-                                mergeResult = mergeCommand.call();
+                                mergeResult = callCommand(mergeCommand);
                         } catch (CheckoutConflictException conflicts) {
                                 throw new BuildException(String.format("%s - Checkout conflicts: %s", MESSAGE_MERGE_FAILED, conflicts.getConflictingPaths()));
                         }
@@ -51,6 +51,11 @@ public class PullTask extends AbstractGitRepoAwareTask {
                 return TASK_NAME;
         }
 
+        @Override
+        protected boolean usesNetwork() {
+                return true;
+        }
+
         /**
          * Set if rebase should be used after fetching
          *
@@ -65,13 +70,14 @@ public class PullTask extends AbstractGitRepoAwareTask {
         public void doExecute() {
                 try {
                         PullCommand pullCommand = git.pull().setRebase(rebase);
+                        setupTimeouts(pullCommand);
 
                         if (getProgressMonitor() != null) {
                                 pullCommand.setProgressMonitor(getProgressMonitor());
                         }
 
                         setupCredentials(pullCommand);
-                        PullResult pullResult = pullCommand.call();
+                        PullResult pullResult = callCommand(pullCommand);
 
                         if (!pullResult.isSuccessful()) {
                                 FetchResult fetchResult = pullResult.getFetchResult();
@@ -84,6 +90,12 @@ public class PullTask extends AbstractGitRepoAwareTask {
                         }
                 }
                 catch (Exception e) {
+                        GitBuildException cancellation = cancellationFailure(e);
+
+                        if (cancellation != null) {
+                                throw cancellation;
+                        }
+
                         throw new GitBuildException(String.format(MESSAGE_PULLED_FAILED_WITH_URI, getUri()), e);
                 }
         }
@@ -61,6 +61,11 @@ public class PushTask extends AbstractGitRepoAwareTask {
                 return TASK_NAME;
         }
 
+        @Override
+        protected boolean usesNetwork() {
+                return true;
+        }
+
         /**
          * Whether or not to include all tags while pushing
          *
@@ -110,6 +115,7 @@ public class PushTask extends AbstractGitRepoAwareTask {
                                 setRemote(getUri());
 
                         setupCredentials(pushCommand);
+                        setupTimeouts(pushCommand);
 
                         if (includeTags) {
                                 pushCommand.setPushTags();
@@ -119,18 +125,24 @@ public class PushTask extends AbstractGitRepoAwareTask {
                                 pushCommand.setProgressMonitor(getProgressMonitor());
                         }
 
-                        Iterable<PushResult> pushResults = pushCommand.setForce(true).call();
+                        Iterable<PushResult> pushResults = callCommand(pushCommand.setForce(true));
 
                         for (PushResult pushResult : pushResults) {
                                 GitTaskUtils.validateTrackingRefUpdates(PUSH_FAILED_MESSAGE, pushResult.getTrackingRefUpdates());
                                 log(pushResult.getMessages());
                         }
                 } catch (Exception e) {
+                        GitBuildException failure = cancellationFailure(e);
+
+                        if (failure == null) {
+                                failure = new GitBuildException(PUSH_FAILED_MESSAGE, e);
+                        }
+
                         if (pushFailedProperty != null) {
-                                getProject().setProperty(pushFailedProperty, e.getMessage());
+                                setProjectProperty(pushFailedProperty, e.getMessage());
                         }
 
-                        throw new GitBuildException(PUSH_FAILED_MESSAGE, e);
+                        throw failure;
                 }
         }
 }
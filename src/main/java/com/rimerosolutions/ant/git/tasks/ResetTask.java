@@ -73,7 +73,7 @@ public class ResetTask extends AbstractGitRepoAwareTask {
                 try {
                         ResetCommand resetCommand = git.reset();
 
-                        resetCommand.setMode(mode).call();
+                        callCommand(resetCommand.setMode(mode));
                 } catch (Exception e) {
                         throw new GitBuildException("Unexpected exception: " + e.getMessage(), e);
                 }
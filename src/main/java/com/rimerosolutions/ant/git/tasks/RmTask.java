@@ -15,6 +15,8 @@
  */
 package com.rimerosolutions.ant.git.tasks;
 
+import java.util.List;
+
 import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.resources.Union;
 import org.eclipse.jgit.api.RmCommand;
@@ -22,6 +24,7 @@ import org.eclipse.jgit.api.errors.GitAPIException;
 
 import com.rimerosolutions.ant.git.AbstractGitRepoAwareTask;
 import com.rimerosolutions.ant.git.GitBuildException;
+import com.rimerosolutions.ant.git.PathspecCompiler;
 
 /**
  * Delete files.
@@ -69,19 +72,18 @@ public class RmTask extends AbstractGitRepoAwareTask {
         @Override
         protected void doExecute() {
                 try {
-                        RmCommand rmCommand = git.rm();
-                        String prefix = getDirectory().getCanonicalPath();
-                        String[] allFiles = getPath().list();
-                        if (allFiles.length == 0) {
+                        List<String> pathspecs = new PathspecCompiler(git.getRepository()).compile(getPath());
+                        if (pathspecs.isEmpty()) {
                             return;
                         }
 
-                        for (String file : allFiles) {
-                                String addedFile = translateFilePathUsingPrefix(file, prefix);
-                                rmCommand.addFilepattern(addedFile);
+                        RmCommand rmCommand = git.rm();
+
+                        for (String pathspec : pathspecs) {
+                                rmCommand.addFilepattern(pathspec);
                         }
 
-                        rmCommand.call();
+                        callCommand(rmCommand);
                 }
                 catch (GitAPIException e) {
                         throw new GitBuildException(e);
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git.tasks;
+
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.eclipse.jgit.api.SubmoduleInitCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+
+import com.rimerosolutions.ant.git.AbstractGitRepoAwareTask;
+import com.rimerosolutions.ant.git.GitBuildException;
+import com.rimerosolutions.ant.git.GitSettings;
+import com.rimerosolutions.ant.git.GitSubmoduleUpdater;
+import com.rimerosolutions.ant.git.GitTaskUtils;
+
+/**
+ * Initialize, clone and update sub-modules.
+ *
+ * <p>Sub-modules are cloned or fetched and checked out <code>threads</code> at a time, with the credentials of the task settings.
+ * With <code>changedOnly</code>, the sub-modules already at their recorded commit are not checked out again.</p>
+ *
+ * <pre>{@code
+ *  <git:git directory="${testLocalRepoClone}" settingsRef="git.testing">
+ *    <git:pull/>
+ *    <git:submoduleupdate threads="4" changedOnly="true" updatedProperty="submodules.updated"/>
+ *  </git:git>}</pre>
+ *
+ * <p><a href="http://www.kernel.org/pub/software/scm/git/docs/git-submodule.html">Git documentation about submodule</a></p>
+ * <p><a href="http://download.eclipse.org/jgit/docs/latest/apidocs/org/eclipse/jgit/api/SubmoduleUpdateCommand.html">JGit SubmoduleUpdateCommand</a></p>
+ *
+ * @author Yves Zoundi
+ */
+public class SubmoduleUpdateTask extends AbstractGitRepoAwareTask {
+
+        private static final String TASK_NAME = "git-submodule-update";
+        private int threads = 1;
+        private boolean changedOnly = false;
+        private String paths;
+        private String updatedProperty;
+
+        @Override
+        public String getName() {
+                return TASK_NAME;
+        }
+
+        @Override
+        protected boolean usesNetwork() {
+                return true;
+        }
+
+        /**
+         * Sets the number of sub-modules updated at a time
+         *
+         * @antdoc.notrequired
+         * @param threads The number of threads (Default 1)
+         */
+        public void setThreads(int threads) {
+                if (threads < 1) {
+                        throw new BuildException("The number of threads must be at least 1.");
+                }
+
+                this.threads = threads;
+        }
+
+        /**
+         * Sets whether or not only the sub-modules whose recorded commit changed are updated
+         *
+         * @antdoc.notrequired
+         * @param changedOnly Skip the sub-modules already at their recorded commit? (Default false)
+         */
+        public void setChangedOnly(boolean changedOnly) {
+                this.changedOnly = changedOnly;
+        }
+
+        /**
+         * Sets the sub-modules to update
+         *
+         * @antdoc.notrequired
+         * @param paths Comma-separated list of sub-module paths (Default is all the sub-modules)
+         */
+        public void setPaths(String paths) {
+                this.paths = paths;
+        }
+
+        /**
+         * Sets the property receiving the paths of the updated sub-modules
+         *
+         * @antdoc.notrequired
+         * @param updatedProperty The property name, set to a comma-separated list of paths
+         */
+        public void setUpdatedProperty(String updatedProperty) {
+                this.updatedProperty = updatedProperty;
+        }
+
+        @Override
+        protected void doExecute() {
+                try {
+                        SubmoduleInitCommand initCommand = git.submoduleInit();
+                        GitSubmoduleUpdater updater = new GitSubmoduleUpdater(git.getRepository(), threads);
+                        updater.setChangedOnly(changedOnly);
+
+                        if (!GitTaskUtils.isNullOrBlankString(paths)) {
+                                for (String path : paths.split(",")) {
+                                        initCommand.addPath(path.trim());
+                                        updater.addPath(path.trim());
+                                }
+                        }
+
+                        callCommand(initCommand);
+
+                        GitSettings settings = lookupSettings();
+
+                        if (settings != null) {
+                                updater.setCredentialsProvider(settings.getCredentials());
+                        }
+
+                        updater.setTimeout(getTransportTimeout());
+                        List<String> updatedPaths;
+                        long start = System.nanoTime();
+
+                        try {
+                                updatedPaths = updater.update();
+                        }
+                        finally {
+                                addCommandTime(start);
+                        }
+
+                        log(String.format("Updated %d sub-modules.", updatedPaths.size()), Project.MSG_VERBOSE);
+
+                        if (updatedProperty != null) {
+                                StringBuilder sb = new StringBuilder();
+
+                                for (String path : updatedPaths) {
+                                        if (sb.length() > 0) {
+                                                sb.append(',');
+                                        }
+
+                                        sb.append(path);
+                                }
+
+                                setProjectProperty(updatedProperty, sb.toString());
+                        }
+                }
+                catch (GitAPIException e) {
+                        throw new GitBuildException(e);
+                }
+                catch (Exception e) {
+                        throw new GitBuildException("Unexpected error.", e);
+                }
+        }
+
+}
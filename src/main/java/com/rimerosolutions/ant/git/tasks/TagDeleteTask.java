@@ -65,7 +65,7 @@ public class TagDeleteTask extends AbstractGitRepoAwareTask {
         @Override
         protected void doExecute() {
                 try {
-                        git.tagDelete().setTags(tags).call();
+                        callCommand(git.tagDelete().setTags(tags));
                 } catch (GitAPIException e) {
                         throw new GitBuildException(MESSAGE_TAG_DELETE_FAILED, e);
                 }
@@ -57,6 +57,11 @@ public class TagListTask extends AbstractGitRepoAwareTask {
                 return TASK_NAME;
         }
 
+        @Override
+        public boolean isReadOnly() {
+                return true;
+        }
+
         /**
          * Sets the output file that will contain the list of branches
          *
@@ -89,7 +94,7 @@ public class TagListTask extends AbstractGitRepoAwareTask {
         @Override
         protected void doExecute() {
                 try {
-                        List<Ref> tagRefList = git.tagList().call();
+                        List<Ref> tagRefList = callCommand(git.tagList());
                         processReferencesAndOutput(tagRefList);
                 } catch (GitAPIException e) {
                         throw new GitBuildException(MESSAGE_TAG_LIST_FAILED, e);
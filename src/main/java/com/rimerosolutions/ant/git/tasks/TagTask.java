@@ -84,7 +84,7 @@ public class TagTask extends AbstractGitRepoAwareTask {
                 }
 
                 try {
-                        git.tag().setName(name).setTagger(gitSettings.getIdentity()).setMessage(message).call();
+                        callCommand(git.tag().setName(name).setTagger(gitSettings.getIdentity()).setMessage(message));
                 } catch (GitAPIException ex) {
                         throw new GitBuildException(String.format(MESSAGE_TAG_CREATE_FAILED, name), ex);
                 }
@@ -15,17 +15,38 @@
  */
 package com.rimerosolutions.ant.git.tasks;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.tools.ant.BuildException;
-import org.eclipse.jgit.api.Status;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+import org.eclipse.jgit.dircache.DirCacheIterator;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.IndexDiff;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
 import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.IndexDiffFilter;
+import org.eclipse.jgit.treewalk.filter.OrTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.SkipWorkTreeFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
 import com.rimerosolutions.ant.git.AbstractGitRepoAwareTask;
+import com.rimerosolutions.ant.git.AntPatternTreeFilter;
 import com.rimerosolutions.ant.git.GitBuildException;
+import com.rimerosolutions.ant.git.GitTaskUtils;
+import com.rimerosolutions.ant.git.GitTreeStatus;
+import com.rimerosolutions.ant.git.GitUntrackedCache;
+import com.rimerosolutions.ant.git.GitWorkTreeWatcher;
+import com.rimerosolutions.ant.git.ParallelStatusScanner;
 
 /**
  * Checks whether or not the Git Tree is up to date.
@@ -35,6 +56,53 @@ import com.rimerosolutions.ant.git.GitBuildException;
  *  <git:uptodate failOnError="true"/>
  * </git:git>}</pre>
  *
+ * <p>When only the outcome matters, the quick check stops at the first modification
+ * instead of collecting all the modified paths:</p>
+ *
+ * <pre>{@code
+ * <git:git directory="${testLocalRepo}">
+ *  <git:uptodate quickCheck="true" includeUntracked="false" modificationExistProperty="tree.modified" failOnError="false"/>
+ * </git:git>}</pre>
+ *
+ * <p>The check can be restricted to some paths of the repository, using repository relative folders,
+ * include and exclude patterns relative to the repository root or nested filesets. Only the matching
+ * paths are walked:</p>
+ *
+ * <pre>{@code
+ * <git:git directory="${testLocalRepo}">
+ *  <git:uptodate paths="modules/core,build.xml" modificationExistProperty="core.modified" failOnError="false"/>
+ *  <git:uptodate includes="modules/web/**" excludes="modules/web/target/**" modificationExistProperty="web.modified" failOnError="false"/>
+ *  <git:uptodate modificationExistProperty="docs.modified" failOnError="false">
+ *    <fileset dir="${testLocalRepo}/docs" includes="*.md"/>
+ *  </git:uptodate>
+ * </git:git>}</pre>
+ *
+ * <p>On large trees, the status can be computed on several threads, one top-level folder at a time:</p>
+ *
+ * <pre>{@code
+ * <git:git directory="${testLocalRepo}">
+ *  <git:uptodate threads="8" failOnError="true"/>
+ * </git:git>}</pre>
+ *
+ * <p>Builds checking the same working tree several times can keep watching it, so that only the paths changed since
+ * the previous check are scanned again. The watcher belongs to the JVM rather than to the build: builds run again in the
+ * same JVM, from an IDE or a build daemon, only rescan what changed in between. The price is a watch handle per folder
+ * of the working tree and a notification thread kept after the build, until the watcher goes unused for
+ * <code>watchIdleTimeout</code> seconds. A command line build gains nothing past its own checks, its JVM exits with the build.</p>
+ *
+ * <pre>{@code
+ * <git:git directory="${testLocalRepo}">
+ *  <git:uptodate watch="true" watchIdleTimeout="600" modificationExistProperty="tree.modified" failOnError="false"/>
+ * </git:git>}</pre>
+ *
+ * <p>Finding untracked files can be sped up with an untracked cache, stored under the git directory.
+ * Untracked folders which didn't change since the previous check are not walked again:</p>
+ *
+ * <pre>{@code
+ * <git:git directory="${testLocalRepo}">
+ *  <git:uptodate untrackedCache="true" failOnError="true"/>
+ * </git:git>}</pre>
+ *
  * <p><a href="http://www.kernel.org/pub/software/scm/git/docs/git-status.html">Git documentation about status</a></p>
  * <p><a href="http://download.eclipse.org/jgit/docs/latest/apidocs/org/eclipse/jgit/api/StatusCommand.html">JGit StatusCommand</a></p>
  *
@@ -43,16 +111,61 @@ import com.rimerosolutions.ant.git.GitBuildException;
 public class UpToDateTask extends AbstractGitRepoAwareTask {
 
         private String modificationExistProperty;
+        private boolean quickCheck = false;
+        private boolean includeUntracked = true;
+        private String paths;
+        private String includes;
+        private String excludes;
+        private final List<FileSet> filesets = new ArrayList<FileSet>();
+        private int threads = 1;
+        private boolean watch = false;
+        private int watchIdleTimeout = 300;
+        private boolean untrackedCache = false;
         private static final String TASK_NAME = "git-status";
         private static final String MESSAGE_UPTODATE_FAILED = "IO Error when checking repository status";
         private static final String MESSAGE_UPTODATE_SUCCESS = "The Git tree is up to date!";
+        private static final String MESSAGE_INCREMENTAL_SCAN = "Only the paths changed since the previous check were scanned.";
+        private static final String MESSAGE_TREE_MODIFIED = "The Git tree was modified.";
         private static final String STATUS_NOT_CLEAN_TEMPLATE = "Status is not clean:'%s'";
+        private static final int TREE = 0;
+        private static final int INDEX = 1;
+        private static final int WORKDIR = 2;
+
+        /**
+         * Excludes the paths which are neither in HEAD nor in the index, untracked folders are not walked.
+         */
+        private static final TreeFilter TRACKED_PATHS_FILTER = new TreeFilter() {
+                        @Override
+                        public boolean include(TreeWalk walker) {
+                                return walker.getRawMode(TREE) != 0 || walker.getRawMode(INDEX) != 0;
+                        }
+
+                        @Override
+                        public boolean shouldBeRecursive() {
+                                return false;
+                        }
+
+                        @Override
+                        public TreeFilter clone() {
+                                return this;
+                        }
+
+                        @Override
+                        public String toString() {
+                                return "TRACKED_PATHS";
+                        }
+                };
 
         @Override
         public String getName() {
                 return TASK_NAME;
         }
 
+        @Override
+        public boolean isReadOnly() {
+                return true;
+        }
+
         /**
          * Sets a given project property if the tree is modified
          *
@@ -63,35 +176,178 @@ public class UpToDateTask extends AbstractGitRepoAwareTask {
                 this.modificationExistProperty = p;
         }
 
+        /**
+         * Whether or not to stop at the first modification, without reporting the modified paths
+         *
+         * @antdoc.notrequired
+         * @param quickCheck Stop at the first modification? (Default false)
+         */
+        public void setQuickCheck(boolean quickCheck) {
+                this.quickCheck = quickCheck;
+        }
+
+        /**
+         * Whether or not untracked files count as modifications. Untracked folders are not walked when excluded.
+         *
+         * @antdoc.notrequired
+         * @param includeUntracked Untracked files modify the tree? (Default true)
+         */
+        public void setIncludeUntracked(boolean includeUntracked) {
+                this.includeUntracked = includeUntracked;
+        }
+
+        /**
+         * Restricts the check to some paths of the repository (comma-separated list of repository relative files or folders)
+         *
+         * @antdoc.notrequired
+         * @param paths Comma-separated list of repository relative paths
+         */
+        public void setPaths(String paths) {
+                if (GitTaskUtils.isNullOrBlankString(paths)) {
+                        throw new BuildException("Invalid paths.");
+                }
+
+                this.paths = paths;
+        }
+
+        /**
+         * Restricts the check to the paths matching some patterns (comma or space separated Ant patterns, relative to the repository root)
+         *
+         * @antdoc.notrequired
+         * @param includes The include patterns
+         */
+        public void setIncludes(String includes) {
+                this.includes = includes;
+        }
+
+        /**
+         * Excludes the paths matching some patterns from the check (comma or space separated Ant patterns, relative to the repository root)
+         *
+         * @antdoc.notrequired
+         * @param excludes The exclude patterns
+         */
+        public void setExcludes(String excludes) {
+                this.excludes = excludes;
+        }
+
+        /**
+         * Restricts the check to the paths selected by a fileset, using its folder and patterns. Default excludes don't apply.
+         *
+         * @antdoc.notrequired
+         * @param fileset The fileset to check
+         */
+        public void addFileset(FileSet fileset) {
+                filesets.add(fileset);
+        }
+
+        /**
+         * Sets the number of threads scanning the working tree, the quick check always runs on a single thread
+         *
+         * @antdoc.notrequired
+         * @param threads The number of threads (Default 1)
+         */
+        public void setThreads(int threads) {
+                if (threads < 1) {
+                        throw new BuildException("The number of threads must be at least 1.");
+                }
+
+                this.threads = threads;
+        }
+
+        /**
+         * Whether or not to keep watching the working tree for changes, later checks only scan the changed paths.
+         * The full status is always computed in watch mode, the quick check doesn't apply.
+         *
+         * @antdoc.notrequired
+         * @param watch Watch the working tree? (Default false)
+         */
+        public void setWatch(boolean watch) {
+                this.watch = watch;
+        }
+
+        /**
+         * Sets the time after which an unused working tree watcher is closed
+         *
+         * @antdoc.notrequired
+         * @param watchIdleTimeout The idle timeout in seconds, 0 to watch until the JVM exits (Default 300)
+         */
+        public void setWatchIdleTimeout(int watchIdleTimeout) {
+                if (watchIdleTimeout < 0) {
+                        throw new BuildException("The watch idle timeout cannot be negative.");
+                }
+
+                this.watchIdleTimeout = watchIdleTimeout;
+        }
+
+        /**
+         * Whether or not to use the untracked cache of the repository, when checking the whole tree.
+         * Untracked folders which didn't change since the previous check are not walked again.
+         *
+         * @antdoc.notrequired
+         * @param untrackedCache Use the untracked cache? (Default false)
+         */
+        public void setUntrackedCache(boolean untrackedCache) {
+                this.untrackedCache = untrackedCache;
+        }
+
         @Override
         protected void doExecute() throws BuildException {
                 Repository repo = git.getRepository();
 
-                FileTreeIterator workingTreeIterator = new FileTreeIterator(repo);
-
                 try {
-                        IndexDiff diff = new IndexDiff(repo, Constants.HEAD, workingTreeIterator);
-                        diff.diff();
+                        long start = System.nanoTime();
+                        TreeFilter filter = createTreeFilter(repo);
 
-                        Status status = new Status(diff);
+                        if (quickCheck && !watch) {
+                                String modifiedPath = findFirstModification(repo, filter);
+                                addCommandTime(start);
 
-                        if (!status.isClean()) {
-                                if (modificationExistProperty != null) {
-                                        getProject().setProperty(modificationExistProperty, "true");
+                                if (modifiedPath != null) {
+                                        treeModified(MESSAGE_TREE_MODIFIED + "\n" + "First modification:" + modifiedPath);
+                                }
+                                else {
+                                        log(MESSAGE_UPTODATE_SUCCESS);
+                                }
+
+                                return;
+                        }
+
+                        GitTreeStatus status;
+
+                        if (watch) {
+                                GitWorkTreeWatcher watcher = GitWorkTreeWatcher.forWorkTree(repo.getWorkTree(), TimeUnit.SECONDS.toMillis(watchIdleTimeout));
+                                status = watcher.status(repo, filter, threads, untrackedCache ? GitUntrackedCache.load(repo) : null);
+
+                                if (watcher.isLastScanIncremental()) {
+                                        log(MESSAGE_INCREMENTAL_SCAN, Project.MSG_VERBOSE);
+                                }
+                        }
+                        else if (threads > 1 || untrackedCache) {
+                                ParallelStatusScanner scanner = new ParallelStatusScanner(repo, threads);
+                                scanner.setFilter(filter);
+
+                                if (untrackedCache) {
+                                        scanner.setUntrackedCache(GitUntrackedCache.load(repo));
                                 }
 
-                                if (isFailOnError()) {
-                                        StringBuilder msg = new StringBuilder();
-                                        msg.append("The Git tree was modified.");
-                                        msg.append("\n").append("Changed:").append(status.getChanged());
-                                        msg.append("\n").append("Added:").append(status.getAdded());
-                                        msg.append("\n").append("Modified:").append(status.getModified());
-                                        msg.append("\n").append("Missing:").append(status.getMissing());
-                                        msg.append("\n").append("Removed:").append(status.getRemoved());
-                                        msg.append("\n").append("Untracked:").append(status.getUntracked());
-
-                                        throw new GitBuildException(String.format(STATUS_NOT_CLEAN_TEMPLATE, msg.toString()));
+                                status = scanner.scan();
+                        }
+                        else {
+                                FileTreeIterator workingTreeIterator = new FileTreeIterator(repo);
+                                IndexDiff diff = new IndexDiff(repo, Constants.HEAD, workingTreeIterator);
+
+                                if (filter != TreeFilter.ALL) {
+                                        diff.setFilter(filter);
                                 }
+
+                                diff.diff();
+                                status = GitTreeStatus.of(diff);
+                        }
+
+                        addCommandTime(start);
+
+                        if (!status.isClean()) {
+                                treeModified(MESSAGE_TREE_MODIFIED + "\n" + status);
                         } else {
                                 log(MESSAGE_UPTODATE_SUCCESS);
                         }
@@ -100,4 +356,122 @@ public class UpToDateTask extends AbstractGitRepoAwareTask {
                 }
 
         }
+
+        private void treeModified(String details) {
+                if (modificationExistProperty != null) {
+                        setProjectProperty(modificationExistProperty, "true");
+                }
+
+                if (isFailOnError()) {
+                        throw new GitBuildException(String.format(STATUS_NOT_CLEAN_TEMPLATE, details));
+                }
+        }
+
+        /**
+         * Combines the path restrictions of the task, the matching paths of any restriction are checked.
+         *
+         * @return The tree filter of the checked paths
+         */
+        private TreeFilter createTreeFilter(Repository repo) throws IOException {
+                List<TreeFilter> scopes = new ArrayList<TreeFilter>();
+
+                if (paths != null) {
+                        List<String> pathList = new ArrayList<String>();
+
+                        for (String path : paths.split(",")) {
+                                String normalizedPath = path.trim().replace('\\', '/').replaceAll("^/+|/+$", "");
+
+                                if (normalizedPath.length() == 0 || ".".equals(normalizedPath)) {
+                                        return includeUntracked ? TreeFilter.ALL : TRACKED_PATHS_FILTER;
+                                }
+
+                                pathList.add(normalizedPath);
+                        }
+
+                        scopes.add(PathFilterGroup.createFromStrings(pathList));
+                }
+
+                if (includes != null || excludes != null) {
+                        scopes.add(new AntPatternTreeFilter("", GitTaskUtils.splitPatterns(includes), GitTaskUtils.splitPatterns(excludes)));
+                }
+
+                if (!filesets.isEmpty()) {
+                        String workTreePath = repo.getWorkTree().getCanonicalPath();
+
+                        for (FileSet fileset : filesets) {
+                                String filesetPath = fileset.getDir(getProject()).getCanonicalPath();
+                                String basePath;
+
+                                if (filesetPath.equals(workTreePath)) {
+                                        basePath = "";
+                                }
+                                else if (filesetPath.startsWith(workTreePath + File.separator)) {
+                                        basePath = translateFilePathUsingPrefix(filesetPath, workTreePath);
+                                }
+                                else {
+                                        throw new BuildException(String.format("The fileset folder '%s' is outside of the repository.", filesetPath));
+                                }
+
+                                scopes.add(new AntPatternTreeFilter(basePath, fileset.mergeIncludes(getProject()), fileset.mergeExcludes(getProject())));
+                        }
+                }
+
+                TreeFilter filter = TreeFilter.ALL;
+
+                if (scopes.size() == 1) {
+                        filter = scopes.get(0);
+                }
+                else if (scopes.size() > 1) {
+                        filter = OrTreeFilter.create(scopes);
+                }
+
+                if (!includeUntracked) {
+                        filter = filter == TreeFilter.ALL ? TRACKED_PATHS_FILTER : AndTreeFilter.create(TRACKED_PATHS_FILTER, filter);
+                }
+
+                return filter;
+        }
+
+        /**
+         * Walks HEAD, the index and the working tree together, unchanged folders of the index are skipped
+         * and the walk stops at the first path which differs.
+         *
+         * @return The first modified path or null if the tree is up to date
+         */
+        private String findFirstModification(Repository repo, TreeFilter filter) throws IOException {
+                TreeWalk treeWalk = new TreeWalk(repo);
+
+                try {
+                        ObjectId headTree = repo.resolve(Constants.HEAD + "^{tree}");
+
+                        if (headTree != null) {
+                                treeWalk.addTree(headTree);
+                        }
+                        else {
+                                treeWalk.addTree(new EmptyTreeIterator());
+                        }
+
+                        treeWalk.addTree(new DirCacheIterator(repo.readDirCache()));
+                        treeWalk.addTree(new FileTreeIterator(repo));
+                        treeWalk.setRecursive(true);
+
+                        TreeFilter indexDiffFilter = AndTreeFilter.create(new SkipWorkTreeFilter(INDEX), new IndexDiffFilter(INDEX, WORKDIR));
+
+                        if (filter == TreeFilter.ALL) {
+                                treeWalk.setFilter(indexDiffFilter);
+                        }
+                        else {
+                                treeWalk.setFilter(AndTreeFilter.create(filter, indexDiffFilter));
+                        }
+
+                        if (treeWalk.next()) {
+                                return treeWalk.getPathString();
+                        }
+
+                        return null;
+                }
+                finally {
+                        treeWalk.release();
+                }
+        }
 }
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import static com.rimerosolutions.ant.git.GitTestUtils.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+/**
+ * Unit test for the mirror cache
+ *
+ * @author Yves Zoundi
+ */
+public class GitMirrorCacheTest {
+
+        private File folder;
+        private File cacheDir;
+        private Git source;
+
+        @Before
+        public void initializeRepository() throws Exception {
+                folder = createTempFolder("mirror-cache");
+
+                cacheDir = new File(folder, "cache");
+                source = Git.init().setDirectory(new File(folder, "source")).call();
+        }
+
+        @After
+        public void deleteRepository() throws IOException {
+                source.getRepository().close();
+                deleteTempFolder(folder);
+        }
+
+        @Test
+        public void testMirrorFetchedIncrementally() throws Exception {
+                String uri = source.getRepository().getDirectory().getPath();
+                GitMirrorCache cache = new GitMirrorCache(cacheDir);
+
+                RevCommit first = commit("first");
+                File directory = update(cache, uri);
+
+                assertTrue(directory.getName().matches("source-[0-9a-f]{16}\\.git"));
+                assertEquals(first.getId(), resolve(directory, "refs/heads/master"));
+
+                RevCommit second = commit("second");
+                source.tag().setName("v1").call();
+
+                assertEquals(directory, update(cache, uri));
+                assertEquals(second.getId(), resolve(directory, "refs/heads/master"));
+                assertEquals(second.getId(), resolve(directory, "refs/tags/v1^{commit}"));
+        }
+
+        @Test
+        public void testMirrorNames() {
+                assertTrue(GitMirrorCache.mirrorName("https://github.com/rimerosolutions/ant-git-tasks.git").startsWith("ant-git-tasks-"));
+                assertTrue(GitMirrorCache.mirrorName("git@github.com:project/").startsWith("project-"));
+                assertFalse(GitMirrorCache.mirrorName("file:///a/project").equals(GitMirrorCache.mirrorName("file:///b/project")));
+        }
+
+        @Test
+        public void testIdleAndLeastRecentlyUsedMirrorsEvicted() throws Exception {
+                commit("content");
+                GitMirrorCache cache = new GitMirrorCache(cacheDir);
+                File idle = update(cache, source.getRepository().getDirectory().getPath());
+                File eldest = update(cache, source.getRepository().getWorkTree().getPath());
+                File recent = update(cache, "file://" + source.getRepository().getDirectory().getPath());
+
+                long now = System.currentTimeMillis();
+                lockFile(idle).setLastModified(now - TimeUnit.DAYS.toMillis(10));
+                lockFile(eldest).setLastModified(now - TimeUnit.DAYS.toMillis(2));
+                lockFile(recent).setLastModified(now - TimeUnit.DAYS.toMillis(1));
+
+                assertTrue(cache.evict().isEmpty());
+
+                cache.setMaxIdleTime(TimeUnit.DAYS.toMillis(5));
+                assertEquals(Arrays.asList(idle), cache.evict());
+
+                cache.setMaxSize(1);
+                GitMirrorCache.Mirror inUse = cache.acquire("file://" + source.getRepository().getDirectory().getPath());
+
+                try {
+                        assertEquals(Arrays.asList(eldest), cache.evict());
+                }
+                finally {
+                        inUse.release();
+                }
+
+                assertFalse(idle.exists());
+                assertFalse(eldest.exists());
+                assertTrue(recent.exists());
+        }
+
+        @Test
+        public void testMirrorLockedUntilReleased() throws Exception {
+                final GitMirrorCache cache = new GitMirrorCache(cacheDir);
+                final String uri = source.getRepository().getDirectory().getPath();
+                final AtomicBoolean acquired = new AtomicBoolean();
+                GitMirrorCache.Mirror mirror = cache.acquire(uri);
+
+                Thread thread = new Thread() {
+                                @Override
+                                public void run() {
+                                        try {
+                                                cache.acquire(uri).release();
+                                                acquired.set(true);
+                                        }
+                                        catch (IOException e) {
+                                                throw new IllegalStateException(e);
+                                        }
+                                }
+                        };
+
+                try {
+                        thread.start();
+                        thread.join(200);
+
+                        assertFalse(acquired.get());
+                }
+                finally {
+                        mirror.release();
+                }
+
+                thread.join(5000);
+
+                assertTrue(acquired.get());
+        }
+
+        private File update(GitMirrorCache cache, String uri) throws Exception {
+                GitMirrorCache.Mirror mirror = cache.acquire(uri);
+
+                try {
+                        mirror.fetch().call();
+
+                        return mirror.getDirectory();
+                }
+                finally {
+                        mirror.release();
+                }
+        }
+
+        private RevCommit commit(String content) throws Exception {
+                writeFile(source.getRepository().getWorkTree(), "file.txt", content);
+                source.add().addFilepattern("file.txt").call();
+
+                return source.commit().setMessage(content).call();
+        }
+
+        private static File lockFile(File mirror) {
+                return new File(mirror.getPath().replaceAll("\\.git$", ".lock"));
+        }
+
+        private static ObjectId resolve(File directory, String revision) throws IOException {
+                Repository repository = new RepositoryBuilder().setGitDir(directory).build();
+
+                try {
+                        return repository.resolve(revision);
+                }
+                finally {
+                        repository.close();
+                }
+        }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import static com.rimerosolutions.ant.git.GitTestUtils.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+/**
+ * Unit test for the objects linker
+ *
+ * @author Yves Zoundi
+ */
+public class GitObjectsLinkerTest {
+
+        private File folder;
+        private Git source;
+        private Git target;
+
+        @Before
+        public void initializeRepositories() throws Exception {
+                folder = createTempFolder("objects-linker");
+
+                source = Git.init().setDirectory(new File(folder, "source")).call();
+                target = Git.init().setDirectory(new File(folder, "target")).setBare(true).call();
+        }
+
+        @After
+        public void deleteRepositories() throws IOException {
+                source.getRepository().close();
+                target.getRepository().close();
+                deleteTempFolder(folder);
+        }
+
+        @Test
+        public void testLooseObjectsAndPacksLinked() throws Exception {
+                writeFile(source.getRepository().getWorkTree(), "file.txt", "loose");
+                source.add().addFilepattern("file.txt").call();
+                RevCommit commit = source.commit().setMessage("initial").call();
+
+                byte[] content = Constants.encode("packed");
+                GitPackInserter packInserter = new GitPackInserter(source.getRepository());
+                ObjectId packedId;
+
+                try {
+                        packedId = packInserter.insert(Constants.OBJ_BLOB, content.length, new ByteArrayInputStream(content));
+                        packInserter.flush();
+                }
+                finally {
+                        packInserter.release();
+                }
+
+                File sourceObjects = new File(source.getRepository().getDirectory(), "objects");
+                File targetObjects = new File(target.getRepository().getDirectory(), "objects");
+                GitObjectsLinker linker = new GitObjectsLinker(sourceObjects, targetObjects);
+
+                assertTrue(linker.canLink());
+                assertEquals(5, linker.link());
+
+                String looseObject = commit.name().substring(0, 2) + "/" + commit.name().substring(2);
+                assertTrue(Files.isSameFile(new File(sourceObjects, looseObject).toPath(), new File(targetObjects, looseObject).toPath()));
+
+                Repository repository = new RepositoryBuilder().setGitDir(target.getRepository().getDirectory()).build();
+
+                try {
+                        assertEquals(Constants.OBJ_COMMIT, repository.open(commit).getType());
+                        assertEquals(Constants.OBJ_TREE, repository.open(commit.getTree()).getType());
+                        assertEquals("packed", new String(repository.open(packedId).getBytes(), "UTF-8"));
+                }
+                finally {
+                        repository.close();
+                }
+        }
+
+        @Test
+        public void testAlternatesCopied() throws Exception {
+                File sourceObjects = new File(source.getRepository().getDirectory(), "objects");
+                File targetObjects = new File(target.getRepository().getDirectory(), "objects");
+                File alternate = new File(folder, "shared/objects");
+                alternate.mkdirs();
+
+                writeFile(sourceObjects, "info/alternates", "../../../shared/objects\n");
+
+                assertEquals(1, new GitObjectsLinker(sourceObjects, targetObjects).link());
+
+                String alternates = readFile(new File(targetObjects, "info/alternates"));
+                assertEquals(alternate.getCanonicalPath() + "\n", alternates);
+        }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import static com.rimerosolutions.ant.git.GitTestUtils.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryBuilder;
+
+/**
+ * Unit test for the pack inserter
+ *
+ * @author Yves Zoundi
+ */
+public class GitPackInserterTest {
+
+        private File workTree;
+        private Git git;
+
+        @Before
+        public void initializeRepository() throws Exception {
+                workTree = createTempFolder("pack-inserter");
+
+                git = Git.init().setDirectory(workTree).call();
+        }
+
+        @After
+        public void deleteRepository() throws IOException {
+                git.getRepository().close();
+                deleteTempFolder(workTree);
+        }
+
+        @Test
+        public void testObjectsWrittenToSinglePack() throws Exception {
+                writeFile(workTree, "existing.txt", "existing");
+                git.add().addFilepattern("existing.txt").call();
+                ObjectId existingId = git.getRepository().readDirCache().getEntry("existing.txt").getObjectId();
+
+                GitPackInserter packInserter = new GitPackInserter(git.getRepository());
+                packInserter.setStreamThreshold(16);
+                ObjectId[] ids = new ObjectId[4];
+
+                try {
+                        ids[0] = insert(packInserter, "small");
+                        ids[1] = insert(packInserter, "streamed content larger than the threshold");
+                        assertEquals(ids[0], insert(packInserter, "small"));
+                        assertEquals(ids[1], insert(packInserter, "streamed content larger than the threshold"));
+                        assertEquals(existingId, insert(packInserter, "existing"));
+                        ids[2] = insert(packInserter, "another streamed content larger than the threshold");
+                        ids[3] = insert(packInserter, "");
+                        packInserter.flush();
+                }
+                finally {
+                        packInserter.release();
+                }
+
+                File packFolder = new File(git.getRepository().getDirectory(), "objects/pack");
+                String[] packFiles = packFolder.list();
+                Arrays.sort(packFiles);
+
+                assertEquals(2, packFiles.length);
+                assertTrue(packFiles[0].matches("pack-[0-9a-f]{40}\\.idx"));
+                assertTrue(packFiles[1].matches("pack-[0-9a-f]{40}\\.pack"));
+
+                Repository repository = new RepositoryBuilder().setGitDir(git.getRepository().getDirectory()).build();
+
+                try {
+                        assertEquals("small", read(repository, ids[0]));
+                        assertEquals("streamed content larger than the threshold", read(repository, ids[1]));
+                        assertEquals("another streamed content larger than the threshold", read(repository, ids[2]));
+                        assertEquals("", read(repository, ids[3]));
+
+                        for (ObjectId id : ids) {
+                                assertFalse(new File(repository.getDirectory(), "objects/" + id.name().substring(0, 2)).exists());
+                        }
+                }
+                finally {
+                        repository.close();
+                }
+        }
+
+        @Test
+        public void testNothingWrittenWithoutNewObjects() throws Exception {
+                GitPackInserter packInserter = new GitPackInserter(git.getRepository());
+
+                try {
+                        packInserter.flush();
+                }
+                finally {
+                        packInserter.release();
+                }
+
+                String[] packFiles = new File(git.getRepository().getDirectory(), "objects/pack").list();
+
+                assertTrue(packFiles == null || packFiles.length == 0);
+        }
+
+        private static ObjectId insert(GitPackInserter packInserter, String content) throws IOException {
+                byte[] bytes = Constants.encode(content);
+
+                return packInserter.insert(Constants.OBJ_BLOB, bytes.length, new ByteArrayInputStream(bytes));
+        }
+
+        private static String read(Repository repository, ObjectId id) throws IOException {
+                return new String(repository.open(id, Constants.OBJ_BLOB).getBytes(), "UTF-8");
+        }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import static com.rimerosolutions.ant.git.GitTestUtils.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Unit test for the remote references snapshot
+ *
+ * @author Yves Zoundi
+ */
+public class GitRefsSnapshotTest {
+
+        private static final ObjectId FIRST = ObjectId.fromString("0123456789abcdef0123456789abcdef01234567");
+        private static final ObjectId SECOND = ObjectId.fromString("89abcdef0123456789abcdef0123456789abcdef");
+        private File folder;
+
+        @Before
+        public void createFolder() throws IOException {
+                folder = createTempFolder("refs-snapshot");
+        }
+
+        @After
+        public void deleteFolder() throws IOException {
+                deleteTempFolder(folder);
+        }
+
+        @Test
+        public void testSnapshotWrittenAndRead() throws IOException {
+                File file = new File(folder, "cache/remote.refs");
+                Map<String, ObjectId> refs = new HashMap<String, ObjectId>();
+                refs.put("refs/heads/master", FIRST);
+                refs.put("HEAD", FIRST);
+                refs.put("refs/tags/v1", SECOND);
+
+                new GitRefsSnapshot(refs).write(file);
+
+                GitRefsSnapshot snapshot = GitRefsSnapshot.read(file);
+                assertEquals(Arrays.asList("HEAD", "refs/heads/master", "refs/tags/v1"), Arrays.asList(snapshot.getRefs().keySet().toArray()));
+                assertEquals(SECOND, snapshot.getRefs().get("refs/tags/v1"));
+                assertEquals(1, folder.listFiles().length);
+                assertEquals(1, file.getParentFile().listFiles().length);
+        }
+
+        @Test
+        public void testMissingSnapshotEmpty() throws IOException {
+                assertTrue(GitRefsSnapshot.read(new File(folder, "missing.refs")).getRefs().isEmpty());
+        }
+
+        @Test(expected = IOException.class)
+        public void testInvalidSnapshotRejected() throws IOException {
+                File file = writeFile(folder, "invalid.refs", "not a snapshot\n");
+
+                GitRefsSnapshot.read(file);
+        }
+
+        @Test
+        public void testChangedRefs() {
+                Map<String, ObjectId> previousRefs = new HashMap<String, ObjectId>();
+                previousRefs.put("refs/heads/master", FIRST);
+                previousRefs.put("refs/heads/feature", FIRST);
+                previousRefs.put("refs/heads/stable", FIRST);
+
+                Map<String, ObjectId> refs = new HashMap<String, ObjectId>();
+                refs.put("refs/heads/master", SECOND);
+                refs.put("refs/heads/stable", FIRST);
+                refs.put("refs/tags/v2", SECOND);
+
+                GitRefsSnapshot previous = new GitRefsSnapshot(previousRefs);
+                GitRefsSnapshot snapshot = new GitRefsSnapshot(refs);
+
+                assertEquals(Arrays.asList("refs/tags/v2"), snapshot.added(previous));
+                assertEquals(Arrays.asList("refs/heads/master"), snapshot.updated(previous));
+                assertEquals(Arrays.asList("refs/heads/feature"), snapshot.removed(previous));
+                assertEquals(Collections.emptyList(), snapshot.updated(snapshot));
+        }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import static com.rimerosolutions.ant.git.GitTestUtils.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Unit test for the repository cache
+ *
+ * @author Yves Zoundi
+ */
+public class GitRepositoryCacheTest {
+
+        private File workTree;
+        private File otherWorkTree;
+        private GitRepositoryCache cache;
+
+        @Before
+        public void initializeRepository() throws Exception {
+                workTree = createTempFolder("repository-cache");
+                new File(workTree, "sub").mkdirs();
+
+                Git.init().setDirectory(workTree).call().getRepository().close();
+
+                otherWorkTree = new File(workTree, "other");
+                Git.init().setDirectory(otherWorkTree).call().getRepository().close();
+
+                cache = new GitRepositoryCache();
+        }
+
+        @After
+        public void deleteRepository() throws IOException {
+                cache.close();
+                deleteTempFolder(workTree);
+        }
+
+        @Test
+        public void testAcquireSameDirectoryTwice() throws IOException {
+                Repository first = cache.acquire(workTree);
+                Repository second = cache.acquire(workTree);
+
+                assertSame(first, second);
+
+                first.close();
+                second.close();
+        }
+
+        @Test
+        public void testAcquireFromWorkTreeSubFolder() throws IOException {
+                Repository first = cache.acquire(workTree);
+                Repository second = cache.acquire(new File(workTree, "sub"));
+
+                assertSame(first, second);
+
+                first.close();
+                second.close();
+        }
+
+        @Test
+        public void testAcquireAfterClose() throws IOException {
+                Repository first = cache.acquire(workTree);
+                first.close();
+                cache.close();
+
+                Repository second = cache.acquire(workTree);
+
+                assertNotSame(first, second);
+
+                second.close();
+        }
+
+        @Test
+        public void testLeastRecentlyUsedEviction() throws IOException {
+                cache.setMaxRepositories(1);
+
+                cache.acquire(workTree).close();
+                cache.acquire(otherWorkTree).close();
+
+                assertEquals(1, cache.size());
+        }
+
+        @Test
+        public void testIdleEviction() throws Exception {
+                cache.setIdleTimeout(1);
+                cache.acquire(workTree).close();
+
+                Thread.sleep(10);
+                cache.evictIdleRepositories();
+
+                assertEquals(0, cache.size());
+        }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import static com.rimerosolutions.ant.git.GitTestUtils.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+/**
+ * Unit test for the sparse checkout
+ *
+ * @author Yves Zoundi
+ */
+public class GitSparseCheckoutTest {
+
+        private File workTree;
+        private Git git;
+
+        @Before
+        public void initializeRepository() throws Exception {
+                workTree = createTempFolder("sparse-checkout");
+
+                git = Git.init().setDirectory(workTree).call();
+                writeFile(workTree, "build.xml", "<project/>");
+                writeFile(workTree, "src/main/Main.java", "class Main {}");
+                writeFile(workTree, "src/test/MainTest.java", "class MainTest {}");
+                writeFile(workTree, "docs/guide/index.html", "<html/>");
+                git.add().addFilepattern(".").call();
+                git.commit().setMessage("initial").call();
+        }
+
+        @After
+        public void deleteRepository() throws IOException {
+                git.getRepository().close();
+                deleteTempFolder(workTree);
+        }
+
+        @Test
+        public void testOnlyMatchingFilesKept() throws Exception {
+                GitSparseCheckout sparseCheckout = new GitSparseCheckout(git.getRepository(), new String[]{"src/**"}, new String[]{"src/test/**"});
+                sparseCheckout.apply();
+
+                assertEquals(0, sparseCheckout.getWrittenCount());
+                assertEquals(3, sparseCheckout.getSkippedCount());
+                assertTrue(new File(workTree, "src/main/Main.java").exists());
+                assertFalse(new File(workTree, "src/test").exists());
+                assertFalse(new File(workTree, "docs").exists());
+                assertFalse(new File(workTree, "build.xml").exists());
+
+                DirCache dirCache = git.getRepository().readDirCache();
+
+                assertEquals(4, dirCache.getEntryCount());
+                assertTrue(dirCache.getEntry("build.xml").isSkipWorkTree());
+                assertTrue(dirCache.getEntry("docs/guide/index.html").isSkipWorkTree());
+                assertFalse(dirCache.getEntry("src/main/Main.java").isSkipWorkTree());
+                assertTrue(git.status().call().isClean());
+        }
+
+        @Test
+        public void testSkippedFilesCheckedOutAgain() throws Exception {
+                new GitSparseCheckout(git.getRepository(), new String[]{"build.xml"}, null).apply();
+
+                GitSparseCheckout sparseCheckout = new GitSparseCheckout(git.getRepository(), new String[]{"docs/", "build.xml"}, null);
+                sparseCheckout.apply();
+
+                assertEquals(1, sparseCheckout.getWrittenCount());
+                assertEquals("<html/>", readFile(new File(workTree, "docs/guide/index.html")));
+                assertFalse(git.getRepository().readDirCache().getEntry("docs/guide/index.html").isSkipWorkTree());
+                assertFalse(new File(workTree, "src").exists());
+                assertTrue(git.status().call().isClean());
+        }
+
+        @Test
+        public void testRestoredFilesNoLongerSkipped() throws Exception {
+                new GitSparseCheckout(git.getRepository(), new String[]{"build.xml"}, null).apply();
+                git.checkout().addPath("docs/guide/index.html").call();
+
+                GitSparseCheckout sparseCheckout = new GitSparseCheckout(git.getRepository());
+                sparseCheckout.apply();
+
+                DirCache dirCache = git.getRepository().readDirCache();
+
+                assertEquals(0, sparseCheckout.getWrittenCount());
+                assertEquals(2, sparseCheckout.getSkippedCount());
+                assertFalse(dirCache.getEntry("docs/guide/index.html").isSkipWorkTree());
+                assertTrue(dirCache.getEntry("src/main/Main.java").isSkipWorkTree());
+                assertFalse(new File(workTree, "src").exists());
+                assertTrue(git.status().call().isClean());
+        }
+
+        @Test
+        public void testLocalChangesKept() throws Exception {
+                writeFile(workTree, "docs/guide/index.html", "<html>modified</html>");
+                writeFile(workTree, "src/main/Added.java", "class Added {}");
+                git.add().addFilepattern("src/main/Added.java").call();
+
+                new GitSparseCheckout(git.getRepository(), new String[]{"build.xml"}, null).apply();
+
+                assertEquals("<html>modified</html>", readFile(new File(workTree, "docs/guide/index.html")));
+                assertEquals("class Added {}", readFile(new File(workTree, "src/main/Added.java")));
+                assertFalse(new File(workTree, "src/main/Main.java").exists());
+                assertEquals(5, git.getRepository().readDirCache().getEntryCount());
+                assertTrue(git.status().call().getAdded().contains("src/main/Added.java"));
+        }
+
+        @Test
+        public void testDeletedFilesLeftDeleted() throws Exception {
+                new GitSparseCheckout(git.getRepository(), new String[]{"src/**"}, null).apply();
+                assertTrue(new File(workTree, "src/main/Main.java").delete());
+
+                GitSparseCheckout sparseCheckout = new GitSparseCheckout(git.getRepository(), new String[]{"src/**", "build.xml"}, null);
+                sparseCheckout.apply();
+
+                assertEquals(1, sparseCheckout.getWrittenCount());
+                assertTrue(new File(workTree, "build.xml").exists());
+                assertFalse(new File(workTree, "src/main/Main.java").exists());
+                assertFalse(git.getRepository().readDirCache().getEntry("src/main/Main.java").isSkipWorkTree());
+                assertTrue(git.status().call().getMissing().contains("src/main/Main.java"));
+        }
+
+        @Test
+        public void testSkippedFilesKeptByCommit() throws Exception {
+                File cloneFolder = new File(workTree.getPath() + "-clone");
+                Git clone = Git.cloneRepository().setURI(workTree.getPath()).setDirectory(cloneFolder).setNoCheckout(true).call();
+
+                try {
+                        GitSparseCheckout.linkClonedHead(clone.getRepository(), "origin", null);
+                        new GitSparseCheckout(clone.getRepository(), new String[]{"src/main/**"}, null).apply();
+                        writeFile(cloneFolder, "src/main/Main.java", "class Main { void run() {} }");
+
+                        ParallelStager stager = new ParallelStager(clone.getRepository(), 1);
+                        stager.setUpdate(true);
+                        stager.addFilepattern(".");
+                        stager.stage();
+                        RevCommit commit = clone.commit().setMessage("sparse").call();
+
+                        Repository repository = clone.getRepository();
+                        assertNotNull(TreeWalk.forPath(repository, "build.xml", commit.getTree()));
+                        assertNotNull(TreeWalk.forPath(repository, "src/test/MainTest.java", commit.getTree()));
+                        assertNotNull(TreeWalk.forPath(repository, "docs/guide/index.html", commit.getTree()));
+                        ObjectId mainId = TreeWalk.forPath(repository, "src/main/Main.java", commit.getTree()).getObjectId(0);
+                        assertEquals("class Main { void run() {} }", new String(repository.open(mainId).getBytes(), "UTF-8"));
+                        assertTrue(repository.readDirCache().getEntry("build.xml").isSkipWorkTree());
+                        assertTrue(clone.status().call().isClean());
+                }
+                finally {
+                        clone.getRepository().close();
+                        deleteTempFolder(cloneFolder);
+                }
+        }
+
+        @Test
+        public void testCheckoutWithoutIndex() throws Exception {
+                File cloneFolder = new File(workTree.getPath() + "-clone");
+                Git clone = Git.cloneRepository().setURI(workTree.getPath()).setDirectory(cloneFolder).setNoCheckout(true).call();
+
+                try {
+                        ObjectId head = GitSparseCheckout.linkClonedHead(clone.getRepository(), "origin", null);
+                        GitSparseCheckout sparseCheckout = new GitSparseCheckout(clone.getRepository(), new String[]{"src/**/*.java"}, null);
+                        sparseCheckout.apply();
+
+                        assertEquals(git.getRepository().resolve("HEAD"), head);
+                        assertEquals("refs/heads/master", clone.getRepository().getFullBranch());
+
+                        assertEquals(2, sparseCheckout.getWrittenCount());
+                        assertEquals(2, sparseCheckout.getSkippedCount());
+                        assertEquals("class MainTest {}", readFile(new File(cloneFolder, "src/test/MainTest.java")));
+                        assertTrue(clone.status().call().isClean());
+                }
+                finally {
+                        clone.getRepository().close();
+                        deleteTempFolder(cloneFolder);
+                }
+        }
+
+        @Test
+        public void testSwitchWritesOnlySelection() throws Exception {
+                RevCommit feature = commitFeatureBranch();
+
+                GitSparseCheckout sparseCheckout = new GitSparseCheckout(git.getRepository(), new String[]{"src/main/**"}, null);
+                sparseCheckout.switchTo(feature);
+                sparseCheckout.apply();
+                git.getRepository().updateRef(Constants.HEAD).link(Constants.R_HEADS + "feature");
+
+                DirCache dirCache = git.getRepository().readDirCache();
+
+                assertEquals(2, sparseCheckout.getWrittenCount());
+                assertEquals(2, sparseCheckout.getSkippedCount());
+                assertEquals("class Main { void run() {} }", readFile(new File(workTree, "src/main/Main.java")));
+                assertEquals("class Util {}", readFile(new File(workTree, "src/main/Util.java")));
+                assertFalse(new File(workTree, "build.xml").exists());
+                assertFalse(new File(workTree, "docs").exists());
+                assertNull(dirCache.getEntry("build.xml"));
+                assertTrue(dirCache.getEntry("docs/guide/index.html").isSkipWorkTree());
+                assertEquals(TreeWalk.forPath(git.getRepository(), "docs/guide/index.html", feature.getTree()).getObjectId(0),
+                             dirCache.getEntry("docs/guide/index.html").getObjectId());
+                assertTrue(git.status().call().isClean());
+        }
+
+        @Test
+        public void testSwitchRefusedWithLocalChanges() throws Exception {
+                RevCommit feature = commitFeatureBranch();
+                writeFile(workTree, "src/main/Main.java", "class Main { void stop() {} }");
+
+                GitSparseCheckout sparseCheckout = new GitSparseCheckout(git.getRepository(), new String[]{"src/main/**"}, null);
+                sparseCheckout.switchTo(feature);
+
+                try {
+                        sparseCheckout.apply();
+                        fail("Local changes should not be overwritten");
+                }
+                catch (IOException e) {
+                        assertTrue(e.getMessage().contains("src/main/Main.java"));
+                }
+
+                assertEquals("class Main { void stop() {} }", readFile(new File(workTree, "src/main/Main.java")));
+                assertTrue(new File(workTree, "docs/guide/index.html").exists());
+                assertFalse(git.getRepository().readDirCache().getEntry("docs/guide/index.html").isSkipWorkTree());
+        }
+
+        private RevCommit commitFeatureBranch() throws Exception {
+                git.checkout().setCreateBranch(true).setName("feature").call();
+                writeFile(workTree, "src/main/Main.java", "class Main { void run() {} }");
+                writeFile(workTree, "src/main/Util.java", "class Util {}");
+                writeFile(workTree, "docs/guide/index.html", "<html>feature</html>");
+                git.rm().addFilepattern("build.xml").call();
+                git.add().addFilepattern(".").call();
+                RevCommit feature = git.commit().setMessage("feature").call();
+                git.checkout().setName("master").call();
+
+                return feature;
+        }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import static com.rimerosolutions.ant.git.GitTestUtils.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.submodule.SubmoduleWalk;
+
+/**
+ * Unit test for the parallel sub-module updater
+ *
+ * @author Yves Zoundi
+ */
+public class GitSubmoduleUpdaterTest {
+
+        private File folder;
+        private Git clone;
+        private RevCommit firstCommit;
+        private RevCommit secondCommit;
+
+        @Before
+        public void initializeRepositories() throws Exception {
+                folder = createTempFolder("submodule-updater");
+
+                Git library = Git.init().setDirectory(new File(folder, "library")).call();
+                firstCommit = commit(library, "first");
+                secondCommit = commit(library, "second");
+                library.getRepository().close();
+
+                Git parent = Git.init().setDirectory(new File(folder, "parent")).call();
+                String uri = new File(folder, "library").getPath();
+
+                for (String path : Arrays.asList("a", "b", "c")) {
+                        parent.submoduleAdd().setPath(path).setURI(uri).call().close();
+                }
+
+                parent.commit().setMessage("submodules").call();
+                parent.getRepository().close();
+
+                clone = Git.cloneRepository().setURI(new File(folder, "parent").getPath()).setDirectory(new File(folder, "clone")).call();
+                clone.submoduleInit().call();
+        }
+
+        @After
+        public void deleteRepositories() throws IOException {
+                clone.getRepository().close();
+                deleteTempFolder(folder);
+        }
+
+        @Test
+        public void testSubmodulesClonedInParallel() throws Exception {
+                GitSubmoduleUpdater updater = new GitSubmoduleUpdater(clone.getRepository(), 3);
+
+                assertEquals(Arrays.asList("a", "b", "c"), updater.update());
+
+                for (String path : Arrays.asList("a", "b", "c")) {
+                        assertEquals("second", readFile(new File(clone.getRepository().getWorkTree(), path + "/file.txt")));
+                        assertEquals(secondCommit.getId(), headOf(path));
+                }
+
+                assertTrue(clone.status().call().isClean());
+        }
+
+        @Test
+        public void testOnlyChangedSubmodulesUpdated() throws Exception {
+                new GitSubmoduleUpdater(clone.getRepository(), 2).update();
+
+                Git submodule = Git.wrap(SubmoduleWalk.getSubmoduleRepository(clone.getRepository(), "b"));
+
+                try {
+                        submodule.reset().setMode(ResetType.HARD).setRef(firstCommit.getName()).call();
+                }
+                finally {
+                        submodule.getRepository().close();
+                }
+
+                GitSubmoduleUpdater updater = new GitSubmoduleUpdater(clone.getRepository(), 2);
+                updater.setChangedOnly(true);
+
+                assertEquals(Arrays.asList("b"), updater.update());
+                assertEquals(secondCommit.getId(), headOf("b"));
+                assertTrue(updater.update().isEmpty());
+        }
+
+        @Test
+        public void testSelectedSubmodulesUpdated() throws Exception {
+                GitSubmoduleUpdater updater = new GitSubmoduleUpdater(clone.getRepository(), 4);
+                updater.addPath("c");
+
+                assertEquals(Arrays.asList("c"), updater.update());
+                assertNull(SubmoduleWalk.getSubmoduleRepository(clone.getRepository(), "a"));
+        }
+
+        @Test
+        public void testNestedSubmodulesUpdated() throws Exception {
+                Git leaf = Git.init().setDirectory(new File(folder, "leaf")).call();
+                commit(leaf, "leaf");
+                leaf.getRepository().close();
+
+                Git middle = Git.init().setDirectory(new File(folder, "middle")).call();
+                commit(middle, "middle");
+                middle.submoduleAdd().setPath("leaf").setURI(new File(folder, "leaf").getPath()).call().close();
+                middle.commit().setMessage("leaf").call();
+                middle.getRepository().close();
+
+                Git top = Git.init().setDirectory(new File(folder, "top")).call();
+                commit(top, "top");
+                top.submoduleAdd().setPath("middle").setURI(new File(folder, "middle").getPath()).call().close();
+                top.commit().setMessage("middle").call();
+                top.getRepository().close();
+
+                Git topClone = Git.cloneRepository().setURI(new File(folder, "top").getPath()).setDirectory(new File(folder, "top-clone")).call();
+
+                try {
+                        topClone.submoduleInit().call();
+
+                        GitSubmoduleUpdater updater = new GitSubmoduleUpdater(topClone.getRepository(), 2);
+                        updater.setRecursive(true);
+
+                        assertEquals(Arrays.asList("middle"), updater.update());
+
+                        File workTree = topClone.getRepository().getWorkTree();
+                        assertEquals("middle", readFile(new File(workTree, "middle/file.txt")));
+                        assertEquals("leaf", readFile(new File(workTree, "middle/leaf/file.txt")));
+                }
+                finally {
+                        topClone.getRepository().close();
+                }
+        }
+
+        private ObjectId headOf(String path) throws IOException {
+                Repository repository = SubmoduleWalk.getSubmoduleRepository(clone.getRepository(), path);
+
+                try {
+                        return repository.resolve(Constants.HEAD);
+                }
+                finally {
+                        repository.close();
+                }
+        }
+
+        private static RevCommit commit(Git git, String content) throws Exception {
+                writeFile(git.getRepository().getWorkTree(), "file.txt", content);
+                git.add().addFilepattern("file.txt").call();
+
+                return git.commit().setMessage(content).call();
+        }
+
+}
@@ -20,6 +20,7 @@ import org.junit.*;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.lang.reflect.Method;
+import java.util.List;
 /**
  * Unit test for some utility classes
  *
@@ -85,4 +86,89 @@ public class GitTaskMonitorTest {
                 monitor.endTask();
                 assertEquals("[" + taskName + "] " + GitTaskMonitor.MESSAGE_ENDING, sb.toString());
         }
+
+        @Test
+        public void testThrottledPhaseSummary() {
+                GitTaskMonitor throttledMonitor = new GitTaskMonitor(newMockedGitTask(), 60000, 10);
+                throttledMonitor.beginTask("work", 100);
+
+                for (int i = 0; i < 100; i++) {
+                        throttledMonitor.update(1);
+                }
+
+                throttledMonitor.endTask();
+                throttledMonitor.flush();
+
+                String output = sb.toString();
+                assertTrue(output.startsWith("[work] " + GitTaskMonitor.MESSAGE_BEGIN));
+                assertFalse(output.contains(GitTaskMonitor.MESSAGE_STATUS));
+                assertTrue(output.contains("[work] " + GitTaskMonitor.MESSAGE_ENDING + ": 100 done in "));
+        }
+
+        @Test
+        public void testThrottledPercentStep() {
+                GitTaskMonitor throttledMonitor = new GitTaskMonitor(newMockedGitTask(), 60000, 50);
+                throttledMonitor.beginTask("work", 200);
+                throttledMonitor.update(120);
+                throttledMonitor.sampleProgress();
+                throttledMonitor.update(10);
+                throttledMonitor.sampleProgress();
+                throttledMonitor.endTask();
+                throttledMonitor.flush();
+
+                String output = sb.toString();
+                assertTrue(output.contains("[work] " + GitTaskMonitor.MESSAGE_STATUS + " 60% (120/200)"));
+                assertFalse(output.contains("65%"));
+        }
+
+        @Test
+        public void testPhaseTimings() {
+                monitor.beginTask("remote: Counting objects", 10);
+                monitor.update(4);
+                monitor.update(6);
+                monitor.endTask();
+
+                List<GitPhaseTiming> timings = monitor.drainPhaseTimings();
+                assertEquals(1, timings.size());
+                assertEquals("remote-counting-objects", timings.get(0).getKey());
+                assertEquals(10, timings.get(0).getWork());
+                assertTrue(monitor.drainPhaseTimings().isEmpty());
+        }
+
+        @Test
+        public void testForkedMonitor() {
+                GitTaskMonitor forkedMonitor = monitor.fork("upstream");
+                forkedMonitor.beginTask("Receiving objects", 2);
+                forkedMonitor.update(2);
+                forkedMonitor.endTask();
+
+                assertTrue(sb.toString().startsWith("[upstream: Receiving objects] " + GitTaskMonitor.MESSAGE_BEGIN));
+
+                List<GitPhaseTiming> timings = monitor.drainPhaseTimings();
+                assertEquals(1, timings.size());
+                assertEquals("upstream-receiving-objects", timings.get(0).getKey());
+        }
+
+        @Test
+        public void testIdleTimeout() {
+                final long[] now = { 0 };
+                GitTaskMonitor clockedMonitor = new GitTaskMonitor(newMockedGitTask()) {
+                        @Override
+                        long currentTimeMillis() {
+                                return now[0];
+                        }
+                };
+
+                clockedMonitor.setTimeouts(0, 50000);
+                clockedMonitor.beginTask("Receiving objects", 10);
+                now[0] += 40000;
+                clockedMonitor.update(1);
+                now[0] += 49999;
+                assertFalse(clockedMonitor.isCancelled());
+                now[0] += 1;
+
+                assertTrue(clockedMonitor.isCancelled());
+                assertTrue(clockedMonitor.getCancellationMessage().startsWith("no progress for 50 seconds"));
+                assertTrue(clockedMonitor.getCancellationMessage().endsWith("during the 'Receiving objects' phase"));
+        }
 }
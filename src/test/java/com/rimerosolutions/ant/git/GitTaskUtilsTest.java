@@ -73,4 +73,11 @@ public class GitTaskUtilsTest {
                 t.setUnless("Hello");
                 GitTaskUtils.validateTaskConditions(t);
         }
+
+        @Test
+        public void testToJsonString() {
+                assertEquals("null", GitTaskUtils.toJsonString(null));
+                assertEquals("\"Receiving objects\"", GitTaskUtils.toJsonString("Receiving objects"));
+                assertEquals("\"C:\\\\repo \\\"a\\\"\\n\"", GitTaskUtils.toJsonString("C:\\repo \"a\"\n"));
+        }
 }
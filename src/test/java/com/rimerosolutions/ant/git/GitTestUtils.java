@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.IndexDiff;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.FileUtils;
+
+/**
+ * Helpers shared by the unit tests
+ *
+ * @author Yves Zoundi
+ */
+final class GitTestUtils {
+
+        private static final String CHARSET = "UTF-8";
+
+        private GitTestUtils() {
+                throw new AssertionError("Utility class");
+        }
+
+        /**
+         * Creates an empty temporary folder
+         *
+         * @param prefix The folder name prefix
+         * @return The new folder
+         * @throws IOException When the folder cannot be created
+         */
+        static File createTempFolder(String prefix) throws IOException {
+                File folder = File.createTempFile(prefix, "");
+
+                if (!folder.delete() || !folder.mkdirs()) {
+                        throw new IOException("Could not create the temporary folder " + folder);
+                }
+
+                return folder;
+        }
+
+        /**
+         * Deletes a temporary folder and its content
+         *
+         * @param folder The folder to delete
+         * @throws IOException When the folder cannot be deleted
+         */
+        static void deleteTempFolder(File folder) throws IOException {
+                FileUtils.delete(folder, FileUtils.RECURSIVE);
+        }
+
+        /**
+         * Writes a file, creating its parent folders
+         *
+         * @param folder The base folder
+         * @param path The file path relative to the base folder
+         * @param content The file content
+         * @return The written file
+         * @throws IOException When the file cannot be written
+         */
+        static File writeFile(File folder, String path, String content) throws IOException {
+                File file = new File(folder, path);
+                file.getParentFile().mkdirs();
+
+                Writer writer = new OutputStreamWriter(new FileOutputStream(file), CHARSET);
+
+                try {
+                        writer.write(content);
+                }
+                finally {
+                        writer.close();
+                }
+
+                return file;
+        }
+
+        /**
+         * Reads a file
+         *
+         * @param file The file to read
+         * @return The file content
+         * @throws IOException When the file cannot be read
+         */
+        static String readFile(File file) throws IOException {
+                return new String(Files.readAllBytes(file.toPath()), CHARSET);
+        }
+
+        /**
+         * Computes the status of a work tree with the JGit index diff, the reference of the parallel scans
+         *
+         * @param repository The repository
+         * @param filter The paths filter
+         * @return The work tree status
+         * @throws IOException When the work tree cannot be read
+         */
+        static GitTreeStatus serialStatus(Repository repository, TreeFilter filter) throws IOException {
+                IndexDiff diff = new IndexDiff(repository, Constants.HEAD, new FileTreeIterator(repository));
+
+                if (filter != TreeFilter.ALL) {
+                        diff.setFilter(filter);
+                }
+
+                diff.diff();
+
+                return GitTreeStatus.of(diff);
+        }
+
+}
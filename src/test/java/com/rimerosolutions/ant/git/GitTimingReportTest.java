@@ -0,0 +1,209 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import static com.rimerosolutions.ant.git.GitTestUtils.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.Project;
+import org.eclipse.jgit.api.GitCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.NoHeadException;
+
+/**
+ * Unit test for the git tasks timing report
+ *
+ * @author Yves Zoundi
+ */
+public class GitTimingReportTest {
+
+        private final List<String> messages = new ArrayList<String>();
+        private final List<GitTaskTiming> recorded = new ArrayList<GitTaskTiming>();
+        private final Project project = new Project();
+        private final GitTimingReport report = new GitTimingReport() {
+                @Override
+                public synchronized void record(GitTaskTiming timing) {
+                        recorded.add(timing);
+                        super.record(timing);
+                }
+        };
+        private File folder;
+
+        @Before
+        public void registerReport() throws IOException {
+                folder = createTempFolder("timing-report");
+                project.addBuildListener(new MessagesListener());
+                GitTimingReport.register(project, report);
+        }
+
+        @After
+        public void deleteFolder() throws IOException {
+                deleteTempFolder(folder);
+        }
+
+        @Test
+        public void testTimingsAggregatedSlowestFirst() {
+                report.record(timing("git-status", "/a", 1, 4, 2, 100));
+                report.record(timing("git-clone", "/a", 5, 40, 30, 1000));
+                report.record(timing("git-status", "/b", 2, 6, 3, 200));
+
+                List<GitTimingReport.TaskSummary> summaries = report.summarize();
+
+                assertEquals(2, summaries.size());
+                assertEquals("git-clone", summaries.get(0).getTaskName());
+                assertEquals(1, summaries.get(0).getRuns());
+                assertEquals(millis(45), summaries.get(0).getTotalTime());
+                assertEquals("git-status", summaries.get(1).getTaskName());
+                assertEquals(2, summaries.get(1).getRuns());
+                assertEquals(millis(13), summaries.get(1).getTotalTime());
+        }
+
+        @Test
+        public void testReportRendered() throws IOException {
+                File reportFile = new File(folder, "timings.json");
+                report.setReportFile(reportFile);
+                report.record(timing("git-status", "/a", 1, 4, 2, 100));
+                report.record(timing("git-status", "/b", 2, 6, 3, -1));
+                report.record(timing("git-fetch", "/a", 0, 20, 18, 300));
+
+                report.buildFinished(new BuildEvent(project));
+
+                assertEquals("Git tasks timings (ms), slowest first:", messages.get(0));
+                assertTrue(messages.get(1).matches("git-fetch\\s+runs=1\\s+total=20\\s+open=0\\s+execute=20\\s+command=18\\s+allocated=300B"));
+                assertTrue(messages.get(2).matches("git-status\\s+runs=2\\s+total=13\\s+open=3\\s+execute=10\\s+command=5\\s+allocated=n/a"));
+
+                String json = readFile(reportFile);
+                assertTrue(json.contains("{\"task\":\"git-fetch\",\"runs\":1,\"totalMillis\":20,\"openMillis\":0,\"executeMillis\":20,\"commandMillis\":18,\"allocatedBytes\":300}"));
+                assertTrue(json.contains("{\"task\":\"git-status\",\"runs\":2,\"totalMillis\":13,\"openMillis\":3,\"executeMillis\":10,\"commandMillis\":5,\"allocatedBytes\":-1}"));
+                assertTrue(json.contains("{\"task\":\"git-status\",\"directory\":\"/b\",\"thread\":\"main\",\"openMillis\":2,\"executeMillis\":6,\"commandMillis\":3,\"allocatedBytes\":-1}"));
+                assertTrue(json.contains("{\"thread\":\"main\",\"allocatedBytes\":400}"));
+        }
+
+        @Test
+        public void testNothingRenderedWithoutTimings() {
+                report.buildFinished(new BuildEvent(project));
+
+                assertTrue(messages.isEmpty());
+        }
+
+        @Test
+        public void testCommandTimeRecordedWhenCommandFails() {
+                FailingCommandTask task = new FailingCommandTask();
+                task.setProject(project);
+
+                try {
+                        task.execute();
+                        fail("The command failure should fail the task");
+                }
+                catch (GitBuildException e) {
+                        assertTrue(e.getCause() instanceof NoHeadException);
+                }
+
+                assertEquals(1, recorded.size());
+                assertEquals("failing-command", recorded.get(0).getTaskName());
+                assertTrue(recorded.get(0).getCommandTime() >= millis(FailingCommandTask.COMMAND_DURATION));
+                assertTrue(recorded.get(0).getCommandTime() <= recorded.get(0).getExecuteTime());
+        }
+
+        private static GitTaskTiming timing(String taskName, String directory, long openMillis, long executeMillis, long commandMillis, long allocatedBytes) {
+                return new GitTaskTiming(taskName, directory, "main", millis(openMillis), millis(executeMillis), millis(commandMillis), allocatedBytes);
+        }
+
+        private static long millis(long millis) {
+                return TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+
+        private static final class FailingCommandTask extends AbstractGitTask {
+
+                static final long COMMAND_DURATION = 20;
+
+                @Override
+                public String getName() {
+                        return "failing-command";
+                }
+
+                @Override
+                public void execute() {
+                        GitTaskTiming timing = startTiming();
+
+                        try {
+                                callCommand(new GitCommand<Void>(null) {
+                                                @Override
+                                                public Void call() throws GitAPIException {
+                                                        try {
+                                                                Thread.sleep(COMMAND_DURATION);
+                                                        }
+                                                        catch (InterruptedException e) {
+                                                                Thread.currentThread().interrupt();
+                                                        }
+
+                                                        throw new NoHeadException("No HEAD to work with.");
+                                                }
+                                        });
+                        }
+                        catch (GitAPIException e) {
+                                throw new GitBuildException("Command failed", e);
+                        }
+                        finally {
+                                finishTiming(timing);
+                        }
+                }
+        }
+
+        private final class MessagesListener implements BuildListener {
+
+                @Override
+                public void messageLogged(BuildEvent event) {
+                        if (event.getPriority() <= Project.MSG_INFO) {
+                                messages.add(event.getMessage());
+                        }
+                }
+
+                @Override
+                public void buildStarted(BuildEvent event) {
+                }
+
+                @Override
+                public void buildFinished(BuildEvent event) {
+                }
+
+                @Override
+                public void targetStarted(BuildEvent event) {
+                }
+
+                @Override
+                public void targetFinished(BuildEvent event) {
+                }
+
+                @Override
+                public void taskStarted(BuildEvent event) {
+                }
+
+                @Override
+                public void taskFinished(BuildEvent event) {
+                }
+        }
+
+}
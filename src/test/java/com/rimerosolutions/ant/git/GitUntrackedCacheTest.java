@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import static com.rimerosolutions.ant.git.GitTestUtils.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Unit test for the untracked cache
+ *
+ * @author Yves Zoundi
+ */
+public class GitUntrackedCacheTest {
+
+        private static final long PAST = System.currentTimeMillis() - 60000;
+        private File workTree;
+        private Git git;
+
+        @Before
+        public void initializeRepository() throws Exception {
+                workTree = createTempFolder("untracked-cache");
+
+                git = Git.init().setDirectory(workTree).call();
+                writeFile(workTree, "a/file.txt", "a");
+                writeFile(workTree, ".gitignore", "*.log\n");
+                git.add().addFilepattern(".").call();
+                git.commit().setMessage("initial").call();
+
+                writeFile(workTree, "u/x.txt", "x");
+                writeFile(workTree, "u/.gitignore", "#");
+                writeFile(workTree, "u/sub/y.txt", "y");
+                writeFile(workTree, "v/output.log", "ignored");
+
+                for (String folder : new String[]{"u", "u/sub", "v"}) {
+                        new File(workTree, folder).setLastModified(PAST);
+                }
+        }
+
+        @After
+        public void deleteRepository() throws IOException {
+                git.getRepository().close();
+                deleteTempFolder(workTree);
+        }
+
+        @Test
+        public void testSameStatusAsSerialScan() throws Exception {
+                GitTreeStatus status = cachedScan();
+
+                assertEquals("[u/.gitignore, u/sub/y.txt, u/x.txt]", status.getUntracked().toString());
+                assertEquals(serialStatus(git.getRepository(), TreeFilter.ALL), status);
+                assertEquals(serialStatus(git.getRepository(), TreeFilter.ALL), cachedScan());
+        }
+
+        @Test
+        public void testUnchangedFoldersNotWalked() throws Exception {
+                cachedScan();
+
+                writeFile(workTree, "u/sub/z.txt", "z");
+                new File(workTree, "u/sub").setLastModified(PAST);
+
+                assertFalse(cachedScan().getUntracked().contains("u/sub/z.txt"));
+
+                new File(workTree, "u/sub").setLastModified(PAST + 1000);
+
+                assertTrue(cachedScan().getUntracked().contains("u/sub/z.txt"));
+                assertEquals(serialStatus(git.getRepository(), TreeFilter.ALL), cachedScan());
+        }
+
+        @Test
+        public void testIgnoreFilesChanges() throws Exception {
+                cachedScan();
+
+                writeFile(workTree, "u/.gitignore", "y.txt");
+                new File(workTree, "u/.gitignore").setLastModified(PAST + 2000);
+
+                assertFalse(cachedScan().getUntracked().contains("u/sub/y.txt"));
+                assertEquals(serialStatus(git.getRepository(), TreeFilter.ALL), cachedScan());
+
+                writeFile(workTree, ".gitignore", "*.log\nu/\n");
+
+                assertTrue(cachedScan().getUntracked().isEmpty());
+                assertEquals(serialStatus(git.getRepository(), TreeFilter.ALL), cachedScan());
+        }
+
+        private GitTreeStatus cachedScan() throws IOException {
+                ParallelStatusScanner scanner = new ParallelStatusScanner(git.getRepository(), 1);
+                scanner.setUntrackedCache(GitUntrackedCache.load(git.getRepository()));
+
+                return scanner.scan();
+        }
+
+}
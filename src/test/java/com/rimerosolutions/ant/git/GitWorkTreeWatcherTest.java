@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import static com.rimerosolutions.ant.git.GitTestUtils.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Unit test for the working tree watcher
+ *
+ * @author Yves Zoundi
+ */
+public class GitWorkTreeWatcherTest {
+
+        private static final long EVENTS_TIMEOUT = 5000;
+        private static final long IDLE_TIMEOUT = 60000;
+        private File workTree;
+        private Git git;
+        private GitWorkTreeWatcher watcher;
+
+        @Before
+        public void initializeRepository() throws Exception {
+                workTree = createTempFolder("tree-watcher");
+
+                initializeWorkTree();
+                watcher = GitWorkTreeWatcher.forWorkTree(workTree, IDLE_TIMEOUT);
+        }
+
+        @After
+        public void deleteRepository() throws IOException {
+                watcher.close();
+                git.getRepository().close();
+                deleteTempFolder(workTree);
+        }
+
+        @Test
+        public void testSameWatcherForWorkTree() throws IOException {
+                assertSame(watcher, GitWorkTreeWatcher.forWorkTree(new File(workTree, "."), IDLE_TIMEOUT));
+        }
+
+        @Test
+        public void testClosedWhenIdle() throws Exception {
+                if (!watcher.isWatching()) {
+                        return;
+                }
+
+                assertSame(watcher, GitWorkTreeWatcher.forWorkTree(workTree, 100));
+
+                long deadline = System.currentTimeMillis() + EVENTS_TIMEOUT;
+
+                while (watcher.isWatching() && System.currentTimeMillis() < deadline) {
+                        Thread.sleep(50);
+                }
+
+                assertFalse(watcher.isWatching());
+                assertTrue(watcher.status(git.getRepository(), TreeFilter.ALL, 1).isClean());
+                assertFalse(watcher.isWatching());
+
+                GitWorkTreeWatcher closedWatcher = watcher;
+                watcher = GitWorkTreeWatcher.forWorkTree(workTree, IDLE_TIMEOUT);
+
+                assertNotSame(closedWatcher, watcher);
+        }
+
+        @Test
+        public void testWatchedAgainWhenWorkTreeRecreated() throws Exception {
+                if (!watcher.isWatching()) {
+                        return;
+                }
+
+                watcher.status(git.getRepository(), TreeFilter.ALL, 1);
+                git.getRepository().close();
+                deleteTempFolder(workTree);
+                assertTrue(workTree.mkdirs());
+                initializeWorkTree();
+
+                assertTrue(watcher.status(git.getRepository(), TreeFilter.ALL, 1).isClean());
+
+                writeFile(workTree, "a/file.txt", "modified");
+
+                GitTreeStatus status = awaitStatus(1);
+                assertEquals("[a/file.txt]", status.getModified().toString());
+                assertEquals(serialStatus(git.getRepository(), TreeFilter.ALL), status);
+        }
+
+        @Test
+        public void testChangedPathsRescanned() throws Exception {
+                if (!watcher.isWatching()) {
+                        return;
+                }
+
+                assertTrue(watcher.status(git.getRepository(), TreeFilter.ALL, 1).isClean());
+                assertFalse(watcher.isLastScanIncremental());
+
+                writeFile(workTree, "a/file.txt", "modified");
+                new File(workTree, "b/c/file.txt").delete();
+                writeFile(workTree, "d/e/new.txt", "new");
+
+                GitTreeStatus status = awaitStatus(3);
+
+                assertTrue(watcher.isLastScanIncremental());
+                assertEquals("[a/file.txt]", status.getModified().toString());
+                assertEquals("[b/c/file.txt]", status.getMissing().toString());
+                assertEquals("[d/e/new.txt]", status.getUntracked().toString());
+                assertEquals(serialStatus(git.getRepository(), TreeFilter.ALL), status);
+
+                writeFile(workTree, "a/file.txt", "a");
+
+                assertEquals(serialStatus(git.getRepository(), TreeFilter.ALL), awaitStatus(2));
+        }
+
+        @Test
+        public void testFullScanWhenIndexChanges() throws Exception {
+                if (!watcher.isWatching()) {
+                        return;
+                }
+
+                watcher.status(git.getRepository(), TreeFilter.ALL, 1);
+                writeFile(workTree, "a/file.txt", "modified");
+                git.add().addFilepattern("a/file.txt").call();
+
+                GitTreeStatus status = watcher.status(git.getRepository(), TreeFilter.ALL, 1);
+
+                assertFalse(watcher.isLastScanIncremental());
+                assertEquals("[a/file.txt]", status.getChanged().toString());
+                assertEquals(serialStatus(git.getRepository(), TreeFilter.ALL), status);
+        }
+
+        private void initializeWorkTree() throws Exception {
+                git = Git.init().setDirectory(workTree).call();
+                writeFile(workTree, "a/file.txt", "a");
+                writeFile(workTree, "b/c/file.txt", "c");
+                git.add().addFilepattern(".").call();
+                git.commit().setMessage("initial").call();
+        }
+
+        private GitTreeStatus awaitStatus(int changedPaths) throws Exception {
+                long deadline = System.currentTimeMillis() + EVENTS_TIMEOUT;
+                GitTreeStatus status = watcher.status(git.getRepository(), TreeFilter.ALL, 1);
+
+                while (countPaths(status) != changedPaths && System.currentTimeMillis() < deadline) {
+                        Thread.sleep(50);
+                        status = watcher.status(git.getRepository(), TreeFilter.ALL, 1);
+                }
+
+                return status;
+        }
+
+        private static int countPaths(GitTreeStatus status) {
+                return status.getAdded().size() + status.getChanged().size() + status.getRemoved().size() + status.getMissing().size()
+                        + status.getModified().size() + status.getUntracked().size() + status.getConflicting().size();
+        }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import static com.rimerosolutions.ant.git.GitTestUtils.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+
+/**
+ * Unit test for the parallel stager
+ *
+ * @author Yves Zoundi
+ */
+public class ParallelStagerTest {
+
+        private File workTree;
+        private Git git;
+
+        @Before
+        public void initializeRepository() throws Exception {
+                workTree = createTempFolder("parallel-stager");
+
+                git = Git.init().setDirectory(workTree).call();
+                writeFile(workTree, ".gitignore", "*.log\n");
+                writeFile(workTree, "tracked/kept.txt", "kept");
+                writeFile(workTree, "tracked/deleted.txt", "deleted");
+                git.add().addFilepattern(".").call();
+                git.commit().setMessage("initial").call();
+
+                for (int i = 0; i < 300; i++) {
+                        writeFile(workTree, "generated/folder" + (i % 7) + "/file" + i + ".txt", "content " + i);
+                }
+
+                writeFile(workTree, "generated/ignored.log", "ignored");
+                writeFile(workTree, "tracked/kept.txt", "modified");
+        }
+
+        @After
+        public void deleteRepository() throws IOException {
+                git.getRepository().close();
+                deleteTempFolder(workTree);
+        }
+
+        @Test
+        public void testSameIndexAsAddCommand() throws Exception {
+                List<String> initialIndex = indexEntries(git.getRepository().readDirCache());
+
+                git.add().addFilepattern("generated").addFilepattern("tracked").call();
+                List<String> expected = indexEntries(git.getRepository().readDirCache());
+
+                restoreIndex(initialIndex);
+
+                ParallelStager stager = new ParallelStager(git.getRepository(), 4);
+                stager.addFilepattern("generated");
+                stager.addFilepattern("tracked");
+                List<String> actual = indexEntries(stager.stage());
+
+                assertEquals(303, actual.size());
+                assertEquals(expected, actual);
+                assertEquals(expected, indexEntries(git.getRepository().readDirCache()));
+        }
+
+        @Test
+        public void testSameIndexAsAddCommandPackObjects() throws Exception {
+                List<String> initialIndex = indexEntries(git.getRepository().readDirCache());
+
+                ParallelStager stager = new ParallelStager(git.getRepository(), 3);
+                stager.setPackObjects(true);
+                stager.addFilepattern("generated");
+                List<String> actual = indexEntries(stager.stage());
+
+                assertEquals(6, new File(git.getRepository().getDirectory(), "objects/pack").list().length);
+
+                restoreIndex(initialIndex);
+                git.add().addFilepattern("generated").call();
+
+                assertEquals(indexEntries(git.getRepository().readDirCache()), actual);
+        }
+
+        @Test
+        public void testSameIndexAsAddCommandUpdate() throws Exception {
+                new File(workTree, "tracked/deleted.txt").delete();
+                git.add().setUpdate(true).addFilepattern(".").call();
+                List<String> expected = indexEntries(git.getRepository().readDirCache());
+
+                git.reset().setMode(ResetType.MIXED).call();
+
+                ParallelStager stager = new ParallelStager(git.getRepository(), 2);
+                stager.setUpdate(true);
+                stager.addFilepattern(".");
+
+                assertEquals(expected, indexEntries(stager.stage()));
+                assertEquals(2, expected.size());
+        }
+
+        private void restoreIndex(List<String> entries) throws Exception {
+                git.reset().setMode(ResetType.MIXED).call();
+
+                assertEquals(entries, indexEntries(git.getRepository().readDirCache()));
+        }
+
+        /**
+         * Lists the mode, blob id and path of the index entries. Lengths are left out, they are
+         * reset for the entries of the racily clean files when the index is written.
+         */
+        private static List<String> indexEntries(DirCache dirCache) {
+                List<String> entries = new ArrayList<String>(dirCache.getEntryCount());
+
+                for (int i = 0; i < dirCache.getEntryCount(); i++) {
+                        DirCacheEntry entry = dirCache.getEntry(i);
+                        entries.add(entry.getFileMode() + " " + entry.getObjectId().name() + " " + entry.getPathString());
+                }
+
+                return entries;
+        }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import static com.rimerosolutions.ant.git.GitTestUtils.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Unit test for the parallel status scanner
+ *
+ * @author Yves Zoundi
+ */
+public class ParallelStatusScannerTest {
+
+        private File workTree;
+        private Git git;
+
+        @Before
+        public void initializeRepository() throws Exception {
+                workTree = createTempFolder("parallel-status");
+
+                git = Git.init().setDirectory(workTree).call();
+
+                for (String folder : new String[]{"a", "b/c", "d"}) {
+                        for (int i = 0; i < 5; i++) {
+                                writeFile(workTree, folder + "/file" + i + ".txt", "content " + i);
+                        }
+                }
+
+                writeFile(workTree, "root.txt", "root");
+                writeFile(workTree, "other.txt", "other");
+                writeFile(workTree, ".gitignore", "*.log\nbuild/\n");
+
+                git.add().addFilepattern(".").call();
+                git.commit().setMessage("initial").call();
+        }
+
+        @After
+        public void deleteRepository() throws IOException {
+                git.getRepository().close();
+                deleteTempFolder(workTree);
+        }
+
+        @Test
+        public void testCleanTree() throws Exception {
+                GitTreeStatus status = new ParallelStatusScanner(git.getRepository(), 4).scan();
+
+                assertTrue(status.isClean());
+                assertEquals(serialStatus(git.getRepository(), TreeFilter.ALL), status);
+        }
+
+        @Test
+        public void testSameStatusAsSerialScan() throws Exception {
+                writeFile(workTree, "a/file0.txt", "modified");
+                new File(workTree, "b/c/file1.txt").delete();
+                writeFile(workTree, "d/file2.txt", "changed");
+                git.add().addFilepattern("d/file2.txt").call();
+                git.rm().addFilepattern("d/file3.txt").call();
+                writeFile(workTree, "e/new.txt", "added");
+                git.add().addFilepattern("e/new.txt").call();
+                writeFile(workTree, "f/untracked.txt", "untracked");
+                writeFile(workTree, "untracked.txt", "untracked");
+                writeFile(workTree, "root.txt", "modified root");
+                writeFile(workTree, "a/ignored.log", "ignored");
+                writeFile(workTree, "build/output.txt", "ignored");
+
+                GitTreeStatus expected = serialStatus(git.getRepository(), TreeFilter.ALL);
+
+                assertEquals("[a/file0.txt, root.txt]", expected.getModified().toString());
+                assertEquals("[b/c/file1.txt]", expected.getMissing().toString());
+                assertEquals("[d/file2.txt]", expected.getChanged().toString());
+                assertEquals("[d/file3.txt]", expected.getRemoved().toString());
+                assertEquals("[e/new.txt]", expected.getAdded().toString());
+                assertEquals("[f/untracked.txt, untracked.txt]", expected.getUntracked().toString());
+
+                for (int threads = 1; threads <= 4; threads++) {
+                        GitTreeStatus status = new ParallelStatusScanner(git.getRepository(), threads).scan();
+
+                        assertEquals(expected, status);
+                        assertEquals(expected.toString(), status.toString());
+                }
+        }
+
+        @Test
+        public void testFilteredScan() throws Exception {
+                writeFile(workTree, "a/file0.txt", "modified");
+                writeFile(workTree, "b/c/file0.txt", "modified");
+                writeFile(workTree, "root.txt", "modified root");
+
+                TreeFilter filter = PathFilterGroup.createFromStrings(new String[]{"b", "root.txt"});
+                ParallelStatusScanner scanner = new ParallelStatusScanner(git.getRepository(), 2);
+                scanner.setFilter(filter);
+                GitTreeStatus status = scanner.scan();
+
+                assertEquals("[b/c/file0.txt, root.txt]", status.getModified().toString());
+                assertEquals(serialStatus(git.getRepository(), filter), status);
+        }
+
+}
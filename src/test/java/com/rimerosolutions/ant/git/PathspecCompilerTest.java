@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013 Rimero Solutions
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rimerosolutions.ant.git;
+
+import static com.rimerosolutions.ant.git.GitTestUtils.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.ant.types.resources.Union;
+import org.eclipse.jgit.api.Git;
+
+/**
+ * Unit test for the pathspec compiler
+ *
+ * @author Yves Zoundi
+ */
+public class PathspecCompilerTest {
+
+        private File workTree;
+        private Git git;
+        private Project project;
+
+        @Before
+        public void initializeRepository() throws Exception {
+                workTree = createTempFolder("pathspec-compiler");
+
+                git = Git.init().setDirectory(workTree).call();
+                project = new Project();
+
+                writeFile(workTree, "top.txt", "top");
+                writeFile(workTree, "src/Main.java", "class Main {}");
+
+                for (int i = 0; i < 5; i++) {
+                        writeFile(workTree, "generated/a/file" + i + ".txt", "a" + i);
+                        writeFile(workTree, "generated/b/file" + i + ".txt", "b" + i);
+                }
+
+                new File(workTree, "generated/b/empty").mkdirs();
+        }
+
+        @After
+        public void deleteRepository() throws IOException {
+                git.getRepository().close();
+                deleteTempFolder(workTree);
+        }
+
+        @Test
+        public void testWholeFolderCollapsed() throws Exception {
+                assertEquals("[generated]", compile(fileSet("generated", null)).toString());
+                assertEquals("[generated]", compile(fileSet(".", "generated/**")).toString());
+                assertEquals("[generated/a]", compile(fileSet(".", "generated/a/**")).toString());
+        }
+
+        @Test
+        public void testPartialFolderNotCollapsed() throws Exception {
+                FileSet fileSet = fileSet("generated", null);
+                fileSet.setExcludes("b/file4.txt");
+
+                assertEquals("[generated/a, generated/b/file0.txt, generated/b/file1.txt, generated/b/file2.txt, generated/b/file3.txt]",
+                             compile(fileSet).toString());
+        }
+
+        @Test
+        public void testMissingIndexEntriesPreventCollapsing() throws Exception {
+                writeFile(workTree, "generated/b/deleted.txt", "deleted");
+                git.add().addFilepattern("generated").call();
+                new File(workTree, "generated/b/deleted.txt").delete();
+
+                assertEquals("[generated/a, generated/b/file0.txt, generated/b/file1.txt, generated/b/file2.txt, generated/b/file3.txt, generated/b/file4.txt]",
+                             compile(fileSet("generated", null)).toString());
+        }
+
+        @Test
+        public void testRepositoryRootNotCollapsed() throws Exception {
+                assertEquals("[generated, src, top.txt]", compile(fileSet(".", null)).toString());
+        }
+
+        @Test
+        public void testSeveralFileSets() throws Exception {
+                assertEquals("[generated/a, src, top.txt]",
+                             compile(fileSet("generated/a", null), fileSet(".", "*.txt"), fileSet("src", "**/*.java")).toString());
+        }
+
+        @Test
+        public void testIncludesFileWithoutUnionProject() throws Exception {
+                File includesFile = writeFile(workTree, "includes.txt", "top.txt\nsrc/**\n");
+                FileSet fileSet = fileSet(".", null);
+                fileSet.setIncludesfile(includesFile);
+
+                Union union = new Union();
+                union.add(fileSet);
+
+                assertEquals("[src, top.txt]", new PathspecCompiler(git.getRepository()).compile(union).toString());
+        }
+
+        private List<String> compile(FileSet... fileSets) throws IOException {
+                Union union = new Union();
+                union.setProject(project);
+
+                for (FileSet fileSet : fileSets) {
+                        union.add(fileSet);
+                }
+
+                return new PathspecCompiler(git.getRepository()).compile(union);
+        }
+
+        private FileSet fileSet(String dir, String includes) {
+                FileSet fileSet = new FileSet();
+                fileSet.setProject(project);
+                fileSet.setDir(new File(workTree, dir));
+
+                if (includes != null) {
+                        fileSet.setIncludes(includes);
+                }
+
+                return fileSet;
+        }
+
+}